@@ -0,0 +1,77 @@
+package com.hackncheese.glassnetinfo;
+
+import android.app.Instrumentation;
+import android.content.Context;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * Measures how long a voice launch takes to show a full card: from the VOICE_TRIGGER intent
+ * to a card with the external IP and its provider.
+ * Each launch starts without DNS answers, pooled connections or cached external IP, like the
+ * first launch on a network. Needs a headset online; the results are logged under this class name.
+ */
+public class ColdStartBenchmark extends InstrumentationTestCase {
+
+    // for logs
+    private static final String TAG = ColdStartBenchmark.class.getSimpleName();
+
+    private static final String ACTION_VOICE_TRIGGER = "com.google.android.glass.action.VOICE_TRIGGER";
+    private static final int LAUNCHES = 5;
+    // longer than a refresh can take
+    private static final long MAX_WAIT_MS = 10000;
+    private static final long POLL_MS = 10;
+
+    public void testVoiceTriggerToFullCard() throws Exception {
+        Instrumentation instrumentation = getInstrumentation();
+        Context context = instrumentation.getTargetContext();
+        NetInfoApplication application = (NetInfoApplication) context.getApplicationContext();
+
+        long[] durations = new long[LAUNCHES];
+        for (int i = 0; i < LAUNCHES; i++) {
+            // forget what the previous launch left behind
+            application.getHttpClient().onNetworkChanged();
+            application.getExternalIpCache().invalidate();
+
+            Intent intent = new Intent(ACTION_VOICE_TRIGGER);
+            intent.setClassName(context, MainActivity.class.getName());
+            intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+
+            long start = SystemClock.elapsedRealtime();
+            MainActivity activity = (MainActivity) instrumentation.startActivitySync(intent);
+            try {
+                while (!isFull(context, activity.getSnapshot())) {
+                    assertTrue("no full card after " + MAX_WAIT_MS + " ms",
+                            SystemClock.elapsedRealtime() - start < MAX_WAIT_MS);
+                    Thread.sleep(POLL_MS);
+                }
+                durations[i] = SystemClock.elapsedRealtime() - start;
+            } finally {
+                activity.finish();
+                instrumentation.waitForIdleSync();
+            }
+        }
+
+        Arrays.sort(durations);
+        Log.i(TAG, String.format("voice trigger to full card: min %d ms, median %d ms, max %d ms (%d launches)",
+                durations[0], durations[LAUNCHES / 2], durations[LAUNCHES - 1], LAUNCHES));
+    }
+
+    /**
+     * @return true once the live external IP and its provider are on the card,
+     * not the ones of the last launch
+     */
+    private static boolean isFull(Context context, NetInfoSnapshot snapshot) {
+        NetInfoSnapshot.Value extIp = snapshot.getExtIP();
+        NetInfoSnapshot.Value provider = snapshot.getProvider();
+        String timeout = context.getString(R.string.http_response_timeout);
+        assertFalse("the lookups timed out", extIp != null && extIp.getText().equals(timeout)
+                || provider != null && provider.getText().equals(timeout));
+        return extIp != null && !extIp.isStale() && provider != null && !provider.isStale()
+                && !provider.getText().equals(context.getString(R.string.retrieving));
+    }
+}
@@ -0,0 +1,74 @@
+package com.hackncheese.glassnetinfo;
+
+import android.test.AndroidTestCase;
+
+import com.hackncheese.glassnetinfo.core.IpInfo;
+
+import java.io.File;
+import java.util.concurrent.Executor;
+
+/**
+ * Saves a snapshot and reads it back, as the next launch does
+ */
+public class SnapshotStoreTest extends AndroidTestCase {
+
+    // writes the file right away, so that it can be read back
+    private static final Executor DIRECT = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private File mFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mFile = new File(getContext().getCacheDir(), "snapshot-test.bin");
+        mFile.delete();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mFile.delete();
+        super.tearDown();
+    }
+
+    public void testNothingSaved() {
+        assertNull(new SnapshotStore(mFile, DIRECT).getLastKnown());
+    }
+
+    public void testSnapshotIsReadBackOutOfDate() {
+        NetInfoSnapshot saved = NetInfoSnapshot.EMPTY
+                .withWlanIP("192.168.1.12")
+                .withSsid("venue")
+                .withGateway("192.168.1.1")
+                .withIpInfo(new IpInfo("8.8.8.8", "AS15169", "Google LLC", "Mountain View", "US"),
+                        System.currentTimeMillis() - 60000, false);
+        new SnapshotStore(mFile, DIRECT).save(saved);
+
+        NetInfoSnapshot read = new SnapshotStore(mFile, DIRECT).getLastKnown();
+
+        assertNotNull(read);
+        assertSameStale(saved.getWlanIP(), read.getWlanIP());
+        assertSameStale(saved.getSsid(), read.getSsid());
+        assertSameStale(saved.getGateway(), read.getGateway());
+        assertSameStale(saved.getExtIP(), read.getExtIP());
+        assertSameStale(saved.getProvider(), read.getProvider());
+        assertSameStale(saved.getLocation(), read.getLocation());
+        // not known when saved
+        assertNull(read.getWlanIPv6());
+        assertNull(read.getTether());
+    }
+
+    /**
+     * Checks that a value read back is the saved one, with its timestamp, marked as out of date
+     */
+    private static void assertSameStale(NetInfoSnapshot.Value saved, NetInfoSnapshot.Value read) {
+        assertNotNull(read);
+        assertEquals(saved.getText(), read.getText());
+        assertEquals(saved.getTimestamp(), read.getTimestamp());
+        assertTrue(read.isStale());
+    }
+}
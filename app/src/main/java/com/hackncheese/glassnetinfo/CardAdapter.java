@@ -1,6 +1,7 @@
 package com.hackncheese.glassnetinfo;
 
 import android.content.Context;
+import android.util.Log;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AdapterView;
@@ -8,34 +9,85 @@ import android.widget.TextView;
 
 import com.google.android.glass.widget.CardBuilder;
 import com.google.android.glass.widget.CardScrollAdapter;
+import com.hackncheese.glassnetinfo.core.EndpointHealth;
+import com.hackncheese.glassnetinfo.core.EndpointLatencies;
+import com.hackncheese.glassnetinfo.core.LatencyHistogram;
+import com.hackncheese.glassnetinfo.core.LatencyProbeEngine;
+import com.hackncheese.glassnetinfo.core.LatencyWindow;
+import com.hackncheese.glassnetinfo.core.NetInfoHttpClient;
+import com.hackncheese.glassnetinfo.core.ProviderCache;
+import com.hackncheese.glassnetinfo.core.ReconnectTracker;
+import com.hackncheese.glassnetinfo.core.RefreshTimings;
 
-import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Populates views in a {@code CardScrollView} with a card built from a custom embedded layout to
- * show info on the current network state.
+ * show info on the current network state, a card showing how the latency to a few targets evolves,
+ * and optionally a diagnostics card showing how long each refresh stage takes.
  */
 public class CardAdapter extends CardScrollAdapter {
 
+    // for logs
+    private static final String TAG = CardAdapter.class.getSimpleName();
+
+    public static final int POSITION_NETWORK = 0;
+    public static final int POSITION_LATENCY = 1;
+    public static final int POSITION_DIAGNOSTICS = 2;
+
     private final Context mContext;
-    private final Hashtable<String, String> mInfoTable;
+    private final AtomicReference<NetInfoSnapshot> mSnapshot;
+    private final RefreshTimings mTimings;
+    private final LatencyProbeEngine mLatencyProbe;
+    // how far back the latency card looks, in minutes
+    private final int mLatencyWindowMinutes;
+    private boolean mShowDiagnostics;
+
+    // how many times the card layout was inflated, and how many times it was bound
+    private int mInflationCount;
+    private int mBindCount;
+    // how long the last bind took, in microseconds
+    private long mLastBindTimeUs;
 
     /**
-     * Initializes a new adapter with the specified context and list of items.
+     * Initializes a new adapter with the specified context, the snapshot to render,
+     * the probes to show on the latency card and the timings to show on the diagnostics card.
      */
-    public CardAdapter(Context context, Hashtable<String, String> infoTable) {
+    public CardAdapter(Context context, AtomicReference<NetInfoSnapshot> snapshot, LatencyProbeEngine latencyProbe,
+                       RefreshTimings timings) {
         mContext = context;
-        mInfoTable = infoTable;
+        mSnapshot = snapshot;
+        mLatencyProbe = latencyProbe;
+        mLatencyWindowMinutes = context.getResources().getInteger(R.integer.latency_window_minutes);
+        mTimings = timings;
+    }
+
+    /**
+     * Shows or hides the diagnostics card, after the network card
+     * Call {@link #notifyDataSetChanged()} afterwards.
+     */
+    public void setShowDiagnostics(boolean showDiagnostics) {
+        mShowDiagnostics = showDiagnostics;
+    }
+
+    public boolean isShowingDiagnostics() {
+        return mShowDiagnostics;
     }
 
     @Override
     public int getItemViewType(int position) {
-        return 0;
+        return position;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 3;
     }
 
     @Override
     public int getCount() {
-        return 1;
+        return mShowDiagnostics ? 3 : 2;
     }
 
     @Override
@@ -50,37 +102,298 @@ public class CardAdapter extends CardScrollAdapter {
 
     @Override
     public View getView(int position, View convertView, ViewGroup parent) {
-        CardBuilder card = new CardBuilder(mContext, CardBuilder.Layout.EMBED_INSIDE)
-                .setEmbeddedLayout(R.layout.main);
-        View view = card.getView(convertView, parent);
-
-        String wifiIP = mInfoTable.get("wlan0");
-        if (wifiIP != null) {
-            TextView textViewWifiIP = (TextView) view.findViewById(R.id.textViewWifiIP);
-            textViewWifiIP.setText(wifiIP);
+        if (position == POSITION_DIAGNOSTICS) {
+            return getDiagnosticsView(convertView, parent);
+        } else if (position == POSITION_LATENCY) {
+            return getLatencyView(convertView, parent);
         }
+        return getNetworkView(convertView, parent);
+    }
+
+    private View getNetworkView(View convertView, ViewGroup parent) {
+        long start = mTimings.begin(RefreshTimings.Stage.RENDER);
 
-        String wifiSSID = mInfoTable.get("ssid");
-        if (wifiSSID != null) {
-            view.findViewById(R.id.rowWifiSSID).setVisibility(View.VISIBLE);
-            TextView textViewWifiSSID = (TextView) view.findViewById(R.id.textViewWifiSSID);
-            textViewWifiSSID.setText(wifiSSID);
+        View view;
+        ViewHolder holder;
+        if (convertView != null && convertView.getTag() instanceof ViewHolder) {
+            // recycle the card we already built, and its looked up rows
+            view = convertView;
+            holder = (ViewHolder) convertView.getTag();
+        } else {
+            CardBuilder card = new CardBuilder(mContext, CardBuilder.Layout.EMBED_INSIDE)
+                    .setEmbeddedLayout(R.layout.main);
+            view = card.getView(convertView, parent);
+            holder = new ViewHolder(view);
+            view.setTag(holder);
+            mInflationCount++;
         }
 
-        String extIP = mInfoTable.get("ext");
-        if (extIP != null) {
-            TextView textViewExtIP = (TextView) view.findViewById(R.id.textViewExtIP);
-            textViewExtIP.setText(extIP);
+        // read the snapshot once, so that the whole card shows the same state
+        NetInfoSnapshot snapshot = mSnapshot.get();
+
+        holder.wifiIP.bind(snapshot.getWlanIP());
+        holder.wifiIPv6.bind(snapshot.getWlanIPv6());
+        holder.wifiSSID.bind(snapshot.getSsid());
+        holder.gateway.bind(snapshot.getGateway());
+        holder.tether.bind(snapshot.getTether());
+        holder.extIP.bind(snapshot.getExtIP());
+        holder.extProvider.bind(snapshot.getProvider());
+        holder.extLocation.bind(snapshot.getLocation());
+
+        mBindCount++;
+        mLastBindTimeUs = mTimings.end(RefreshTimings.Stage.RENDER, start) / 1000;
+        if (BuildConfig.DEBUG) {
+            // formatting allocates, not something to do on every bind of a release build
+            Log.d(TAG, String.format("card bound in %d us (%d binds, %d inflations)",
+                    mLastBindTimeUs, mBindCount, mInflationCount));
         }
 
-        String extProvider = mInfoTable.get("provider");
-        if (extProvider != null) {
-            view.findViewById(R.id.rowExtProvider).setVisibility(View.VISIBLE);
-            TextView textViewExtProvider = (TextView) view.findViewById(R.id.textViewExtProvider);
-            textViewExtProvider.setText(extProvider);
+        return view;
+    }
+
+    private View getLatencyView(View convertView, ViewGroup parent) {
+        View view;
+        if (convertView != null && convertView.getTag() instanceof TextView) {
+            view = convertView;
+        } else {
+            CardBuilder card = new CardBuilder(mContext, CardBuilder.Layout.EMBED_INSIDE)
+                    .setEmbeddedLayout(R.layout.latency);
+            view = card.getView(convertView, parent);
+            view.setTag(view.findViewById(R.id.textViewLatency));
         }
 
+        ((TextView) view.getTag()).setText(buildLatency());
         return view;
     }
 
+    /**
+     * @return for each target: the last round trip, the jitter and the loss,
+     * then the p50/p95 in ms over the window and how many probes it holds
+     */
+    private String buildLatency() {
+        long nowMs = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder(256);
+        sb.append(mContext.getString(R.string.latency_header, mLatencyWindowMinutes));
+        for (LatencyProbeEngine.Target target : mLatencyProbe.getTargets()) {
+            LatencyWindow window = target.getWindow();
+            sb.append('\n');
+            int count = window.getCount(nowMs);
+            if (count == 0) {
+                sb.append(mContext.getString(R.string.latency_none, target.getLabel()));
+                continue;
+            }
+            int lossPercent = window.getLossPercent(nowMs);
+            // nothing answered: no round trip to tell
+            boolean answered = lossPercent < 100;
+            sb.append(mContext.getString(R.string.latency_target, target.getLabel(),
+                    formatMillis(answered ? window.getLastRttUs() : -1),
+                    formatMillis(answered ? window.getJitterUs() : -1),
+                    lossPercent,
+                    formatMillis(answered ? window.getPercentileUs(50, nowMs) : -1),
+                    formatMillis(answered ? window.getPercentileUs(95, nowMs) : -1),
+                    count));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return microseconds as milliseconds with one decimal, "-" if negative
+     */
+    private static String formatMillis(long micros) {
+        return micros < 0 ? "-" : appendMillis(new StringBuilder(8), micros).toString();
+    }
+
+    private View getDiagnosticsView(View convertView, ViewGroup parent) {
+        View view;
+        if (convertView != null && convertView.getTag() instanceof TextView) {
+            view = convertView;
+        } else {
+            CardBuilder card = new CardBuilder(mContext, CardBuilder.Layout.EMBED_INSIDE)
+                    .setEmbeddedLayout(R.layout.diagnostics);
+            view = card.getView(convertView, parent);
+            view.setTag(view.findViewById(R.id.textViewDiagnostics));
+        }
+
+        ((TextView) view.getTag()).setText(buildDiagnostics());
+        return view;
+    }
+
+    /**
+     * @return one line per refresh stage with its p50/p95/p99 in ms and how many times it ran,
+     * then the connection counters, the latencies, timeouts and health of each endpoint, the last WiFi toggles and the cache counters
+     */
+    private String buildDiagnostics() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(mContext.getString(R.string.diagnostics_header)).append('\n');
+        for (RefreshTimings.Stage stage : RefreshTimings.Stage.values()) {
+            LatencyHistogram histogram = mTimings.getHistogram(stage);
+            sb.append(stage.getLabel()).append(": ");
+            appendMillis(sb, histogram.getPercentile(50)).append(" / ");
+            appendMillis(sb, histogram.getPercentile(95)).append(" / ");
+            appendMillis(sb, histogram.getPercentile(99));
+            sb.append(" (").append(histogram.getCount()).append(")\n");
+        }
+
+        NetInfoApplication application = (NetInfoApplication) mContext.getApplicationContext();
+        NetInfoHttpClient httpClient = application.getHttpClient();
+        sb.append(mContext.getString(R.string.diagnostics_connections,
+                httpClient.getNewConnectionCount(), httpClient.getReusedConnectionCount())).append('\n');
+        // connect / response average, then the timeouts the next request will use
+        for (EndpointLatencies.Summary endpoint : httpClient.getLatencies().getSummaries()) {
+            sb.append(mContext.getString(R.string.diagnostics_endpoint, endpoint.host,
+                    endpoint.connectMs, endpoint.responseMs,
+                    endpoint.connectTimeoutMs, endpoint.responseTimeoutMs, endpoint.timeoutCount)).append('\n');
+        }
+        // circuit breakers: an open one means the endpoint is skipped for now
+        for (EndpointHealth.Summary health : httpClient.getHealth().getSummaries()) {
+            sb.append(mContext.getString(R.string.diagnostics_health, health.host, health.state,
+                    health.score, TimeUnit.MILLISECONDS.toSeconds(health.retryInMs))).append('\n');
+        }
+        // the last WiFi toggles: how long each phase took, to compare access points
+        for (ReconnectTracker reconnect : application.getReconnects()) {
+            StringBuilder phases = new StringBuilder();
+            for (ReconnectTracker.Phase phase : ReconnectTracker.Phase.values()) {
+                long durationMs = reconnect.getDurationMs(phase);
+                if (durationMs >= 0) {
+                    if (phases.length() > 0) {
+                        phases.append(", ");
+                    }
+                    phases.append(mContext.getString(R.string.diagnostics_reconnect_phase, phase.getLabel(), durationMs));
+                }
+            }
+            String accessPoint = reconnect.getAccessPoint() != null
+                    ? reconnect.getAccessPoint() : reconnect.getPhase().getLabel();
+            sb.append(mContext.getString(R.string.diagnostics_reconnect, accessPoint, phases,
+                    reconnect.getElapsedMs(0))).append('\n');
+        }
+        ProviderCache providerCache = application.getProviderCache();
+        sb.append(mContext.getString(R.string.diagnostics_provider_cache,
+                providerCache.getHitCount(), providerCache.getMissCount(), providerCache.getEvictionCount()));
+
+        return sb.toString();
+    }
+
+    /**
+     * Appends microseconds as milliseconds with one decimal
+     */
+    private static StringBuilder appendMillis(StringBuilder sb, long micros) {
+        return sb.append(micros / 1000).append('.').append((micros % 1000) / 100);
+    }
+
+    /**
+     * @return the text of a value as the card shows it: with how old it is if it may be out of date
+     */
+    static String formatValue(Context context, NetInfoSnapshot.Value value) {
+        if (value == null) {
+            return context.getString(R.string.retrieving);
+        } else if (!value.isStale()) {
+            return value.getText();
+        }
+        long ageMs = System.currentTimeMillis() - value.getTimestamp();
+        if (ageMs >= TimeUnit.DAYS.toMillis(1)) {
+            return context.getString(R.string.cached_value_days, value.getText(), TimeUnit.MILLISECONDS.toDays(ageMs));
+        } else if (ageMs >= TimeUnit.HOURS.toMillis(1)) {
+            return context.getString(R.string.cached_value_hours, value.getText(), TimeUnit.MILLISECONDS.toHours(ageMs));
+        } else if (ageMs >= TimeUnit.MINUTES.toMillis(1)) {
+            return context.getString(R.string.cached_value_minutes, value.getText(), TimeUnit.MILLISECONDS.toMinutes(ageMs));
+        }
+        return context.getString(R.string.cached_value, value.getText());
+    }
+
+    /**
+     * @return how many times the card layout was inflated
+     */
+    public int getInflationCount() {
+        return mInflationCount;
+    }
+
+    /**
+     * @return how many times the card was bound to a snapshot
+     */
+    public int getBindCount() {
+        return mBindCount;
+    }
+
+    /**
+     * @return how long the last bind took, in microseconds
+     */
+    public long getLastBindTimeUs() {
+        return mLastBindTimeUs;
+    }
+
+    /**
+     * The rows of a built card, looked up once
+     */
+    private class ViewHolder {
+        final Row wifiIP;
+        final Row wifiIPv6;
+        final Row wifiSSID;
+        final Row gateway;
+        final Row tether;
+        final Row extIP;
+        final Row extProvider;
+        final Row extLocation;
+
+        ViewHolder(View view) {
+            wifiIP = new Row(view, R.id.textViewWifiIP, 0, View.INVISIBLE);
+            wifiIPv6 = new Row(view, R.id.textViewWifiIPv6, R.id.rowWifiIPv6, View.GONE);
+            wifiSSID = new Row(view, R.id.textViewWifiSSID, R.id.rowWifiSSID, View.INVISIBLE);
+            gateway = new Row(view, R.id.textViewGateway, R.id.rowGateway, View.GONE);
+            tether = new Row(view, R.id.textViewTether, R.id.rowTether, View.GONE);
+            extIP = new Row(view, R.id.textViewExtIP, 0, View.INVISIBLE);
+            extProvider = new Row(view, R.id.textViewExtProvider, R.id.rowExtProvider, View.INVISIBLE);
+            extLocation = new Row(view, R.id.textViewExtLocation, R.id.rowExtLocation, View.INVISIBLE);
+        }
+    }
+
+    /**
+     * One row of the card, which remembers the value it shows
+     */
+    private class Row {
+        private final TextView mTextView;
+        // the row to hide while the value is unknown, null if the row is always shown
+        private final View mRow;
+        // how to hide the row: INVISIBLE keeps its room on the card, GONE gives it to the other rows
+        private final int mHiddenVisibility;
+        private NetInfoSnapshot.Value mValue;
+        // the text shown, with its age if the value is out of date
+        private String mText;
+        private boolean mBound;
+
+        Row(View view, int textViewId, int rowId, int hiddenVisibility) {
+            mTextView = (TextView) view.findViewById(textViewId);
+            mRow = rowId != 0 ? view.findViewById(rowId) : null;
+            mHiddenVisibility = hiddenVisibility;
+        }
+
+        /**
+         * Shows a value in the row
+         * Values are immutable and carried over from one snapshot to the next when they do not change,
+         * so the row is only touched when it gets a different value object that would look different.
+         * An out of date value is formatted again each time, its age moves on; the text view is
+         * only touched if the age shown changed.
+         *
+         * @param value : the value, null if unknown
+         */
+        void bind(NetInfoSnapshot.Value value) {
+            boolean same = mBound && (value == mValue || (value != null && value.looksLike(mValue)));
+            if (same && (value == null || !value.isStale())) {
+                return;
+            }
+            mBound = true;
+            mValue = value;
+
+            String text = formatValue(mContext, value);
+            if (same && text.equals(mText)) {
+                return;
+            }
+            mText = text;
+            mTextView.setText(text);
+
+            if (mRow != null) {
+                mRow.setVisibility(value != null ? View.VISIBLE : mHiddenVisibility);
+            }
+        }
+    }
+
 }
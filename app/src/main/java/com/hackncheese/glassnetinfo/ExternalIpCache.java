@@ -0,0 +1,68 @@
+package com.hackncheese.glassnetinfo;
+
+import com.hackncheese.glassnetinfo.core.IpInfo;
+
+/**
+ * Remembers the last external IP (and what we know about it) together with the
+ * {@link NetworkIdentity} it was seen on.
+ * It is only given back on a network with the same upstream (SSID, local address and gateway),
+ * so roaming to another access point keeps it, and it is dropped as soon as the connectivity
+ * or DHCP state changes.
+ */
+public class ExternalIpCache {
+
+    /**
+     * External IP info, with the time it was seen at
+     */
+    public static final class Entry {
+        public final IpInfo ipInfo;
+        // in System.currentTimeMillis() time
+        public final long timestamp;
+
+        Entry(IpInfo ipInfo, long timestamp) {
+            this.ipInfo = ipInfo;
+            this.timestamp = timestamp;
+        }
+    }
+
+    private NetworkIdentity mIdentity;
+    private Entry mEntry;
+
+    /**
+     * @param identity : the network we are on now
+     * @return the external IP info last seen on this network and when, or null
+     */
+    public synchronized Entry get(NetworkIdentity identity) {
+        if (identity == null || !identity.hasSameUpstream(mIdentity)) {
+            return null;
+        }
+        return mEntry;
+    }
+
+    /**
+     * Remembers the external IP info seen on a network just now, replacing what was known before
+     */
+    public synchronized void put(NetworkIdentity identity, IpInfo ipInfo) {
+        if (identity == null) {
+            return;
+        }
+        mIdentity = identity;
+        mEntry = new Entry(ipInfo, System.currentTimeMillis());
+    }
+
+    /**
+     * Drops the cached info if the network it was seen on is not the current one anymore
+     *
+     * @param identity : the network we are on now, null if none
+     */
+    public synchronized void invalidateIfChanged(NetworkIdentity identity) {
+        if (identity == null || !identity.hasSameUpstream(mIdentity)) {
+            invalidate();
+        }
+    }
+
+    public synchronized void invalidate() {
+        mIdentity = null;
+        mEntry = null;
+    }
+}
@@ -0,0 +1,125 @@
+package com.hackncheese.glassnetinfo;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.hackncheese.glassnetinfo.core.IpAddressUtils;
+import com.hackncheese.glassnetinfo.core.LocalAddresses;
+import com.hackncheese.glassnetinfo.core.ProcNetParser;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the addresses of the interfaces we care about (WiFi, bluetooth and USB tethering),
+ * and the default gateway.
+ * <p/>
+ * Interfaces are looked up directly by name instead of enumerating all of them, IPv6 addresses
+ * and the gateway come from {@code /proc/net}. The result is cached, so asking again right away
+ * costs nothing; it does file I/O otherwise, so do not call it from the UI thread.
+ */
+public class InterfaceAddressReader {
+
+    // for logs
+    private static final String TAG = InterfaceAddressReader.class.getSimpleName();
+
+    private static final String PROC_NET_ROUTE = "/proc/net/route";
+    private static final String PROC_NET_IF_INET6 = "/proc/net/if_inet6";
+
+    private final String[] mInterfaceNames;
+    private final long mMaxAgeMs;
+
+    private LocalAddresses mLastAddresses;
+    private long mLastReadAt;
+
+    /**
+     * @param interfaceNames : the interfaces to read, like wlan0, bnep0, usb0
+     * @param maxAgeMs       : how long a read stays valid
+     */
+    public InterfaceAddressReader(String[] interfaceNames, long maxAgeMs) {
+        mInterfaceNames = interfaceNames;
+        mMaxAgeMs = maxAgeMs;
+    }
+
+    /**
+     * @return the addresses, read again only if the last read is older than the max age
+     */
+    public synchronized LocalAddresses read() {
+        long now = SystemClock.elapsedRealtime();
+        if (mLastAddresses == null || now - mLastReadAt > mMaxAgeMs) {
+            mLastAddresses = readNow();
+            mLastReadAt = now;
+        }
+        return mLastAddresses;
+    }
+
+    /**
+     * Forgets the cached addresses, for when we know the network changed
+     */
+    public synchronized void invalidate() {
+        mLastAddresses = null;
+    }
+
+    private LocalAddresses readNow() {
+        Map<String, List<String>> ipv6 = Collections.emptyMap();
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(PROC_NET_IF_INET6), 1024);
+            try {
+                ipv6 = ProcNetParser.parseIPv6Addresses(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // no IPv6 on this device
+        }
+
+        ProcNetParser.Route route = null;
+        try {
+            BufferedReader reader = new BufferedReader(new FileReader(PROC_NET_ROUTE), 1024);
+            try {
+                route = ProcNetParser.parseDefaultRoute(reader);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "could not read the routes");
+        }
+
+        List<LocalAddresses.Interface> interfaces = new ArrayList<LocalAddresses.Interface>(mInterfaceNames.length);
+        for (String name : mInterfaceNames) {
+            String ipv4 = getIPv4Address(name);
+            List<String> ipv6Addresses = ipv6.get(name);
+            if (ipv4 != null || ipv6Addresses != null) {
+                interfaces.add(new LocalAddresses.Interface(name, ipv4,
+                        ipv6Addresses != null ? ipv6Addresses : Collections.<String>emptyList()));
+            }
+        }
+
+        return new LocalAddresses(interfaces,
+                route != null ? route.gateway : null,
+                route != null ? route.iface : null);
+    }
+
+    /**
+     * @return the first IPv4 address of the interface, or null if it is down or has none
+     */
+    private static String getIPv4Address(String name) {
+        try {
+            NetworkInterface intf = NetworkInterface.getByName(name);
+            if (intf == null) {
+                return null;
+            }
+            return IpAddressUtils.firstIPv4Address(intf.getInetAddresses());
+        } catch (SocketException e) {
+            Log.e(TAG, String.format("could not read the addresses of %s", name));
+        }
+        return null;
+    }
+}
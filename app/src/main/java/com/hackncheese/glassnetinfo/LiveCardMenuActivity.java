@@ -0,0 +1,47 @@
+package com.hackncheese.glassnetinfo;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.view.Menu;
+import android.view.MenuItem;
+
+/**
+ * The menu of the live card: shown as soon as the activity is, gone with it
+ */
+public class LiveCardMenuActivity extends Activity {
+
+    @Override
+    public void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        openOptionsMenu();
+    }
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        getMenuInflater().inflate(R.menu.live_card, menu);
+        return true;
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.lc_refresh:
+                startService(new Intent(this, LiveCardService.class).setAction(LiveCardService.ACTION_REFRESH));
+                return true;
+            case R.id.lc_open:
+                startActivity(new Intent(this, MainActivity.class));
+                return true;
+            case R.id.lc_stop:
+                stopService(new Intent(this, LiveCardService.class));
+                return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    @Override
+    public void onOptionsMenuClosed(Menu menu) {
+        super.onOptionsMenuClosed(menu);
+        // nothing else to show
+        finish();
+    }
+}
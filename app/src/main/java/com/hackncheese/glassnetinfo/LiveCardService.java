@@ -0,0 +1,391 @@
+package com.hackncheese.glassnetinfo;
+
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+import android.widget.RemoteViews;
+
+import com.google.android.glass.timeline.LiveCard;
+import com.hackncheese.glassnetinfo.core.RefreshCoordinator;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Keeps the network info on a live card in the timeline, with the same refresh pipeline as {@link MainActivity}.
+ * <p/>
+ * The card is only pushed again when one of its rows looks different, and at most every
+ * live_card_min_update_ms, however fast the results of a refresh come. Refreshes happen on network
+ * changes and when the card is looked at again after a while, never while the screen is off.
+ */
+public class LiveCardService extends Service {
+
+    // for logs
+    private static final String TAG = LiveCardService.class.getSimpleName();
+
+    private static final String LIVE_CARD_TAG = "netinfo";
+
+    /**
+     * Asks the service for a refresh, from the menu of the card
+     */
+    static final String ACTION_REFRESH = "com.hackncheese.glassnetinfo.action.REFRESH";
+
+    // the rows of the card, in the order of the values of a snapshot (see values())
+    private static final int[] TEXT_IDS = {
+            R.id.textViewWifiIP, R.id.textViewWifiIPv6, R.id.textViewWifiSSID, R.id.textViewGateway,
+            R.id.textViewTether, R.id.textViewExtIP, R.id.textViewExtProvider, R.id.textViewExtLocation};
+    // the row to hide while its value is unknown, 0 if the row is always shown
+    private static final int[] ROW_IDS = {
+            0, R.id.rowWifiIPv6, R.id.rowWifiSSID, R.id.rowGateway,
+            R.id.rowTether, 0, R.id.rowExtProvider, R.id.rowExtLocation};
+    // how to hide the row: INVISIBLE keeps its room on the card, GONE gives it to the other rows
+    private static final int[] HIDDEN_VISIBILITIES = {
+            View.INVISIBLE, View.GONE, View.INVISIBLE, View.GONE,
+            View.GONE, View.INVISIBLE, View.INVISIBLE, View.INVISIBLE};
+
+    private final AtomicReference<NetInfoSnapshot> mSnapshot =
+            new AtomicReference<NetInfoSnapshot>(NetInfoSnapshot.EMPTY);
+    private final Handler mHandler = new Handler();
+
+    private LiveCard mLiveCard;
+    private NetworkMonitor mNetworkMonitor;
+    private WifiManager mWifiManager;
+    // what gets the results of the refresh in progress for the card, whoever started it
+    private LiveCardListener mRefreshListener;
+    private boolean mScreenOn;
+    private long mMinUpdateMs;
+    private long mMaxAgeMs;
+    // when the last refresh that looked up the external IP ended, in uptime ms
+    private long mLastRefreshAtMs;
+
+    // what the card shows now, to only push it again when it changes
+    private final String[] mShownTexts = new String[TEXT_IDS.length];
+    private final int[] mShownVisibilities = new int[TEXT_IDS.length];
+    private long mLastPushAtMs;
+    private boolean mRenderPending;
+    private int mSkippedRenders;
+
+    /**
+     * Pauses the refreshes while the screen is off: nobody can see the card then
+     */
+    private final BroadcastReceiver mScreenReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (Intent.ACTION_SCREEN_OFF.equals(intent.getAction())) {
+                mScreenOn = false;
+                pause();
+            } else if (Intent.ACTION_SCREEN_ON.equals(intent.getAction())) {
+                mScreenOn = true;
+                resume();
+            }
+        }
+    };
+
+    private final Runnable mRender = new Runnable() {
+        @Override
+        public void run() {
+            mRenderPending = false;
+            render();
+        }
+    };
+
+    private final Runnable mRetryRefresh = new Runnable() {
+        @Override
+        public void run() {
+            refresh(true, false);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mWifiManager = (WifiManager) getSystemService(WIFI_SERVICE);
+        mMinUpdateMs = getResources().getInteger(R.integer.live_card_min_update_ms);
+        mMaxAgeMs = getResources().getInteger(R.integer.live_card_max_age_ms);
+        Arrays.fill(mShownVisibilities, -1);
+
+        // what we knew last time, until the first refresh tells what changed
+        NetInfoSnapshot lastKnown = getSnapshotStore().getLastKnown();
+        if (lastKnown != null) {
+            mSnapshot.set(lastKnown);
+        }
+
+        mNetworkMonitor = new NetworkMonitor(this, new NetworkMonitor.Listener() {
+            @Override
+            public void onNetworkChanged(boolean upstreamChanged) {
+                // the addresses we read before are not valid anymore
+                getInterfaceAddressReader().invalidate();
+                if (upstreamChanged) {
+                    // the external IP may have changed too, and a lookup in progress is out of date
+                    refresh(false, true);
+                } else {
+                    // roamed to another access point: only the local info changed
+                    getRefreshPipeline().start(null, null, false, new LiveCardListener(false, false));
+                }
+            }
+        }, getResources().getInteger(R.integer.network_change_debounce_ms));
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_SCREEN_ON);
+        filter.addAction(Intent.ACTION_SCREEN_OFF);
+        registerReceiver(mScreenReceiver, filter);
+        mScreenOn = ((PowerManager) getSystemService(POWER_SERVICE)).isScreenOn();
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (mLiveCard == null) {
+            mLiveCard = new LiveCard(this, LIVE_CARD_TAG);
+            // tapping the card opens its menu
+            Intent menuIntent = new Intent(this, LiveCardMenuActivity.class);
+            menuIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+            mLiveCard.setAction(PendingIntent.getActivity(this, 0, menuIntent, 0));
+            render();
+            mLiveCard.publish(LiveCard.PublishMode.REVEAL);
+
+            if (mScreenOn) {
+                resume();
+            }
+        } else if (intent != null && ACTION_REFRESH.equals(intent.getAction())) {
+            // asked explicitly: do not trust the cache, but join a refresh already running
+            refresh(false, false);
+        }
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        pause();
+        unregisterReceiver(mScreenReceiver);
+        mHandler.removeCallbacks(mRender);
+        if (mLiveCard != null && mLiveCard.isPublished()) {
+            mLiveCard.unpublish();
+        }
+        mLiveCard = null;
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    /**
+     * The card can be seen again: follow the network, and refresh if what it shows is getting old
+     */
+    private void resume() {
+        if (mLiveCard == null) {
+            return;
+        }
+        mNetworkMonitor.start();
+        if (mLastRefreshAtMs == 0 || SystemClock.uptimeMillis() - mLastRefreshAtMs >= mMaxAgeMs) {
+            refresh(true, false);
+        } else {
+            // the ages of the out of date values moved on
+            scheduleRender();
+        }
+    }
+
+    /**
+     * The card cannot be seen: stop following the network, and abort the refresh in flight
+     */
+    private void pause() {
+        mNetworkMonitor.stop();
+        mHandler.removeCallbacks(mRetryRefresh);
+        if (mRefreshListener != null) {
+            // aborted only if the activity does not wait for it too
+            getRefreshPipeline().leave(mRefreshListener);
+            finishRefresh(mRefreshListener);
+        }
+    }
+
+    /**
+     * Collects the network info and shows it on the card
+     *
+     * @param useCache  : show the external IP info cached for the current network, if any,
+     *                  instead of asking for it again
+     * @param supersede : cancel the refresh in progress, if any, because what it will find is out of date;
+     *                  otherwise join it
+     */
+    private void refresh(boolean useCache, boolean supersede) {
+        if (!mScreenOn || mLiveCard == null) {
+            return;
+        }
+        mHandler.removeCallbacks(mRetryRefresh);
+
+        if (mRefreshListener != null) {
+            if (!supersede) {
+                // the refresh we already wait for will do
+                return;
+            }
+            getRefreshPipeline().leave(mRefreshListener);
+            finishRefresh(mRefreshListener);
+        }
+
+        RefreshCoordinator coordinator = getRefreshCoordinator();
+        RefreshCoordinator.Generation generation = supersede ? coordinator.start() : coordinator.startOrJoin();
+        if (generation == null) {
+            // someone else started a refresh: its results will show up on the card too
+            LiveCardListener listener = new LiveCardListener(true, getRefreshPipeline().isLookingUpExternal());
+            if (getRefreshPipeline().join(listener)) {
+                mRefreshListener = listener;
+            } else {
+                // nothing to join after all: ask again after it
+                Log.d(TAG, "refresh already running, trying again later");
+                mHandler.postDelayed(mRetryRefresh, getResources().getInteger(R.integer.refresh_deadline_ms));
+            }
+            return;
+        }
+
+        // start from the last complete snapshot, marked as out of date, or from an empty one
+        NetInfoSnapshot snapshot = getSnapshotStore().getLastKnown();
+        if (snapshot == null) {
+            snapshot = NetInfoSnapshot.EMPTY;
+        }
+
+        // the network the external IP we are about to get will belong to
+        NetworkIdentity identity = NetworkIdentity.current(mWifiManager);
+
+        // the card is refreshed often: same network as last time, no need to ask again
+        ExternalIpCache.Entry cached = useCache ? getExternalIpCache().get(identity) : null;
+        if (cached != null) {
+            snapshot = snapshot.withIpInfo(cached.ipInfo, cached.timestamp, true);
+        }
+        mSnapshot.set(snapshot);
+        scheduleRender();
+
+        boolean lookupExternal = cached == null;
+        mRefreshListener = new LiveCardListener(true, lookupExternal);
+        getRefreshPipeline().start(generation, identity, lookupExternal, mRefreshListener);
+    }
+
+    /**
+     * Stops waiting for a refresh
+     */
+    private void finishRefresh(LiveCardListener listener) {
+        if (listener == mRefreshListener) {
+            mRefreshListener = null;
+        }
+    }
+
+    /**
+     * Renders the card soon, but not sooner than live_card_min_update_ms after the last push:
+     * the results of a refresh come in a burst, the card is pushed once for all of them
+     */
+    private void scheduleRender() {
+        if (mRenderPending) {
+            return;
+        }
+        mRenderPending = true;
+        long waitMs = mLastPushAtMs + mMinUpdateMs - SystemClock.uptimeMillis();
+        mHandler.postDelayed(mRender, Math.max(0, waitMs));
+    }
+
+    /**
+     * Pushes the current snapshot to the card, if it looks different from what the card shows
+     */
+    private void render() {
+        if (mLiveCard == null) {
+            return;
+        }
+        NetInfoSnapshot.Value[] values = values(mSnapshot.get());
+
+        boolean changed = false;
+        for (int i = 0; i < values.length; i++) {
+            String text = CardAdapter.formatValue(this, values[i]);
+            int visibility = values[i] != null ? View.VISIBLE : HIDDEN_VISIBILITIES[i];
+            if (!text.equals(mShownTexts[i]) || visibility != mShownVisibilities[i]) {
+                mShownTexts[i] = text;
+                mShownVisibilities[i] = visibility;
+                changed = true;
+            }
+        }
+        if (!changed) {
+            mSkippedRenders++;
+            return;
+        }
+
+        // a RemoteViews replays all its actions each time it is applied: a new one for each push
+        // keeps it from growing, and the card may be inflated anew so every row is set
+        RemoteViews views = new RemoteViews(getPackageName(), R.layout.main);
+        for (int i = 0; i < values.length; i++) {
+            views.setTextViewText(TEXT_IDS[i], mShownTexts[i]);
+            if (ROW_IDS[i] != 0) {
+                views.setViewVisibility(ROW_IDS[i], mShownVisibilities[i]);
+            }
+        }
+        mLiveCard.setViews(views);
+        mLastPushAtMs = SystemClock.uptimeMillis();
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, String.format("live card pushed (%d unchanged renders skipped so far)", mSkippedRenders));
+        }
+    }
+
+    /**
+     * @return the values of the snapshot, in the order of the rows of the card
+     */
+    private static NetInfoSnapshot.Value[] values(NetInfoSnapshot snapshot) {
+        return new NetInfoSnapshot.Value[]{
+                snapshot.getWlanIP(), snapshot.getWlanIPv6(), snapshot.getSsid(), snapshot.getGateway(),
+                snapshot.getTether(), snapshot.getExtIP(), snapshot.getProvider(), snapshot.getLocation()};
+    }
+
+    private RefreshCoordinator getRefreshCoordinator() {
+        return ((NetInfoApplication) getApplication()).getRefreshCoordinator();
+    }
+
+    private RefreshPipeline getRefreshPipeline() {
+        return ((NetInfoApplication) getApplication()).getRefreshPipeline();
+    }
+
+    private InterfaceAddressReader getInterfaceAddressReader() {
+        return ((NetInfoApplication) getApplication()).getInterfaceAddressReader();
+    }
+
+    private SnapshotStore getSnapshotStore() {
+        return ((NetInfoApplication) getApplication()).getSnapshotStore();
+    }
+
+    private ExternalIpCache getExternalIpCache() {
+        return ((NetInfoApplication) getApplication()).getExternalIpCache();
+    }
+
+    /**
+     * Shows the results of a refresh on the card as they come
+     */
+    private class LiveCardListener extends SnapshotListener {
+        // false if it only collects the local info
+        private final boolean mRefresh;
+
+        LiveCardListener(boolean refresh, boolean lookupExternal) {
+            super(LiveCardService.this, mSnapshot, getSnapshotStore(), lookupExternal);
+            mRefresh = refresh;
+        }
+
+        @Override
+        protected void publish(NetInfoSnapshot snapshot) {
+            mSnapshot.set(snapshot);
+            scheduleRender();
+        }
+
+        @Override
+        public void onFinished(boolean timedOut) {
+            if (!mRefresh) {
+                return;
+            }
+            finishRefresh(this);
+            mLastRefreshAtMs = SystemClock.uptimeMillis();
+            super.onFinished(timedOut);
+        }
+    }
+}
@@ -1,36 +1,26 @@
 package com.hackncheese.glassnetinfo;
 
 import android.app.Activity;
-import android.content.Context;
 import android.content.Intent;
 import android.media.AudioManager;
-import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.view.View;
 import android.view.Window;
 
 import com.google.android.glass.media.Sounds;
 import com.google.android.glass.view.WindowUtils;
 import com.google.android.glass.widget.CardScrollView;
 import com.google.android.glass.widget.Slider;
-import com.squareup.okhttp.OkHttpClient;
-import com.squareup.okhttp.Request;
-import com.squareup.okhttp.Response;
+import com.hackncheese.glassnetinfo.core.LatencyProbeEngine;
+import com.hackncheese.glassnetinfo.core.RefreshCoordinator;
+import com.hackncheese.glassnetinfo.core.RefreshTimings;
 
-import org.apache.http.conn.util.InetAddressUtils;
-
-import java.io.IOException;
-import java.net.InetAddress;
-import java.net.NetworkInterface;
-import java.net.SocketException;
-import java.util.Enumeration;
-import java.util.Hashtable;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * The main activity: retrieve network info and display it in a card
@@ -47,32 +37,86 @@ public class MainActivity extends Activity {
 
 
     /**
-     * Contains all the info collected about the network state
-     * I think we need a {@link Hashtable} because it is synchronized
-     * and we will insert new entries in several threads.
+     * All the info collected about the network state
+     * Each stage publishes a new immutable snapshot, so the card always renders a consistent one.
      */
-    private Hashtable<String, String> mInfoTable = new Hashtable<String, String>();
+    private final AtomicReference<NetInfoSnapshot> mSnapshot =
+            new AtomicReference<NetInfoSnapshot>(NetInfoSnapshot.EMPTY);
 
     private CardAdapter mCardAdapter;
     private Slider mSlider;
+    // the progress bar of the refresh in progress
     private Slider.Indeterminate mIndSlider;
 
-    private GetExternalIPTask mExtTask;
-    private GetExternalIPInfoTask mExtInfoTask;
+    // what gets the results of the refresh in progress for this activity, whoever started it
+    private RefreshListener mRefreshListener;
+
+    private NetworkMonitor mNetworkMonitor;
+    // looked up once: every refresh needs them
+    private WifiManager mWifiManager;
+    private AudioManager mAudioManager;
+
+    /**
+     * Redraws the latency card after each round of probes, if it is the one shown
+     */
+    private final LatencyProbeEngine.Listener mLatencyListener = new LatencyProbeEngine.Listener() {
+        @Override
+        public void onProbed() {
+            // called on the thread of the probes
+            runOnUiThread(mLatencyUpdate);
+        }
+    };
+
+    private final Runnable mLatencyUpdate = new Runnable() {
+        @Override
+        public void run() {
+            if (mCardScroller.getSelectedItemPosition() == CardAdapter.POSITION_LATENCY) {
+                mCardAdapter.notifyDataSetChanged();
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle bundle) {
         super.onCreate(bundle);
 
+        mWifiManager = (WifiManager) getSystemService(WIFI_SERVICE);
+        mAudioManager = (AudioManager) getSystemService(AUDIO_SERVICE);
+
+        // resolve and connect to the lookup hosts while the card is being set up
+        getRefreshPipeline().prewarm();
+
         // Request a voice menu
         getWindow().requestFeature(WindowUtils.FEATURE_VOICE_COMMANDS);
 
-        mCardAdapter = new CardAdapter(this, mInfoTable);
+        // show what we knew last time on the very first frame, the refresh will tell what changed
+        NetInfoSnapshot lastKnown = getSnapshotStore().getLastKnown();
+        if (lastKnown != null) {
+            mSnapshot.set(lastKnown);
+        }
+
+        mCardAdapter = new CardAdapter(this, mSnapshot, getLatencyProbeEngine(), getRefreshTimings());
         mCardScroller = new CardScrollView(this);
         mCardScroller.setAdapter(mCardAdapter);
         setContentView(mCardScroller);
 
         mSlider = Slider.from(mCardScroller);
+
+        // keep the card up to date while it is shown
+        mNetworkMonitor = new NetworkMonitor(this, new NetworkMonitor.Listener() {
+            @Override
+            public void onNetworkChanged(boolean upstreamChanged) {
+                // the addresses we read before are not valid anymore
+                getInterfaceAddressReader().invalidate();
+                if (upstreamChanged) {
+                    // the external IP may have changed too, and a lookup in progress is out of date
+                    updateInfo(false, true);
+                } else {
+                    // roamed to another access point: only the local info changed
+                    updateLocalInfo();
+                }
+            }
+        }, getResources().getInteger(R.integer.network_change_debounce_ms));
     }
 
     @Override
@@ -86,6 +130,17 @@ public class MainActivity extends Activity {
         return super.onCreatePanelMenu(featureId, menu);
     }
 
+    @Override
+    public boolean onPreparePanel(int featureId, View view, Menu menu) {
+        if (featureId == WindowUtils.FEATURE_VOICE_COMMANDS) {
+            // diagnostics are for us: only reachable from the touch menu
+            menu.findItem(R.id.diagnostics).setVisible(false);
+        } else if (featureId == Window.FEATURE_OPTIONS_PANEL) {
+            menu.findItem(R.id.diagnostics).setVisible(true);
+        }
+        return super.onPreparePanel(featureId, view, menu);
+    }
+
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER) {
@@ -101,11 +156,29 @@ public class MainActivity extends Activity {
                 featureId == Window.FEATURE_OPTIONS_PANEL) {
             switch (item.getItemId()) {
                 case R.id.refresh:
-                    updateInfo();
+                    // asked explicitly: do not trust the cache, but join a refresh already running
+                    updateInfo(false, false);
+                    break;
+                case R.id.throughput:
+                    startActivity(new Intent(this, ThroughputActivity.class));
                     break;
                 case R.id.toggle_wifi:
                     startActivity(new Intent(this, ToggleWifiActivity.class));
                     break;
+                case R.id.scan_results:
+                    startActivity(new Intent(this, ScanResultsActivity.class));
+                    break;
+                case R.id.live_card:
+                    // keep the info in the timeline once this activity is gone
+                    startService(new Intent(this, LiveCardService.class));
+                    break;
+                case R.id.diagnostics:
+                    mCardAdapter.setShowDiagnostics(!mCardAdapter.isShowingDiagnostics());
+                    mCardAdapter.notifyDataSetChanged();
+                    if (mCardAdapter.isShowingDiagnostics()) {
+                        mCardScroller.animate(CardAdapter.POSITION_DIAGNOSTICS, CardScrollView.Animation.NAVIGATION);
+                    }
+                    break;
             }
             return true;
         }
@@ -117,220 +190,204 @@ public class MainActivity extends Activity {
         super.onResume();
         mCardScroller.activate();
 
-        updateInfo();
+        updateInfo(true, false);
+        mNetworkMonitor.start();
+
+        // probe only while the app is in front, the samples of before are still in the window
+        getLatencyProbeEngine().setListener(mLatencyListener);
+        getLatencyProbeEngine().start();
     }
 
     @Override
     protected void onPause() {
         mCardScroller.deactivate();
+        mNetworkMonitor.stop();
 
-        // hide the progress bar, if it was showing
-        if (mIndSlider != null) {
-            mIndSlider.hide();
-            mIndSlider = null;
-        }
-        // cancel the async task if it exists
-        if (mExtTask != null) {
-            mExtTask.cancel(true); // true = force interruption
-        }
+        getLatencyProbeEngine().stop();
+        getLatencyProbeEngine().setListener(null);
 
-        // cancel the async task if it exists
-        if (mExtInfoTask != null) {
-            mExtInfoTask.cancel(true); // true = force interruption
-        }
+        cancelRefresh();
 
         super.onPause();
     }
 
-    private void updateInfo() {
-        // empty the table to avoid info mismatch
-        mInfoTable.clear();
-
-        //get the local wlan ip address
-        String wlanIPAddress = getWlanIPAddress();
-
-        if (wlanIPAddress != null) {
-            // we have an IP address, use it
-            mInfoTable.put("wlan0", wlanIPAddress);
-            // add the ssid we are connected to
-            mInfoTable.put("ssid", getConnectedSSID());
-        } else {
-            // no IP address on wlan0, meaning we are not connected to WiFi
-            mInfoTable.put("wlan0", getString(R.string.wlan_na));
+    /**
+     * Stops retrieving the network info, aborting the requests in flight
+     */
+    private void cancelRefresh() {
+        if (mRefreshListener != null) {
+            // aborted only if the live card does not wait for it too
+            getRefreshPipeline().leave(mRefreshListener);
+            finishRefresh(mRefreshListener);
         }
-
-        // notify that the card UI must be redrawn
-        mCardAdapter.notifyDataSetChanged();
-
-        // get the external IP
-        mExtTask = new GetExternalIPTask();
-        mExtTask.execute();
     }
 
     /**
-     * Loop through all the network interfaces to find the wlan interface
-     * and retrieve the local IPv4 address
+     * Collects the network info and shows it
      *
-     * @return the IP address
+     * @param useCache  : show the external IP info cached for the current network, if any,
+     *                  instead of asking for it again
+     * @param supersede : cancel the refresh in progress, if any, because what it will find is out of date;
+     *                  otherwise join it
      */
-    private String getWlanIPAddress() {
-        NetworkInterface intf;
-        String address;
-
-        try {
-            // go through all the network interfaces
-            for (Enumeration<NetworkInterface> en = NetworkInterface.getNetworkInterfaces(); en.hasMoreElements(); ) {
-                intf = en.nextElement();
-
-                if (intf.getName().equals("wlan0")) {
-
-                    // go through all its IP addresses
-                    for (Enumeration<InetAddress> enumIpAddr = intf.getInetAddresses(); enumIpAddr.hasMoreElements(); ) {
-                        InetAddress inetAddress = enumIpAddr.nextElement();
-                        address = inetAddress.getHostAddress();
-
-                        // get only local IPv4 address that are not loopback
-                        if (!inetAddress.isLoopbackAddress() && InetAddressUtils.isIPv4Address(address)) {
-                            return address;
-                        }
-                    }
+    private void updateInfo(boolean useCache, boolean supersede) {
+        if (mRefreshListener != null) {
+            if (!supersede) {
+                // the refresh we already wait for will do
+                return;
+            }
+            // superseded: its progress bar goes away with it
+            getRefreshPipeline().leave(mRefreshListener);
+            finishRefresh(mRefreshListener);
+        }
 
+        RefreshCoordinator coordinator = getRefreshCoordinator();
+        RefreshCoordinator.Generation generation = supersede ? coordinator.start() : coordinator.startOrJoin();
+        if (generation == null) {
+            // someone else started a refresh: its results will show up on the card too
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, String.format("joined the running refresh (%d joins so far)", coordinator.getJoinedCount()));
+            }
+            RefreshListener listener = new RefreshListener(true, getRefreshPipeline().isLookingUpExternal());
+            if (getRefreshPipeline().join(listener)) {
+                mRefreshListener = listener;
+                if (listener.isLookingUpExternal()) {
+                    mIndSlider = mSlider.startIndeterminate();
                 }
             }
-        } catch (SocketException ex) {
-            Log.e(TAG, ex.getMessage());
+            return;
         }
 
-        return null;
-    }
+        // start from the last complete snapshot, marked as out of date, or from an empty one:
+        // never from the info of a refresh that may not have finished
+        NetInfoSnapshot lastKnown = getSnapshotStore().getLastKnown();
+        publish(lastKnown != null ? lastKnown : NetInfoSnapshot.EMPTY);
 
-    /**
-     * Get the SSID we are currently connected to
-     *
-     * @return the SSID name
-     */
-    private String getConnectedSSID() {
-        WifiManager wifiManager = (WifiManager) getSystemService(WIFI_SERVICE);
-        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
-        String ssid = wifiInfo.getSSID();
-
-        if (ssid == null || ssid.equals("0x")) {
-            ssid = getString(R.string.ssid_na);
-        } else if (ssid.startsWith("\"") && ssid.endsWith("\"")) {
-            // ssid is often returned with surrounding double quotation marks. We take them off.
-            ssid = ssid.substring(1, ssid.length() - 1);
+        // the network the external IP we are about to get will belong to
+        NetworkIdentity identity = NetworkIdentity.current(mWifiManager);
+
+        ExternalIpCache.Entry cached = useCache ? getExternalIpCache().get(identity) : null;
+        if (cached != null) {
+            // same network as last time: show what we got then, marked as cached, without any request
+            showCachedIpInfo(cached);
+        } else {
+            // show progress bar, for the whole refresh
+            mIndSlider = mSlider.startIndeterminate();
         }
 
-        return ssid;
+        boolean lookupExternal = cached == null;
+        mRefreshListener = new RefreshListener(true, lookupExternal);
+        getRefreshPipeline().start(generation, identity, lookupExternal, mRefreshListener);
     }
 
     /**
-     * Retrieves the content of a URL
-     *
-     * @param url : the url of the web page
-     * @return the content as a {@link String}
+     * Stops waiting for a refresh
+     * Does nothing if this activity already waits for a newer one, which owns the progress bar.
      */
-    private String getDataFromUrl(String url) {
-        OkHttpClient client = new OkHttpClient();
-        String result;
-
-        // don't wait more than 3 seconds total
-        client.setConnectTimeout(1000, TimeUnit.MILLISECONDS);
-        client.setWriteTimeout(1000, TimeUnit.MILLISECONDS);
-        client.setReadTimeout(1000, TimeUnit.MILLISECONDS);
-
-        Request request = new Request.Builder()
-                .url(url)
-                .build();
-
-        try {
-            Response response = client.newCall(request).execute();
-            result = response.body().string();
-        } catch (IOException e) {
-            Log.e(TAG, String.format("timed out while trying to get data from url %s", url));
-            result = getString(R.string.http_response_timeout);
+    private void finishRefresh(RefreshListener listener) {
+        if (listener != mRefreshListener) {
+            return;
         }
+        mRefreshListener = null;
+        // hide the progress bar, if it was showing
+        if (mIndSlider != null) {
+            mIndSlider.hide();
+            mIndSlider = null;
+        }
+    }
 
-        return result;
+    /**
+     * Collects the local network info (addresses, gateway and SSID) in the background and shows it
+     */
+    private void updateLocalInfo() {
+        getRefreshPipeline().start(null, null, false, new RefreshListener(false, false));
     }
 
     /**
-     * an AsyncTask that will fetch the content of a "whatismyip" service, giving us our external IP address
+     * @return what the card shows now, for the cold start benchmark
      */
-    private class GetExternalIPTask extends AsyncTask<Void, Void, String> {
-        @Override
-        protected String doInBackground(Void... p) {
-            return getDataFromUrl(getString(R.string.url_ip));
-        }
+    NetInfoSnapshot getSnapshot() {
+        return mSnapshot.get();
+    }
 
-        protected void onPreExecute() {
-            // show progress bar
-            mIndSlider = mSlider.startIndeterminate();
-        }
+    private RefreshTimings getRefreshTimings() {
+        return ((NetInfoApplication) getApplication()).getRefreshTimings();
+    }
 
-        protected void onPostExecute(String ip) {
-            // hide the progress bar
-            if (mIndSlider != null) {
-                mIndSlider.hide();
-                mIndSlider = null;
-            }
+    private RefreshCoordinator getRefreshCoordinator() {
+        return ((NetInfoApplication) getApplication()).getRefreshCoordinator();
+    }
 
-            // add external ip to the list
-            mInfoTable.put("ext", ip);
+    private RefreshPipeline getRefreshPipeline() {
+        return ((NetInfoApplication) getApplication()).getRefreshPipeline();
+    }
 
-            // notify that the card UI must be redrawn
-            mCardAdapter.notifyDataSetChanged();
-            // play a nice sound
-            AudioManager am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-            am.playSoundEffect(Sounds.SUCCESS);
+    private InterfaceAddressReader getInterfaceAddressReader() {
+        return ((NetInfoApplication) getApplication()).getInterfaceAddressReader();
+    }
 
-            if (!ip.equals(getString(R.string.http_response_na)) && !ip.equals(getString(R.string.http_response_timeout))) {
-                // get more info on the external IP
-                mExtInfoTask = new GetExternalIPInfoTask();
-                mExtInfoTask.execute(ip);
-            }
+    private SnapshotStore getSnapshotStore() {
+        return ((NetInfoApplication) getApplication()).getSnapshotStore();
+    }
 
-        }
+    private ExternalIpCache getExternalIpCache() {
+        return ((NetInfoApplication) getApplication()).getExternalIpCache();
+    }
+
+    private LatencyProbeEngine getLatencyProbeEngine() {
+        return ((NetInfoApplication) getApplication()).getLatencyProbeEngine();
+    }
+
+    /**
+     * Shows the cached external IP, its provider and location, as far as they are known,
+     * with the time they were seen at
+     *
+     * @param cached : what we knew about the external IP on this network
+     */
+    private void showCachedIpInfo(ExternalIpCache.Entry cached) {
+        publish(mSnapshot.get().withIpInfo(cached.ipInfo, cached.timestamp, true));
     }
 
     /**
-     * an AsyncTask that will fetch the content of an "ip info" service, giving us the provider of our external IP
+     * Makes a new snapshot the current one, and redraws the card from it
+     * Only called from the UI thread, so that stages cannot overwrite each other's snapshot.
      */
-    private class GetExternalIPInfoTask extends AsyncTask<String, Void, String> {
-        @Override
-        protected String doInBackground(String... ip) {
-            String networkProviderName = getDataFromUrl(getString(R.string.url_provider_name, ip[0]));
-            int idx = networkProviderName.indexOf(" ");
-            if (idx > 0) {
-                networkProviderName = networkProviderName.substring(idx, networkProviderName.length()).trim();
-            }
-            return networkProviderName;
+    private void publish(NetInfoSnapshot snapshot) {
+        mSnapshot.set(snapshot);
+        // notify that the card UI must be redrawn
+        mCardAdapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Shows the results of a refresh as they come
+     */
+    private class RefreshListener extends SnapshotListener {
+        // false if it only collects the local info
+        private final boolean mRefresh;
+
+        RefreshListener(boolean refresh, boolean lookupExternal) {
+            super(MainActivity.this, mSnapshot, getSnapshotStore(), lookupExternal);
+            mRefresh = refresh;
         }
 
-        protected void onPreExecute() {
-            // show that we are looking for the provider
-            mInfoTable.put("provider", getString(R.string.retrieving));
-            // notify that the card UI must be redrawn
-            mCardAdapter.notifyDataSetChanged();
-            // show progress bar
-            mIndSlider = mSlider.startIndeterminate();
+        @Override
+        protected void publish(NetInfoSnapshot snapshot) {
+            MainActivity.this.publish(snapshot);
         }
 
-        protected void onPostExecute(String networkProviderName) {
-            // hide the progress bar
-            if (mIndSlider != null) {
-                mIndSlider.hide();
-                mIndSlider = null;
+        @Override
+        public void onFinished(boolean timedOut) {
+            if (!mRefresh) {
+                return;
             }
-            // add external ip to the list
-            mInfoTable.put("provider", networkProviderName);
-
-            // notify that the card UI must be redrawn
-            mCardAdapter.notifyDataSetChanged();
-            // play a nice sound
-            AudioManager am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
-            am.playSoundEffect(Sounds.SUCCESS);
+            finishRefresh(this);
+            if (!isLookingUpExternal()) {
+                return;
+            }
+            super.onFinished(timedOut);
 
+            // play a nice sound, or not so nice
+            mAudioManager.playSoundEffect(timedOut ? Sounds.ERROR : Sounds.SUCCESS);
         }
     }
 }
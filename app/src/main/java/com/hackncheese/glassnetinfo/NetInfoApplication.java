@@ -0,0 +1,233 @@
+package com.hackncheese.glassnetinfo;
+
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.wifi.WifiManager;
+import android.os.Process;
+import android.os.Trace;
+
+import com.hackncheese.glassnetinfo.core.EndpointLatencies;
+import com.hackncheese.glassnetinfo.core.LatencyProbeEngine;
+import com.hackncheese.glassnetinfo.core.NetInfoHttpClient;
+import com.hackncheese.glassnetinfo.core.ProviderCache;
+import com.hackncheese.glassnetinfo.core.ReconnectTracker;
+import com.hackncheese.glassnetinfo.core.RefreshCoordinator;
+import com.hackncheese.glassnetinfo.core.RefreshTimings;
+
+import java.io.File;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Holds the components that live as long as the application process,
+ * so that they are shared by all the activities
+ */
+public class NetInfoApplication extends Application {
+
+    // a refresh runs at most three stages at once: local addresses, SSID and external IP
+    private static final int REFRESH_THREADS = 3;
+    // stages waiting for a thread, beyond that refreshes are coming in faster than they can run
+    private static final int REFRESH_QUEUE_SIZE = 12;
+    // idle threads are let go, the app is used in short bursts
+    private static final long REFRESH_THREAD_KEEP_ALIVE_S = 30;
+    // how many WiFi toggles to remember for the diagnostics card
+    private static final int MAX_RECONNECTS = 5;
+
+    private RefreshTimings mRefreshTimings;
+    private NetInfoHttpClient mHttpClient;
+    private RefreshCoordinator mRefreshCoordinator;
+    private ProviderCache mProviderCache;
+    private ExternalIpCache mExternalIpCache;
+    private InterfaceAddressReader mInterfaceAddressReader;
+    private ThreadPoolExecutor mRefreshExecutor;
+    private RefreshPipeline mRefreshPipeline;
+    private SnapshotStore mSnapshotStore;
+    private LatencyProbeEngine mLatencyProbeEngine;
+    // the last WiFi toggles, oldest first, only touched on the UI thread
+    private final LinkedList<ReconnectTracker> mReconnects = new LinkedList<ReconnectTracker>();
+
+    // the network of the last connectivity change, only touched on the UI thread
+    private NetworkIdentity mNetworkIdentity;
+
+    /**
+     * Drops the cached external IP when the network we are attached to changes,
+     * and gets the connections of the lookups ready on the new one
+     */
+    private final BroadcastReceiver mNetworkChangeReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            WifiManager wifiManager = (WifiManager) getSystemService(WIFI_SERVICE);
+            NetworkIdentity identity = NetworkIdentity.current(wifiManager);
+            mExternalIpCache.invalidateIfChanged(identity);
+
+            boolean upstreamChanged = identity == null
+                    ? mNetworkIdentity != null
+                    : !identity.hasSameUpstream(mNetworkIdentity);
+            mNetworkIdentity = identity;
+            if (upstreamChanged) {
+                // DNS answers and idle connections belong to the previous network
+                mHttpClient.onNetworkChanged();
+                if (identity != null) {
+                    mRefreshPipeline.prewarm();
+                }
+            }
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // refresh stages show up in systrace
+        mRefreshTimings = new RefreshTimings(new RefreshTimings.Tracer() {
+            @Override
+            public void beginSection(String name) {
+                Trace.beginSection(name);
+            }
+
+            @Override
+            public void endSection() {
+                Trace.endSection();
+            }
+        });
+        // timeouts follow the latencies seen on each endpoint, saved across launches
+        EndpointLatencies latencies = new EndpointLatencies(new File(getCacheDir(), "latencies.bin"),
+                getResources().getInteger(R.integer.http_timeout_initial_ms),
+                getResources().getInteger(R.integer.http_timeout_floor_ms),
+                getResources().getInteger(R.integer.http_timeout_ceiling_ms));
+        mHttpClient = new NetInfoHttpClient(mRefreshTimings, latencies);
+        mRefreshCoordinator = new RefreshCoordinator(mHttpClient);
+        mProviderCache = new ProviderCache(new File(getCacheDir(), "providers.bin"),
+                getResources().getInteger(R.integer.provider_cache_max_entries),
+                TimeUnit.HOURS.toMillis(getResources().getInteger(R.integer.provider_cache_ttl_hours)));
+        mExternalIpCache = new ExternalIpCache();
+        mInterfaceAddressReader = new InterfaceAddressReader(
+                getResources().getStringArray(R.array.local_interfaces),
+                getResources().getInteger(R.integer.local_addresses_max_age_ms));
+
+        mRefreshExecutor = new ThreadPoolExecutor(REFRESH_THREADS, REFRESH_THREADS,
+                REFRESH_THREAD_KEEP_ALIVE_S, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(REFRESH_QUEUE_SIZE), new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // do not compete with the UI for the CPU
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "refresh-" + mCount.incrementAndGet());
+            }
+        });
+        mRefreshExecutor.allowCoreThreadTimeOut(true);
+        mRefreshPipeline = new RefreshPipeline(this, mRefreshExecutor, mHttpClient, mRefreshCoordinator,
+                mProviderCache, mExternalIpCache, mInterfaceAddressReader, mRefreshTimings);
+        mSnapshotStore = new SnapshotStore(new File(getCacheDir(), "snapshot.bin"), mRefreshExecutor);
+        // runs while the main activity is in front: its samples outlive the activity
+        mLatencyProbeEngine = new LatencyProbeEngine(mHttpClient,
+                getResources().getStringArray(R.array.latency_probe_targets),
+                getResources().getInteger(R.integer.latency_probe_interval_ms),
+                getResources().getInteger(R.integer.latency_probe_timeout_ms),
+                TimeUnit.MINUTES.toMillis(getResources().getInteger(R.integer.latency_window_minutes)));
+
+        // the sticky broadcasts that come with registering tell about the network we start on:
+        // it must not pass for a change, that would cancel the pre-warming of the first refresh
+        mNetworkIdentity = NetworkIdentity.current((WifiManager) getSystemService(WIFI_SERVICE));
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        registerReceiver(mNetworkChangeReceiver, filter);
+    }
+
+    /**
+     * Remembers a finished WiFi toggle, to compare how long the access points take to reconnect
+     */
+    public void addReconnect(ReconnectTracker tracker) {
+        mReconnects.add(tracker);
+        if (mReconnects.size() > MAX_RECONNECTS) {
+            mReconnects.removeFirst();
+        }
+    }
+
+    /**
+     * @return the last WiFi toggles, oldest first
+     */
+    public List<ReconnectTracker> getReconnects() {
+        return mReconnects;
+    }
+
+    /**
+     * @return the last complete snapshot, shown at launch until the refresh is done
+     */
+    public SnapshotStore getSnapshotStore() {
+        return mSnapshotStore;
+    }
+
+    /**
+     * @return the timings of the refresh stages
+     */
+    public RefreshTimings getRefreshTimings() {
+        return mRefreshTimings;
+    }
+
+    /**
+     * @return the probes behind the latency card
+     */
+    public LatencyProbeEngine getLatencyProbeEngine() {
+        return mLatencyProbeEngine;
+    }
+
+    /**
+     * @return the HTTP client shared by all the lookups
+     */
+    public NetInfoHttpClient getHttpClient() {
+        return mHttpClient;
+    }
+
+    /**
+     * @return the refresh in progress, shared so that overlapping refreshes join it
+     */
+    public RefreshCoordinator getRefreshCoordinator() {
+        return mRefreshCoordinator;
+    }
+
+    /**
+     * @return the pipeline that collects the network info, on threads owned by the application
+     */
+    public RefreshPipeline getRefreshPipeline() {
+        return mRefreshPipeline;
+    }
+
+    /**
+     * @return the cache of the providers of the external IPs we have seen
+     */
+    public ProviderCache getProviderCache() {
+        return mProviderCache;
+    }
+
+    /**
+     * @return the cache of the last external IP, for the network it was seen on
+     */
+    public ExternalIpCache getExternalIpCache() {
+        return mExternalIpCache;
+    }
+
+    /**
+     * @return the reader of the local addresses, which caches them between calls
+     */
+    public InterfaceAddressReader getInterfaceAddressReader() {
+        return mInterfaceAddressReader;
+    }
+}
@@ -0,0 +1,278 @@
+package com.hackncheese.glassnetinfo;
+
+import com.hackncheese.glassnetinfo.core.IpInfo;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Everything we know about the network state at one point in time.
+ * <p/>
+ * A snapshot is immutable: each refresh stage derives a new snapshot from the current one
+ * with the {@code withXxx} methods, and publishes it as a whole.
+ * Readers therefore always see a consistent state, without any locking.
+ * Each field carries the time it was collected at and whether it may be out of date.
+ * The {@code withXxx} methods set values collected now; values from a cache keep their own time.
+ */
+public final class NetInfoSnapshot {
+
+    /**
+     * Nothing known yet
+     */
+    public static final NetInfoSnapshot EMPTY =
+            new NetInfoSnapshot(null, null, null, null, null, null, null, null);
+
+    private final Value mWlanIP;
+    private final Value mWlanIPv6;
+    private final Value mSsid;
+    private final Value mGateway;
+    private final Value mTether;
+    private final Value mExtIP;
+    private final Value mProvider;
+    private final Value mLocation;
+
+    private NetInfoSnapshot(Value wlanIP, Value wlanIPv6, Value ssid, Value gateway, Value tether,
+                            Value extIP, Value provider, Value location) {
+        mWlanIP = wlanIP;
+        mWlanIPv6 = wlanIPv6;
+        mSsid = ssid;
+        mGateway = gateway;
+        mTether = tether;
+        mExtIP = extIP;
+        mProvider = provider;
+        mLocation = location;
+    }
+
+    /**
+     * @return the local IP address on wlan0, or null if not known yet
+     */
+    public Value getWlanIP() {
+        return mWlanIP;
+    }
+
+    /**
+     * @return the IPv6 address on wlan0, global if there is one, or null if none
+     */
+    public Value getWlanIPv6() {
+        return mWlanIPv6;
+    }
+
+    /**
+     * @return the SSID we are connected to, or null if not known or not connected
+     */
+    public Value getSsid() {
+        return mSsid;
+    }
+
+    /**
+     * @return the default gateway, or null if not known or there is no default route
+     */
+    public Value getGateway() {
+        return mGateway;
+    }
+
+    /**
+     * @return the address of the tethering interface and its name, like "192.168.44.2 (bnep0)", or null if none
+     */
+    public Value getTether() {
+        return mTether;
+    }
+
+    /**
+     * @return the external IP address, or null if not known yet
+     */
+    public Value getExtIP() {
+        return mExtIP;
+    }
+
+    /**
+     * @return the provider of the external IP address, or null if not known yet
+     */
+    public Value getProvider() {
+        return mProvider;
+    }
+
+    /**
+     * @return the location of the external IP address, or null if not known
+     */
+    public Value getLocation() {
+        return mLocation;
+    }
+
+    public NetInfoSnapshot withWlanIP(String wlanIP) {
+        return new NetInfoSnapshot(Value.of(wlanIP, System.currentTimeMillis(), false), mWlanIPv6, mSsid,
+                mGateway, mTether, mExtIP, mProvider, mLocation);
+    }
+
+    public NetInfoSnapshot withWlanIPv6(String wlanIPv6) {
+        return new NetInfoSnapshot(mWlanIP, Value.of(wlanIPv6, System.currentTimeMillis(), false), mSsid,
+                mGateway, mTether, mExtIP, mProvider, mLocation);
+    }
+
+    public NetInfoSnapshot withSsid(String ssid) {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, Value.of(ssid, System.currentTimeMillis(), false),
+                mGateway, mTether, mExtIP, mProvider, mLocation);
+    }
+
+    public NetInfoSnapshot withGateway(String gateway) {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, mSsid, Value.of(gateway,
+                System.currentTimeMillis(), false), mTether, mExtIP, mProvider, mLocation);
+    }
+
+    public NetInfoSnapshot withTether(String tether) {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, mSsid, mGateway,
+                Value.of(tether, System.currentTimeMillis(), false), mExtIP, mProvider, mLocation);
+    }
+
+    public NetInfoSnapshot withExtIP(String extIP) {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, mSsid, mGateway,
+                mTether, Value.of(extIP, System.currentTimeMillis(), false), mProvider, mLocation);
+    }
+
+    public NetInfoSnapshot withProvider(String provider) {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, mSsid, mGateway,
+                mTether, mExtIP, Value.of(provider, System.currentTimeMillis(), false), mLocation);
+    }
+
+    public NetInfoSnapshot withLocation(String location) {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, mSsid, mGateway,
+                mTether, mExtIP, mProvider, Value.of(location, System.currentTimeMillis(), false));
+    }
+
+    /**
+     * @param ipInfo    : what we know about the external IP
+     * @param timestamp : when it was collected, in {@link System#currentTimeMillis()} time
+     * @param stale     : true if it comes from a cache and may be out of date
+     * @return a snapshot with the external IP, provider (with its AS number) and location set from the info,
+     * as far as they are known
+     */
+    public NetInfoSnapshot withIpInfo(IpInfo ipInfo, long timestamp, boolean stale) {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, mSsid, mGateway, mTether,
+                ipInfo.getIp() != null ? Value.of(ipInfo.getIp(), timestamp, stale) : mExtIP,
+                ipInfo.getProvider() != null ? Value.of(ipInfo.getProvider(), timestamp, stale) : mProvider,
+                ipInfo.getLocation() != null ? Value.of(ipInfo.getLocation(), timestamp, stale) : mLocation);
+    }
+
+    /**
+     * @return the same snapshot, with all its values marked as possibly out of date
+     */
+    public NetInfoSnapshot asStale() {
+        return new NetInfoSnapshot(Value.stale(mWlanIP), Value.stale(mWlanIPv6), Value.stale(mSsid),
+                Value.stale(mGateway), Value.stale(mTether), Value.stale(mExtIP), Value.stale(mProvider),
+                Value.stale(mLocation));
+    }
+
+    /**
+     * @return the same snapshot without the external IP, provider and location if they are out of date,
+     * so that they do not get mixed with live ones
+     */
+    public NetInfoSnapshot withoutStaleIpInfo() {
+        return new NetInfoSnapshot(mWlanIP, mWlanIPv6, mSsid, mGateway, mTether,
+                Value.fresh(mExtIP), Value.fresh(mProvider), Value.fresh(mLocation));
+    }
+
+    /**
+     * @return true if the external IP and its provider are known, and not out of date
+     */
+    public boolean isComplete() {
+        return mExtIP != null && !mExtIP.isStale() && mProvider != null && !mProvider.isStale();
+    }
+
+    /**
+     * Writes the values and their timestamps, to be read back by {@link #readFrom(DataInput)}
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        Value.write(out, mWlanIP);
+        Value.write(out, mWlanIPv6);
+        Value.write(out, mSsid);
+        Value.write(out, mGateway);
+        Value.write(out, mTether);
+        Value.write(out, mExtIP);
+        Value.write(out, mProvider);
+        Value.write(out, mLocation);
+    }
+
+    /**
+     * @return the snapshot written by {@link #writeTo(DataOutput)}, all its values marked as out of date
+     */
+    public static NetInfoSnapshot readFrom(DataInput in) throws IOException {
+        return new NetInfoSnapshot(Value.read(in), Value.read(in), Value.read(in), Value.read(in),
+                Value.read(in), Value.read(in), Value.read(in), Value.read(in));
+    }
+
+    /**
+     * One piece of information, with the time it was collected at
+     */
+    public static final class Value {
+        private final String mText;
+        private final long mTimestamp;
+        private final boolean mStale;
+
+        private Value(String text, long timestamp, boolean stale) {
+            mText = text;
+            mTimestamp = timestamp;
+            mStale = stale;
+        }
+
+        /**
+         * @param timestamp : when the value was collected, in {@link System#currentTimeMillis()} time
+         */
+        static Value of(String text, long timestamp, boolean stale) {
+            return text != null ? new Value(text, timestamp, stale) : null;
+        }
+
+        /**
+         * @return the value marked as out of date, collected at the same time
+         */
+        static Value stale(Value value) {
+            return value == null || value.mStale ? value : new Value(value.mText, value.mTimestamp, true);
+        }
+
+        /**
+         * @return the value if it is live, null if it is out of date
+         */
+        static Value fresh(Value value) {
+            return value != null && !value.mStale ? value : null;
+        }
+
+        static void write(DataOutput out, Value value) throws IOException {
+            out.writeBoolean(value != null);
+            if (value != null) {
+                out.writeUTF(value.mText);
+                out.writeLong(value.mTimestamp);
+            }
+        }
+
+        static Value read(DataInput in) throws IOException {
+            return in.readBoolean() ? new Value(in.readUTF(), in.readLong(), true) : null;
+        }
+
+        public String getText() {
+            return mText;
+        }
+
+        /**
+         * @return when the value was collected, in {@link System#currentTimeMillis()} time
+         */
+        public long getTimestamp() {
+            return mTimestamp;
+        }
+
+        /**
+         * @return true if the value was not collected live, and may be out of date
+         */
+        public boolean isStale() {
+            return mStale;
+        }
+
+        /**
+         * The age shown with an out of date value is not compared: it moves on with the clock.
+         *
+         * @return true if the other value would be shown the same way, whenever it was collected
+         */
+        public boolean looksLike(Value other) {
+            return other != null && mStale == other.mStale && mText.equals(other.mText);
+        }
+    }
+}
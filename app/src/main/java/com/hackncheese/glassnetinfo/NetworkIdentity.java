@@ -0,0 +1,77 @@
+package com.hackncheese.glassnetinfo;
+
+import android.net.DhcpInfo;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+
+/**
+ * What tells one network attachment from another: the access point we are associated with,
+ * and the lease the DHCP server gave us.
+ * As long as none of it changes, our external IP address is very unlikely to change.
+ */
+public class NetworkIdentity {
+
+    private final String mSsid;
+    private final String mBssid;
+    private final int mLocalIPv4;
+    private final int mGateway;
+
+    public NetworkIdentity(String ssid, String bssid, int localIPv4, int gateway) {
+        mSsid = ssid;
+        mBssid = bssid;
+        mLocalIPv4 = localIPv4;
+        mGateway = gateway;
+    }
+
+    /**
+     * @return the identity of the WiFi network we are attached to, or null if we are not
+     */
+    public static NetworkIdentity current(WifiManager wifiManager) {
+        WifiInfo wifiInfo = wifiManager.getConnectionInfo();
+        if (wifiInfo == null || wifiInfo.getIpAddress() == 0) {
+            return null;
+        }
+        DhcpInfo dhcpInfo = wifiManager.getDhcpInfo();
+        return new NetworkIdentity(wifiInfo.getSSID(), wifiInfo.getBSSID(), wifiInfo.getIpAddress(),
+                dhcpInfo != null ? dhcpInfo.gateway : 0);
+    }
+
+    /**
+     * @return true if the other identity has the same way out to the internet:
+     * same SSID, same local address and same gateway, although maybe through another access point
+     */
+    public boolean hasSameUpstream(NetworkIdentity other) {
+        return other != null
+                && mLocalIPv4 == other.mLocalIPv4
+                && mGateway == other.mGateway
+                && equals(mSsid, other.mSsid);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof NetworkIdentity)) {
+            return false;
+        }
+        NetworkIdentity other = (NetworkIdentity) o;
+        return mLocalIPv4 == other.mLocalIPv4
+                && mGateway == other.mGateway
+                && equals(mSsid, other.mSsid)
+                && equals(mBssid, other.mBssid);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = mSsid != null ? mSsid.hashCode() : 0;
+        result = 31 * result + (mBssid != null ? mBssid.hashCode() : 0);
+        result = 31 * result + mLocalIPv4;
+        result = 31 * result + mGateway;
+        return result;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,106 @@
+package com.hackncheese.glassnetinfo;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Watches the WiFi and connectivity broadcasts, and tells its listener when the network changed.
+ * <p/>
+ * Broadcasts come in bursts (association, DHCP, connectivity...): they are coalesced over a debounce
+ * window, then the resulting {@link NetworkIdentity} is compared to the previous one, so that the
+ * listener only hears about actual changes, and knows whether the way out to the internet changed
+ * or only the access point (roaming).
+ */
+public class NetworkMonitor {
+
+    // for logs
+    private static final String TAG = NetworkMonitor.class.getSimpleName();
+
+    /**
+     * Gets told about network changes, on the UI thread
+     */
+    public interface Listener {
+        /**
+         * @param upstreamChanged : true if the SSID, local address or gateway changed, or if we lost
+         *                        or got the connection. false if we only roamed to another access point
+         */
+        void onNetworkChanged(boolean upstreamChanged);
+    }
+
+    private final Context mContext;
+    private final WifiManager mWifiManager;
+    private final Listener mListener;
+    private final long mDebounceMs;
+    private final Handler mHandler = new Handler();
+
+    private NetworkIdentity mLastIdentity;
+    private boolean mStarted;
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // restart the debounce window on every event of the burst
+            mHandler.removeCallbacks(mCheckNetwork);
+            mHandler.postDelayed(mCheckNetwork, mDebounceMs);
+        }
+    };
+
+    private final Runnable mCheckNetwork = new Runnable() {
+        @Override
+        public void run() {
+            NetworkIdentity identity = NetworkIdentity.current(mWifiManager);
+            if (identity == null ? mLastIdentity == null : identity.equals(mLastIdentity)) {
+                // a burst of events for nothing
+                return;
+            }
+
+            boolean upstreamChanged = identity == null || !identity.hasSameUpstream(mLastIdentity);
+            mLastIdentity = identity;
+            Log.d(TAG, upstreamChanged ? "network changed" : "roamed to another access point");
+            mListener.onNetworkChanged(upstreamChanged);
+        }
+    };
+
+    /**
+     * @param debounceMs : how long to wait for the end of a burst of events
+     */
+    public NetworkMonitor(Context context, Listener listener, long debounceMs) {
+        mContext = context;
+        mWifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        mListener = listener;
+        mDebounceMs = debounceMs;
+    }
+
+    /**
+     * Starts watching the network
+     * The current network is the reference: the sticky broadcasts received right away do not
+     * count as a change.
+     */
+    public void start() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        mLastIdentity = NetworkIdentity.current(mWifiManager);
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        filter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
+        mContext.registerReceiver(mReceiver, filter);
+    }
+
+    public void stop() {
+        if (!mStarted) {
+            return;
+        }
+        mStarted = false;
+        mContext.unregisterReceiver(mReceiver);
+        mHandler.removeCallbacks(mCheckNetwork);
+    }
+}
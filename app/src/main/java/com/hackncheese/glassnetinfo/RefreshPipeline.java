@@ -0,0 +1,623 @@
+package com.hackncheese.glassnetinfo;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.net.wifi.SupplicantState;
+import android.net.wifi.WifiInfo;
+import android.net.wifi.WifiManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.hackncheese.glassnetinfo.core.Deadline;
+import com.hackncheese.glassnetinfo.core.BoundedBodyReader;
+import com.hackncheese.glassnetinfo.core.IpInfo;
+import com.hackncheese.glassnetinfo.core.IpInfoParser;
+import com.hackncheese.glassnetinfo.core.LocalAddresses;
+import com.hackncheese.glassnetinfo.core.NetInfoHttpClient;
+import com.hackncheese.glassnetinfo.core.ProviderCache;
+import com.hackncheese.glassnetinfo.core.Reachability;
+import com.hackncheese.glassnetinfo.core.RefreshCoordinator;
+import com.hackncheese.glassnetinfo.core.RefreshTimings;
+import com.hackncheese.glassnetinfo.core.SsidUtils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Collects the network info of a refresh, within an overall deadline.
+ * <p/>
+ * The independent stages (local addresses, SSID, external IP) run at the same time on an executor
+ * owned by the application, and each one reports its result to the listener as soon as it has it.
+ * Network stages get a budget carved from the time left, so a slow endpoint cannot use up the
+ * whole refresh, and nothing runs past the deadline: at the deadline the calls of the refresh are
+ * aborted and the listener is told the refresh is over.
+ * <p/>
+ * A refresh can have several listeners: whoever asks for a refresh while one is running joins it,
+ * and the listeners of a refresh that is superseded move over to the one that supersedes it.
+ */
+public class RefreshPipeline {
+
+    // for logs
+    private static final String TAG = RefreshPipeline.class.getSimpleName();
+
+    /**
+     * Gets the results of a refresh, on the UI thread.
+     * Nothing is delivered anymore once the refresh is over; if it is superseded by a newer one,
+     * the results of the newer one come instead.
+     */
+    public interface Listener {
+        void onLocalInfo(LocalAddresses addresses);
+
+        /**
+         * @param ssid : the SSID we are connected to, or null if not connected
+         */
+        void onSsid(String ssid);
+
+        /**
+         * Whether the internet can be reached, before the external IP is looked up.
+         * Only when looking up the external IP, and if the probe is configured.
+         * The lookups are skipped behind a captive portal or without network.
+         */
+        void onReachability(Reachability reachability);
+
+        /**
+         * The external IP, before its provider is known. Only with separate lookups.
+         */
+        void onExternalIp(String ip);
+
+        /**
+         * What we know about the external IP, its provider and location included if found
+         */
+        void onIpInfo(IpInfo ipInfo);
+
+        /**
+         * @param timedOut : true if the deadline came before every stage was done
+         */
+        void onFinished(boolean timedOut);
+    }
+
+    private final Executor mExecutor;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final WifiManager mWifiManager;
+    private final NetInfoHttpClient mHttpClient;
+    private final RefreshCoordinator mCoordinator;
+    private final ProviderCache mProviderCache;
+    private final ExternalIpCache mExternalIpCache;
+    private final InterfaceAddressReader mInterfaceAddressReader;
+    private final RefreshTimings mTimings;
+
+    private final long mDeadlineMs;
+    private final long mIpBudgetMs;
+    private final long mIpInfoBudgetMs;
+    private final long mReachabilityBudgetMs;
+    private final boolean mCombinedLookup;
+    private final long mHedgeDelayMs;
+    private final String[] mIpUrls;
+    private final String mIpInfoUrl;
+    private final String mProviderUrl;
+    // null if the network is not probed before the lookups
+    private final String mReachabilityUrl;
+    // the answers are read as they come, and dropped as soon as they cannot be what we asked for
+    private final BoundedBodyReader mIpReader;
+    private final BoundedBodyReader mProviderReader;
+    // keeps no state between answers: one is enough for all the refreshes
+    private final IpInfoParser mIpInfoParser = new IpInfoParser();
+
+    // the refresh of the current generation, that can be joined. Only touched on the UI thread.
+    private Run mCurrentRun;
+
+    RefreshPipeline(Context context, Executor executor, NetInfoHttpClient httpClient,
+                    RefreshCoordinator coordinator, ProviderCache providerCache,
+                    ExternalIpCache externalIpCache, InterfaceAddressReader interfaceAddressReader,
+                    RefreshTimings timings) {
+        mExecutor = executor;
+        mWifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+        mHttpClient = httpClient;
+        mCoordinator = coordinator;
+        mProviderCache = providerCache;
+        mExternalIpCache = externalIpCache;
+        mInterfaceAddressReader = interfaceAddressReader;
+        mTimings = timings;
+
+        Resources res = context.getResources();
+        mDeadlineMs = res.getInteger(R.integer.refresh_deadline_ms);
+        mIpBudgetMs = res.getInteger(R.integer.ip_lookup_budget_ms);
+        mIpInfoBudgetMs = res.getInteger(R.integer.ip_info_budget_ms);
+        mReachabilityBudgetMs = res.getInteger(R.integer.reachability_budget_ms);
+        mCombinedLookup = res.getBoolean(R.bool.combined_ip_lookup);
+        // without hedging, backup endpoints are only asked when the previous one failed
+        mHedgeDelayMs = res.getBoolean(R.bool.hedged_ip_lookup) ? res.getInteger(R.integer.hedge_delay_ms) : -1;
+        mIpUrls = res.getStringArray(R.array.urls_ip);
+        mIpInfoUrl = res.getString(R.string.url_ip_info);
+        mProviderUrl = res.getString(R.string.url_provider_name);
+        mReachabilityUrl = res.getBoolean(R.bool.reachability_probe) ? res.getString(R.string.url_reachability) : null;
+        mIpReader = BoundedBodyReader.ipAddress(res.getInteger(R.integer.ip_response_max_bytes));
+        mProviderReader = BoundedBodyReader.text(res.getInteger(R.integer.provider_response_max_bytes));
+    }
+
+    /**
+     * Starts a refresh. Must be called from the UI thread.
+     *
+     * @param generation     : the refresh, its results are dropped once it is not the current one;
+     *                       null to always deliver them (local info only)
+     * @param identity       : the network the external IP will belong to
+     * @param lookupExternal : false to only collect the local info
+     * @param listener       : where the results go
+     */
+    public void start(RefreshCoordinator.Generation generation, NetworkIdentity identity,
+                      boolean lookupExternal, Listener listener) {
+        final Run run = new Run(generation, Deadline.in(mDeadlineMs), identity, lookupExternal);
+        if (generation != null) {
+            if (mCurrentRun != null && !mCurrentRun.mFinished) {
+                // superseded: whoever was waiting for its results gets the ones of this refresh
+                run.mListeners.addAll(mCurrentRun.mListeners);
+                mCurrentRun.mListeners.clear();
+            }
+            mCurrentRun = run;
+        }
+        run.mListeners.add(listener);
+
+        submit(run, new Runnable() {
+            @Override
+            public void run() {
+                readLocalInfo(run);
+            }
+        });
+        submit(run, new Runnable() {
+            @Override
+            public void run() {
+                readSsid(run);
+            }
+        });
+        if (lookupExternal) {
+            submit(run, new Runnable() {
+                @Override
+                public void run() {
+                    if (!probeReachability(run)) {
+                        return;
+                    }
+                    if (mCombinedLookup) {
+                        lookupIpInfo(run);
+                    } else {
+                        lookupIpThenProvider(run);
+                    }
+                }
+            });
+        }
+
+        mHandler.postDelayed(run.mTimeout, mDeadlineMs);
+    }
+
+    /**
+     * Adds a listener to the running refresh, which gets what the refresh already found right away,
+     * then the rest as it comes. Must be called from the UI thread.
+     *
+     * @return false if no refresh is running
+     */
+    public boolean join(Listener listener) {
+        if (mCurrentRun == null || !mCurrentRun.isLive()) {
+            return false;
+        }
+        mCurrentRun.replay(listener);
+        mCurrentRun.mListeners.add(listener);
+        return true;
+    }
+
+    /**
+     * @return true if the refresh that would be joined looks up the external IP
+     */
+    public boolean isLookingUpExternal() {
+        return mCurrentRun != null && mCurrentRun.isLive() && mCurrentRun.mLookupExternal;
+    }
+
+    /**
+     * Stops giving the results of the running refresh to a listener. Must be called from the UI thread.
+     * The refresh is cancelled, and its calls aborted, once nobody listens to it anymore.
+     */
+    public void leave(Listener listener) {
+        if (mCurrentRun == null || !mCurrentRun.mListeners.remove(listener)) {
+            return;
+        }
+        if (mCurrentRun.mListeners.isEmpty() && mCoordinator.isCurrent(mCurrentRun.mGeneration)) {
+            // the lookups of this generation fail right away, and their results are dropped
+            mCoordinator.cancel();
+        }
+    }
+
+    /**
+     * Resolves the lookup hosts and connects to them in the background, ahead of a refresh.
+     * The first requests of the refresh may still race with it, but the later ones (the provider,
+     * the backup endpoints) find their connection ready.
+     * Runs on the executor: the timeouts of the connections come from the latencies saved on disk.
+     */
+    public void prewarm() {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (mReachabilityUrl != null) {
+                        mHttpClient.prewarm(mReachabilityUrl);
+                    }
+                    mHttpClient.prewarm(mIpUrls);
+                    mHttpClient.prewarm(mIpInfoUrl);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // busy refreshing: the refresh connects by itself
+        }
+    }
+
+    /**
+     * Runs a stage on the executor, and counts it done when it returns, whatever happened
+     */
+    private void submit(final Run run, final Runnable stage) {
+        run.mPendingStages++;
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        stage.run();
+                    } finally {
+                        deliver(run, new Runnable() {
+                            @Override
+                            public void run() {
+                                run.stageDone();
+                            }
+                        });
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            Log.e(TAG, "too many refreshes at once, skipping a stage");
+            run.mPendingStages--;
+        }
+    }
+
+    /**
+     * Hands a result over to the UI thread, where it is dropped if the refresh is over
+     */
+    private void deliver(final Run run, final Runnable result) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (run.isLive()) {
+                    result.run();
+                }
+            }
+        });
+    }
+
+    private void readLocalInfo(final Run run) {
+        long start = mTimings.begin(RefreshTimings.Stage.LOCAL_SCAN);
+        final LocalAddresses addresses;
+        try {
+            addresses = mInterfaceAddressReader.read();
+        } finally {
+            mTimings.end(RefreshTimings.Stage.LOCAL_SCAN, start);
+        }
+
+        deliver(run, new Runnable() {
+            @Override
+            public void run() {
+                run.onLocalInfo(addresses);
+            }
+        });
+    }
+
+    private void readSsid(final Run run) {
+        long start = mTimings.begin(RefreshTimings.Stage.SSID);
+        final String ssid;
+        try {
+            WifiInfo wifiInfo = mWifiManager.getConnectionInfo();
+            // the framework remembers the last SSID after a disconnection
+            ssid = wifiInfo != null && wifiInfo.getSupplicantState() == SupplicantState.COMPLETED
+                    ? SsidUtils.unquote(wifiInfo.getSSID())
+                    : null;
+        } finally {
+            mTimings.end(RefreshTimings.Stage.SSID, start);
+        }
+
+        deliver(run, new Runnable() {
+            @Override
+            public void run() {
+                run.onSsid(ssid);
+            }
+        });
+    }
+
+    /**
+     * Checks that the internet can be reached, while the local info is being read
+     * A captive portal or a network without internet is known in one round trip, instead of after
+     * the lookups time out or return the page of the portal.
+     *
+     * @return true if the external IP lookups are worth trying
+     */
+    private boolean probeReachability(final Run run) {
+        if (mReachabilityUrl == null) {
+            return true;
+        }
+        final Reachability reachability;
+        try {
+            reachability = mHttpClient.probe(mReachabilityUrl, run.mGeneration,
+                    run.mDeadline.slice(mReachabilityBudgetMs));
+        } catch (InterruptedIOException e) {
+            logFailure(run, "reachability probe interrupted");
+            return false;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, String.format("network is %s", reachability));
+        }
+
+        deliver(run, new Runnable() {
+            @Override
+            public void run() {
+                run.onReachability(reachability);
+            }
+        });
+        return reachability.allowsLookups();
+    }
+
+    /**
+     * Gets the external IP and its provider in one request,
+     * falling back on the "whatismyip" services if the ip info service fails
+     */
+    private void lookupIpInfo(Run run) {
+        try {
+            IpInfo ipInfo = mHttpClient.fetch(mIpInfoUrl, mIpInfoParser, run.mGeneration,
+                    run.mDeadline.slice(mIpInfoBudgetMs));
+            // remember it for the next time we see this IP
+            mProviderCache.put(ipInfo);
+            deliverIpInfo(run, ipInfo);
+            return;
+        } catch (IOException e) {
+            logFailure(run, String.format("could not get ip info from url %s", mIpInfoUrl));
+        }
+
+        // we will only know the IP
+        String ip = lookupExternalIp(run);
+        if (ip != null) {
+            deliverIpInfo(run, new IpInfo(ip, null, null, null, null));
+        }
+    }
+
+    /**
+     * Gets the external IP, shows it, then gets its provider with the time left
+     */
+    private void lookupIpThenProvider(final Run run) {
+        final String ip = lookupExternalIp(run);
+        if (ip == null) {
+            return;
+        }
+        deliver(run, new Runnable() {
+            @Override
+            public void run() {
+                run.onExternalIp(ip);
+            }
+        });
+
+        IpInfo cachedInfo = mProviderCache.get(ip);
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, String.format("provider cache: %d hits, %d misses, %d evictions",
+                    mProviderCache.getHitCount(), mProviderCache.getMissCount(), mProviderCache.getEvictionCount()));
+        }
+        if (cachedInfo != null) {
+            // we already know this IP: no need to ask for its provider
+            deliverIpInfo(run, cachedInfo);
+            return;
+        }
+
+        String url = String.format(mProviderUrl, ip);
+        try {
+            String org = mHttpClient.fetch(url, mProviderReader, run.mGeneration, run.mDeadline);
+            IpInfo ipInfo = new IpInfo(ip, IpInfoParser.asNumberOf(org), IpInfoParser.providerNameOf(org), null, null);
+            // remember it for the next time we see this IP
+            mProviderCache.put(ipInfo);
+            deliverIpInfo(run, ipInfo);
+        } catch (IOException e) {
+            logFailure(run, String.format("could not get the provider from url %s", url));
+        }
+    }
+
+    /**
+     * Asks the "whatismyip" services for our external IP address, hedging between them if configured to
+     *
+     * @return the external IP address, or null if no service gave a valid answer in time
+     */
+    private String lookupExternalIp(Run run) {
+        try {
+            return mHttpClient.fetchFirstRead(mIpUrls, mHedgeDelayMs, mIpReader, run.mGeneration,
+                    run.mDeadline.slice(mIpBudgetMs));
+        } catch (IOException e) {
+            logFailure(run, "no external IP endpoint answered in time");
+            return null;
+        }
+    }
+
+    private void deliverIpInfo(final Run run, final IpInfo ipInfo) {
+        if (ipInfo.getProvider() != null) {
+            // without its provider, the next refresh on this network must look it up again
+            mExternalIpCache.put(run.mIdentity, ipInfo);
+        }
+        deliver(run, new Runnable() {
+            @Override
+            public void run() {
+                run.onIpInfo(ipInfo);
+            }
+        });
+    }
+
+    /**
+     * Saves what the refresh taught us about the latencies of the endpoints, in the background
+     */
+    private void saveLatencies() {
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    mHttpClient.getLatencies().save();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // saved after the next refresh
+        }
+    }
+
+    /**
+     * Logs a failed lookup, unless it failed because its refresh was cancelled
+     */
+    private static void logFailure(Run run, String message) {
+        if (run.mGeneration != null && run.mGeneration.isCancelled()) {
+            if (BuildConfig.DEBUG) {
+                Log.d(TAG, String.format("%s cancelled", run.mGeneration));
+            }
+        } else {
+            Log.e(TAG, message);
+        }
+    }
+
+    /**
+     * The state of one refresh. Only touched on the UI thread, apart from the final fields.
+     * Hands each result to all its listeners, and keeps it for the ones that join later.
+     */
+    private final class Run implements Listener {
+        final RefreshCoordinator.Generation mGeneration;
+        final Deadline mDeadline;
+        final NetworkIdentity mIdentity;
+        final boolean mLookupExternal;
+        final List<Listener> mListeners = new ArrayList<Listener>(2);
+
+        int mPendingStages;
+        boolean mFinished;
+
+        // what was delivered so far, null until it was
+        LocalAddresses mLocalInfo;
+        boolean mSsidKnown;
+        String mSsid;
+        Reachability mReachability;
+        String mExternalIp;
+        IpInfo mIpInfo;
+
+        final Runnable mTimeout = new Runnable() {
+            @Override
+            public void run() {
+                if (mGeneration != null) {
+                    // nobody will look at their answers anymore
+                    mHttpClient.cancel(mGeneration);
+                }
+                finish(true);
+            }
+        };
+
+        Run(RefreshCoordinator.Generation generation, Deadline deadline, NetworkIdentity identity,
+            boolean lookupExternal) {
+            mGeneration = generation;
+            mDeadline = deadline;
+            mIdentity = identity;
+            mLookupExternal = lookupExternal;
+        }
+
+        @Override
+        public void onLocalInfo(LocalAddresses addresses) {
+            mLocalInfo = addresses;
+            for (Listener listener : mListeners) {
+                listener.onLocalInfo(addresses);
+            }
+        }
+
+        @Override
+        public void onSsid(String ssid) {
+            mSsidKnown = true;
+            mSsid = ssid;
+            for (Listener listener : mListeners) {
+                listener.onSsid(ssid);
+            }
+        }
+
+        @Override
+        public void onReachability(Reachability reachability) {
+            mReachability = reachability;
+            for (Listener listener : mListeners) {
+                listener.onReachability(reachability);
+            }
+        }
+
+        @Override
+        public void onExternalIp(String ip) {
+            mExternalIp = ip;
+            for (Listener listener : mListeners) {
+                listener.onExternalIp(ip);
+            }
+        }
+
+        @Override
+        public void onIpInfo(IpInfo ipInfo) {
+            mIpInfo = ipInfo;
+            for (Listener listener : mListeners) {
+                listener.onIpInfo(ipInfo);
+            }
+        }
+
+        @Override
+        public void onFinished(boolean timedOut) {
+            // a listener may leave while it is told
+            for (Listener listener : new ArrayList<Listener>(mListeners)) {
+                listener.onFinished(timedOut);
+            }
+        }
+
+        /**
+         * Gives a listener that joins late what the others already got, in the order they got it
+         */
+        void replay(Listener listener) {
+            if (mLocalInfo != null) {
+                listener.onLocalInfo(mLocalInfo);
+            }
+            if (mSsidKnown) {
+                listener.onSsid(mSsid);
+            }
+            if (mReachability != null) {
+                listener.onReachability(mReachability);
+            }
+            if (mExternalIp != null) {
+                listener.onExternalIp(mExternalIp);
+            }
+            if (mIpInfo != null) {
+                listener.onIpInfo(mIpInfo);
+            }
+        }
+
+        boolean isLive() {
+            return !mFinished && (mGeneration == null || mCoordinator.isCurrent(mGeneration));
+        }
+
+        void stageDone() {
+            if (--mPendingStages == 0) {
+                finish(false);
+            }
+        }
+
+        void finish(boolean timedOut) {
+            if (mFinished) {
+                return;
+            }
+            mFinished = true;
+            mHandler.removeCallbacks(mTimeout);
+            saveLatencies();
+            if (mGeneration == null) {
+                onFinished(timedOut);
+            } else if (mCoordinator.finish(mGeneration)) {
+                // the next refresh starts anew
+                onFinished(timedOut);
+            }
+            if (mCurrentRun == this) {
+                mCurrentRun = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.hackncheese.glassnetinfo;
+
+import android.app.Activity;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
+import android.widget.AdapterView;
+
+import com.google.android.glass.widget.CardScrollView;
+import com.hackncheese.glassnetinfo.core.AccessPoint;
+import com.hackncheese.glassnetinfo.core.ScanDeck;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows every access point in range, one card each, kept up to date by WiFi scans.
+ * <p/>
+ * Scans run only while the deck is on screen: every scan_interval_ms, then every
+ * scan_interval_idle_ms once a few scans in a row did not change anything, back to the short
+ * interval as soon as one does. Each scan is merged into the deck, so cards keep their place and
+ * only the changed ones are bound again.
+ */
+public class ScanResultsActivity extends Activity {
+
+    // for logs
+    private static final String TAG = ScanResultsActivity.class.getSimpleName();
+
+    private CardScrollView mCardScroller;
+    private ScanResultsAdapter mAdapter;
+    private ScanDeck mDeck;
+    private WifiManager mWifiManager;
+    private final Handler mHandler = new Handler();
+
+    private long mScanIntervalMs;
+    private long mIdleScanIntervalMs;
+    private int mIdleAfterScans;
+    // how many scans in a row did not change the deck
+    private int mUnchangedScans;
+
+    private final BroadcastReceiver mScanReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            showScanResults();
+        }
+    };
+
+    private final Runnable mScan = new Runnable() {
+        @Override
+        public void run() {
+            if (!mWifiManager.startScan()) {
+                Log.d(TAG, "scan not started");
+            }
+            // the next one is scheduled now: a scan that fails or gets throttled sends no results
+            mHandler.postDelayed(mScan, mUnchangedScans >= mIdleAfterScans ? mIdleScanIntervalMs : mScanIntervalMs);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle bundle) {
+        super.onCreate(bundle);
+
+        mWifiManager = (WifiManager) getSystemService(WIFI_SERVICE);
+        mScanIntervalMs = getResources().getInteger(R.integer.scan_interval_ms);
+        mIdleScanIntervalMs = getResources().getInteger(R.integer.scan_interval_idle_ms);
+        mIdleAfterScans = getResources().getInteger(R.integer.scan_idle_after_scans);
+        mDeck = new ScanDeck(getResources().getInteger(R.integer.scan_max_missed_scans));
+
+        mAdapter = new ScanResultsAdapter(this, mDeck);
+        mCardScroller = new CardScrollView(this);
+        mCardScroller.setAdapter(mAdapter);
+        setContentView(mCardScroller);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mCardScroller.activate();
+
+        registerReceiver(mScanReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        // the results of the last scan of the system, while ours runs
+        showScanResults();
+        mUnchangedScans = 0;
+        mHandler.post(mScan);
+    }
+
+    @Override
+    protected void onPause() {
+        mCardScroller.deactivate();
+
+        // nobody to show the results to
+        mHandler.removeCallbacks(mScan);
+        unregisterReceiver(mScanReceiver);
+
+        super.onPause();
+    }
+
+    /**
+     * Merges the latest scan results into the deck, and redraws what changed
+     */
+    private void showScanResults() {
+        List<ScanResult> results = mWifiManager.getScanResults();
+        if (results == null) {
+            // WiFi is off
+            return;
+        }
+        List<AccessPoint> scan = new ArrayList<AccessPoint>(results.size());
+        for (ScanResult result : results) {
+            scan.add(new AccessPoint(result.SSID, result.BSSID, result.level, result.frequency, result.capabilities));
+        }
+
+        // the card being looked at, to stay on it whatever comes and goes before it; none before the first scan
+        int selectedPosition = mCardScroller.getSelectedItemPosition();
+        long selectedId = selectedPosition != AdapterView.INVALID_POSITION && selectedPosition < mDeck.size()
+                ? mAdapter.getItemId(selectedPosition) : -1;
+
+        ScanDeck.Changes changes = mDeck.update(scan);
+        if (changes.isEmpty()) {
+            mUnchangedScans++;
+            return;
+        }
+        if (mUnchangedScans >= mIdleAfterScans) {
+            // things are moving again: scan at the short interval
+            mHandler.removeCallbacks(mScan);
+            mHandler.postDelayed(mScan, mScanIntervalMs);
+        }
+        mUnchangedScans = 0;
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, String.format("%d access points: %d new, %d gone, %d changed",
+                    mDeck.size(), changes.added, changes.removed, changes.changed));
+        }
+
+        // the cards of unchanged access points are not bound again
+        mAdapter.notifyDataSetChanged();
+        if (changes.isStructural()) {
+            int position = selectedId != -1 ? mDeck.indexOf(selectedId) : -1;
+            if (position >= 0) {
+                mCardScroller.setSelection(position);
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.hackncheese.glassnetinfo;
+
+import android.content.Context;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.TextView;
+
+import com.google.android.glass.widget.CardBuilder;
+import com.google.android.glass.widget.CardScrollAdapter;
+import com.hackncheese.glassnetinfo.core.AccessPoint;
+import com.hackncheese.glassnetinfo.core.ScanDeck;
+
+/**
+ * Populates a {@code CardScrollView} with one card per access point of a {@link ScanDeck}
+ * <p/>
+ * Ids are stable (derived from the BSSID), so the view keeps the card being looked at when the
+ * deck changes, and a recycled card is only bound again if its access point looks different.
+ */
+public class ScanResultsAdapter extends CardScrollAdapter {
+
+    private static final int VIEW_TYPE_ACCESS_POINT = 0;
+    // shown while the first scan is running, or if nothing was found
+    private static final int VIEW_TYPE_EMPTY = 1;
+
+    private final Context mContext;
+    private final ScanDeck mDeck;
+
+    public ScanResultsAdapter(Context context, ScanDeck deck) {
+        mContext = context;
+        mDeck = deck;
+    }
+
+    @Override
+    public int getCount() {
+        return Math.max(mDeck.size(), 1);
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return mDeck.size() > 0 ? mDeck.get(position) : null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return mDeck.size() > 0 ? mDeck.get(position).getId() : -1;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    @Override
+    public int getPosition(Object item) {
+        if (item instanceof AccessPoint) {
+            return mDeck.indexOf(((AccessPoint) item).getId());
+        }
+        return AdapterView.INVALID_POSITION;
+    }
+
+    @Override
+    public int getItemViewType(int position) {
+        return mDeck.size() > 0 ? VIEW_TYPE_ACCESS_POINT : VIEW_TYPE_EMPTY;
+    }
+
+    @Override
+    public int getViewTypeCount() {
+        return 2;
+    }
+
+    @Override
+    public View getView(int position, View convertView, ViewGroup parent) {
+        if (mDeck.size() == 0) {
+            return new CardBuilder(mContext, CardBuilder.Layout.TEXT)
+                    .setText(R.string.scan_empty)
+                    .getView(convertView, parent);
+        }
+
+        View view;
+        ViewHolder holder;
+        if (convertView != null && convertView.getTag() instanceof ViewHolder) {
+            // recycle the card we already built, and its looked up rows
+            view = convertView;
+            holder = (ViewHolder) convertView.getTag();
+        } else {
+            view = new CardBuilder(mContext, CardBuilder.Layout.EMBED_INSIDE)
+                    .setEmbeddedLayout(R.layout.scan_result)
+                    .getView(convertView, parent);
+            holder = new ViewHolder(view);
+            view.setTag(holder);
+        }
+        holder.bind(mDeck.get(position));
+        return view;
+    }
+
+    /**
+     * The rows of a built card, looked up once, and the access point they show
+     */
+    private class ViewHolder {
+        final TextView ssid;
+        final TextView bssid;
+        final TextView signal;
+        final TextView channel;
+        final TextView security;
+        private AccessPoint mAccessPoint;
+
+        ViewHolder(View view) {
+            ssid = (TextView) view.findViewById(R.id.textViewScanSSID);
+            bssid = (TextView) view.findViewById(R.id.textViewScanBSSID);
+            signal = (TextView) view.findViewById(R.id.textViewScanSignal);
+            channel = (TextView) view.findViewById(R.id.textViewScanChannel);
+            security = (TextView) view.findViewById(R.id.textViewScanSecurity);
+        }
+
+        /**
+         * Shows an access point on the card
+         * Access points are immutable: the card is only touched if it gets one that looks different.
+         */
+        void bind(AccessPoint accessPoint) {
+            if (accessPoint.equals(mAccessPoint)) {
+                return;
+            }
+            mAccessPoint = accessPoint;
+
+            String name = accessPoint.getSsid();
+            if (name == null || name.isEmpty()) {
+                ssid.setText(R.string.scan_hidden_ssid);
+            } else {
+                ssid.setText(name);
+            }
+            bssid.setText(accessPoint.getBssid());
+            signal.setText(mContext.getString(R.string.scan_signal_value, accessPoint.getRssi()));
+            channel.setText(mContext.getString(R.string.scan_channel_value,
+                    accessPoint.getChannel(), accessPoint.getFrequency()));
+            security.setText(accessPoint.getSecurity());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.hackncheese.glassnetinfo;
+
+import android.content.Context;
+
+import com.hackncheese.glassnetinfo.core.IpInfo;
+import com.hackncheese.glassnetinfo.core.LocalAddresses;
+import com.hackncheese.glassnetinfo.core.Reachability;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Turns the results of a refresh into snapshots, published one after the other.
+ * <p/>
+ * The rules are shared by the card of {@link MainActivity} and the live card of {@link LiveCardService}:
+ * what to show when WiFi has no address, which tethering interface to show, and what to do
+ * at the end with what is still missing.
+ */
+abstract class SnapshotListener implements RefreshPipeline.Listener {
+
+    // the WiFi interface
+    private static final String WLAN_INTERFACE = "wlan0";
+
+    private final Context mContext;
+    private final AtomicReference<NetInfoSnapshot> mSnapshot;
+    private final SnapshotStore mSnapshotStore;
+    // false if only the local info is collected, or if the external IP came from the cache
+    private final boolean mLookupExternal;
+    // what the probe said, UNKNOWN until it did
+    private Reachability mReachability = Reachability.UNKNOWN;
+
+    /**
+     * @param snapshot       : the current snapshot, that each result is added to
+     * @param snapshotStore  : where a complete snapshot is saved, for the next launch
+     * @param lookupExternal : true if the refresh looks up the external IP
+     */
+    SnapshotListener(Context context, AtomicReference<NetInfoSnapshot> snapshot, SnapshotStore snapshotStore,
+                     boolean lookupExternal) {
+        mContext = context;
+        mSnapshot = snapshot;
+        mSnapshotStore = snapshotStore;
+        mLookupExternal = lookupExternal;
+    }
+
+    /**
+     * Makes a new snapshot the current one, and shows it
+     */
+    protected abstract void publish(NetInfoSnapshot snapshot);
+
+    boolean isLookingUpExternal() {
+        return mLookupExternal;
+    }
+
+    @Override
+    public void onLocalInfo(LocalAddresses addresses) {
+        NetInfoSnapshot snapshot = mSnapshot.get();
+
+        LocalAddresses.Interface wlan = addresses.getInterface(WLAN_INTERFACE);
+        if (wlan != null && wlan.ipv4 != null) {
+            // we have an IP address, use it
+            snapshot = snapshot.withWlanIP(wlan.ipv4);
+        } else {
+            // no IP address on wlan0, meaning we are not connected to WiFi
+            snapshot = snapshot.withWlanIP(mContext.getString(R.string.wlan_na));
+        }
+        snapshot = snapshot.withWlanIPv6(wlan != null && !wlan.ipv6.isEmpty() ? wlan.ipv6.get(0) : null)
+                .withGateway(addresses.getGateway());
+
+        // show the first tethering interface that has an address, if any
+        String tether = null;
+        for (LocalAddresses.Interface intf : addresses.getInterfaces()) {
+            if (!intf.name.equals(WLAN_INTERFACE) && intf.ipv4 != null) {
+                tether = mContext.getString(R.string.tether_value, intf.name, intf.ipv4);
+                break;
+            }
+        }
+        snapshot = snapshot.withTether(tether);
+
+        publish(snapshot);
+    }
+
+    @Override
+    public void onSsid(String ssid) {
+        // add the ssid we are connected to
+        publish(mSnapshot.get().withSsid(ssid));
+    }
+
+    @Override
+    public void onReachability(Reachability reachability) {
+        mReachability = reachability;
+        if (reachability.allowsLookups()) {
+            return;
+        }
+        // no lookup will be made: say why instead of the external IP, without what we knew last time
+        int state = reachability == Reachability.CAPTIVE ? R.string.reachability_captive : R.string.reachability_offline;
+        publish(mSnapshot.get().withoutStaleIpInfo().withExtIP(mContext.getString(state)));
+    }
+
+    @Override
+    public void onExternalIp(String ip) {
+        NetInfoSnapshot snapshot = mSnapshot.get();
+        NetInfoSnapshot.Value known = snapshot.getExtIP();
+        if (known != null && known.isStale() && !known.getText().equals(ip)) {
+            // another address than last time: its location is not ours anymore
+            snapshot = snapshot.withoutStaleIpInfo();
+        }
+        // add external ip to the snapshot, and show that we are looking for the provider
+        publish(snapshot.withExtIP(ip).withProvider(mContext.getString(R.string.retrieving)));
+    }
+
+    @Override
+    public void onIpInfo(IpInfo ipInfo) {
+        // add external ip, provider and location to the snapshot,
+        // without mixing them with what we knew last time
+        publish(mSnapshot.get().withoutStaleIpInfo().withIpInfo(ipInfo, System.currentTimeMillis(), false));
+    }
+
+    /**
+     * Saves the snapshot if it is complete, and fills in what is still missing
+     * Does nothing if the refresh did not look up the external IP, or skipped the lookups.
+     */
+    @Override
+    public void onFinished(boolean timedOut) {
+        if (!mLookupExternal || !mReachability.allowsLookups()) {
+            return;
+        }
+
+        NetInfoSnapshot snapshot = mSnapshot.get();
+        String retrieving = mContext.getString(R.string.retrieving);
+        if (snapshot.isComplete() && !snapshot.getProvider().getText().equals(retrieving)) {
+            // what the next launch shows until it knows better
+            mSnapshotStore.save(snapshot);
+        }
+
+        // whatever is still missing will not come; what we knew last time stays, with its age
+        String timeout = mContext.getString(R.string.http_response_timeout);
+        if (snapshot.getExtIP() == null) {
+            snapshot = snapshot.withExtIP(timeout);
+        }
+        if (snapshot.getProvider() == null || snapshot.getProvider().getText().equals(retrieving)) {
+            snapshot = snapshot.withProvider(timeout);
+        }
+        publish(snapshot);
+    }
+}
@@ -0,0 +1,158 @@
+package com.hackncheese.glassnetinfo;
+
+import android.util.Log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Remembers the last complete {@link NetInfoSnapshot}, so that a launch can show it right away,
+ * marked as out of date, while the refresh finds out what changed.
+ * <p/>
+ * The snapshot is saved to a small binary file, read with a single read the first time it is
+ * needed: a few hundred bytes, cheap enough to be read on the UI thread before the first draw.
+ * Saving is done on an executor.
+ */
+public class SnapshotStore {
+
+    // for logs
+    private static final String TAG = SnapshotStore.class.getSimpleName();
+
+    // bump when the file format changes, older files are then ignored
+    private static final int FILE_VERSION = 1;
+    // a snapshot is a few hundred bytes, anything bigger is not ours
+    private static final int MAX_FILE_SIZE = 16 * 1024;
+
+    private final File mFile;
+    private final Executor mExecutor;
+    // saves may overlap on the executor
+    private final Object mWriteLock = new Object();
+    private NetInfoSnapshot mLastKnown;
+    private boolean mLoaded;
+
+    /**
+     * @param file     : where the snapshot is saved
+     * @param executor : where the file is written
+     */
+    public SnapshotStore(File file, Executor executor) {
+        mFile = file;
+        mExecutor = executor;
+    }
+
+    /**
+     * @return the last complete snapshot, all its values marked as out of date, or null if none
+     */
+    public synchronized NetInfoSnapshot getLastKnown() {
+        if (!mLoaded) {
+            mLoaded = true;
+            mLastKnown = load();
+        }
+        return mLastKnown;
+    }
+
+    /**
+     * Remembers a complete snapshot, and saves it in the background
+     */
+    public synchronized void save(NetInfoSnapshot snapshot) {
+        mLoaded = true;
+        mLastKnown = snapshot.asStale();
+
+        // serialized now, the file is only written in the background
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(FILE_VERSION);
+            snapshot.writeTo(out);
+            out.flush();
+        } catch (IOException e) {
+            // cannot happen in memory
+            return;
+        }
+        final byte[] data = bytes.toByteArray();
+
+        try {
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(data);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // saved after the next refresh
+        }
+    }
+
+    private NetInfoSnapshot load() {
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(mFile, "r");
+            long length = file.length();
+            if (length > MAX_FILE_SIZE) {
+                return null;
+            }
+            // one read for the whole file, then parse from memory
+            byte[] data = new byte[(int) length];
+            file.readFully(data);
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            if (in.readInt() != FILE_VERSION) {
+                return null;
+            }
+            return NetInfoSnapshot.readFrom(in);
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+            return null;
+        } catch (IOException e) {
+            Log.e(TAG, "could not read the last snapshot", e);
+            return null;
+        } finally {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
+    private void write(byte[] data) {
+        synchronized (mWriteLock) {
+            writeAtomically(data);
+        }
+    }
+
+    private void writeAtomically(byte[] data) {
+        // write aside, then rename: a crash while writing cannot leave a truncated snapshot
+        File tmp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = null;
+        try {
+            out = new FileOutputStream(tmp);
+            out.write(data);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(mFile)) {
+                Log.e(TAG, "could not save the snapshot");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "could not save the snapshot", e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package com.hackncheese.glassnetinfo;
+
+import android.app.Activity;
+import android.content.Context;
+import android.media.AudioManager;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Process;
+import android.util.Log;
+import android.view.KeyEvent;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+
+import com.google.android.glass.media.Sounds;
+import com.google.android.glass.widget.CardBuilder;
+import com.google.android.glass.widget.CardScrollAdapter;
+import com.google.android.glass.widget.CardScrollView;
+import com.google.android.glass.widget.Slider;
+import com.hackncheese.glassnetinfo.core.Deadline;
+import com.hackncheese.glassnetinfo.core.ThroughputMeter;
+import com.hackncheese.glassnetinfo.core.ThroughputTest;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Measures the download throughput, to tell whether the network can keep up with video
+ * The test starts when the activity is shown and stops when it is left; tap to run it again.
+ * The estimate shows as it evolves, the slider tells how long the test can still run.
+ */
+public class ThroughputActivity extends Activity {
+
+    // for logs
+    private static final String TAG = ThroughputActivity.class.getSimpleName();
+
+    private CardScrollView mCardScroller;
+    // built once, its text changes with each sample
+    private CardBuilder mCard;
+    private View mView;
+    private Slider mSlider;
+    private Slider.Determinate mProgress;
+    private final Handler mHandler = new Handler();
+
+    private ThroughputTest mTest;
+    private long mMaxDurationMs;
+    // runs the tests one after the other: a stopped one is done before the next one starts
+    private ExecutorService mExecutor;
+    // the number of the last test started, and whether it is running
+    private int mRun;
+    private boolean mRunning;
+
+    // the last estimate, written by the thread of the test, and when the test started
+    private volatile double mMbps;
+    private volatile long mTotalBytes;
+    private long mStartMs;
+    // the outcome of the last test, null while it runs; or why it failed
+    private ThroughputTest.Result mResult;
+    private IOException mFailure;
+
+    /**
+     * Shows the last estimate, posted after each sample
+     */
+    private final Runnable mShowSample = new Runnable() {
+        @Override
+        public void run() {
+            if (mProgress != null) {
+                mProgress.setPosition(System.currentTimeMillis() - mStartMs);
+            }
+            updateView();
+        }
+    };
+
+    private final ThroughputTest.Listener mListener = new ThroughputTest.Listener() {
+        @Override
+        public void onSample(double mbps, long totalBytes) {
+            // on the thread of the test: no allocation, only the latest estimate is shown
+            mMbps = mbps;
+            mTotalBytes = totalBytes;
+            mHandler.removeCallbacks(mShowSample);
+            mHandler.post(mShowSample);
+        }
+    };
+
+    @Override
+    protected void onCreate(Bundle bundle) {
+        super.onCreate(bundle);
+
+        mMaxDurationMs = getResources().getInteger(R.integer.throughput_max_duration_ms);
+        // one buffer and one meter, reused by every run
+        mTest = new ThroughputTest(((NetInfoApplication) getApplication()).getHttpClient(),
+                getString(R.string.url_throughput_test),
+                getResources().getInteger(R.integer.throughput_buffer_bytes),
+                new ThroughputMeter(getResources().getInteger(R.integer.throughput_sample_interval_ms),
+                        getResources().getInteger(R.integer.throughput_window_samples),
+                        getResources().getInteger(R.integer.throughput_stable_spread_percent)));
+        mTest.setListener(mListener);
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        // the measurement must not fight the UI for the CPU, nor the other way around
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }
+                }, "throughput-test");
+            }
+        });
+
+        mCard = new CardBuilder(this, CardBuilder.Layout.TEXT);
+        mCardScroller = new CardScrollView(this);
+        mView = mCard.getView();
+        mCardScroller.setAdapter(new CardScrollAdapter() {
+            @Override
+            public int getCount() {
+                return 1;
+            }
+
+            @Override
+            public Object getItem(int position) {
+                return mView;
+            }
+
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                return mView;
+            }
+
+            @Override
+            public int getPosition(Object item) {
+                if (mView.equals(item)) {
+                    return 0;
+                }
+                return AdapterView.INVALID_POSITION;
+            }
+        });
+        setContentView(mCardScroller);
+        mSlider = Slider.from(mCardScroller);
+    }
+
+    @Override
+    public boolean onKeyDown(int keyCode, KeyEvent event) {
+        if (keyCode == KeyEvent.KEYCODE_DPAD_CENTER) {
+            // run it again, to compare
+            startTest();
+            return true;
+        }
+        return super.onKeyDown(keyCode, event);
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        mCardScroller.activate();
+        startTest();
+    }
+
+    @Override
+    protected void onPause() {
+        mCardScroller.deactivate();
+        // nobody to show the results to, and the network is someone else's now
+        stopTest();
+        super.onPause();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mExecutor.shutdown();
+        super.onDestroy();
+    }
+
+    /**
+     * Starts a test, unless one is running
+     */
+    private void startTest() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        final int run = ++mRun;
+        mResult = null;
+        mFailure = null;
+        mMbps = 0;
+        mTotalBytes = 0;
+        mStartMs = System.currentTimeMillis();
+        mProgress = mSlider.startDeterminate((int) mMaxDurationMs, 0);
+        updateView();
+
+        final Deadline deadline = Deadline.in(mMaxDurationMs);
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                ThroughputTest.Result result = null;
+                IOException failure = null;
+                try {
+                    result = mTest.run(deadline);
+                } catch (IOException e) {
+                    failure = e;
+                }
+                final ThroughputTest.Result finalResult = result;
+                final IOException finalFailure = failure;
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        finishTest(run, finalResult, finalFailure);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Stops the running test, if any
+     */
+    private void stopTest() {
+        if (!mRunning) {
+            return;
+        }
+        mTest.cancel();
+        mRunning = false;
+        // its outcome is not wanted anymore
+        mRun++;
+        mHandler.removeCallbacks(mShowSample);
+        hideProgress();
+    }
+
+    /**
+     * Shows the outcome of a test
+     * Does nothing if the test was stopped, its outcome is not wanted anymore.
+     */
+    private void finishTest(int run, ThroughputTest.Result result, IOException failure) {
+        if (run != mRun) {
+            return;
+        }
+        mRunning = false;
+        mHandler.removeCallbacks(mShowSample);
+        hideProgress();
+        mResult = result;
+        mFailure = failure;
+        if (result != null) {
+            Log.i(TAG, String.format("%.1f Mbit/s (%.1f on average), %d bytes in %d ms, %s",
+                    result.mbps, result.averageMbps, result.totalBytes, result.durationMs, result.end));
+        } else {
+            Log.w(TAG, "throughput test failed", failure);
+        }
+        updateView();
+
+        AudioManager am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
+        am.playSoundEffect(result != null ? Sounds.SUCCESS : Sounds.ERROR);
+    }
+
+    private void hideProgress() {
+        if (mProgress != null) {
+            mProgress.hide();
+            mProgress = null;
+        }
+    }
+
+    /**
+     * Shows the estimate on the card, as it evolves or once the test is done
+     * The view of the card is bound again in place, not inflated for each sample.
+     */
+    private void updateView() {
+        if (mFailure != null) {
+            mCard.setText(getString(R.string.throughput_failed))
+                    .setFootnote(String.valueOf(mFailure.getMessage()));
+        } else if (mResult != null) {
+            mCard.setText(getString(R.string.throughput_mbps, mResult.mbps))
+                    .setFootnote(getString(R.string.throughput_done, getEndLabel(mResult.end),
+                            mResult.totalBytes / 1e6, mResult.durationMs / 1000.0, mResult.averageMbps));
+        } else if (mTotalBytes == 0) {
+            mCard.setText(getString(R.string.throughput_starting))
+                    .setFootnote("");
+        } else {
+            mCard.setText(getString(R.string.throughput_mbps, mMbps))
+                    .setFootnote(getString(R.string.throughput_running, mTotalBytes / 1e6));
+        }
+        View view = mCard.getView(mView, mCardScroller);
+        if (view != mView) {
+            mView = view;
+            mCardScroller.getAdapter().notifyDataSetChanged();
+        }
+    }
+
+    private String getEndLabel(ThroughputTest.End end) {
+        switch (end) {
+            case STABLE:
+                return getString(R.string.throughput_end_stable);
+            case COMPLETE:
+                return getString(R.string.throughput_end_complete);
+            case TIME_UP:
+                return getString(R.string.throughput_end_time_up);
+            case FAILED:
+                return getString(R.string.throughput_end_failed);
+            default:
+                return getString(R.string.throughput_end_cancelled);
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package com.hackncheese.glassnetinfo;
 
 import android.app.Activity;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.media.AudioManager;
+import android.net.NetworkInfo;
+import android.net.wifi.SupplicantState;
+import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 import android.view.KeyEvent;
 import android.view.Menu;
@@ -20,10 +27,19 @@ import com.google.android.glass.widget.CardBuilder;
 import com.google.android.glass.widget.CardScrollAdapter;
 import com.google.android.glass.widget.CardScrollView;
 import com.google.android.glass.widget.Slider;
+import com.hackncheese.glassnetinfo.core.IpInfo;
+import com.hackncheese.glassnetinfo.core.Reachability;
+import com.hackncheese.glassnetinfo.core.ReconnectTracker;
+import com.hackncheese.glassnetinfo.core.RefreshCoordinator;
+import com.hackncheese.glassnetinfo.core.SsidUtils;
+
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Toggles the WiFi state
- * Shows a grace period slider before enabling/disabling WiFi
+ * Shows a grace period slider before enabling/disabling WiFi, then follows WiFi through each phase
+ * (radio, association, DHCP, internet) as told by the WiFi broadcasts, with how long each one took.
+ * Once the network is back, the network info is refreshed, which tells when the internet answers.
  */
 public class ToggleWifiActivity extends Activity {
 
@@ -41,7 +57,7 @@ public class ToggleWifiActivity extends Activity {
         public void onGracePeriodEnd() {
             mGracePeriod = null;
             toggleWifiState();
-            mView = buildView();
+            updateView();
             mCardScroller.getAdapter().notifyDataSetChanged();
             // Play a SUCCESS sound to indicate the end of the grace period.
             AudioManager am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
@@ -51,8 +67,7 @@ public class ToggleWifiActivity extends Activity {
         @Override
         public void onGracePeriodCancel() {
             mGracePeriod = null;
-            mView = buildView();
-            mCardScroller.getAdapter().notifyDataSetChanged();
+            updateView();
             // Play a DISMISS sound to indicate the cancellation of the grace period.
             AudioManager am = (AudioManager) getSystemService(Context.AUDIO_SERVICE);
             am.playSoundEffect(Sounds.DISMISSED);
@@ -62,6 +77,52 @@ public class ToggleWifiActivity extends Activity {
     //current WiFi state : true = enabled, false = disabled
     private boolean wifiState;
 
+    // the phases of the last toggle, and how long they took
+    private ReconnectTracker mTracker;
+    // gets the results of the refresh that followed the network coming back, if running
+    private ReconnectListener mRefreshListener;
+
+    /**
+     * Moves the tracker along as WiFi goes through its phases
+     */
+    private final BroadcastReceiver mWifiReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            String action = intent.getAction();
+            long now = SystemClock.elapsedRealtime();
+            if (WifiManager.WIFI_STATE_CHANGED_ACTION.equals(action)) {
+                int state = intent.getIntExtra(WifiManager.EXTRA_WIFI_STATE, WifiManager.WIFI_STATE_UNKNOWN);
+                if (state == WifiManager.WIFI_STATE_ENABLED) {
+                    wifiState = true;
+                    reach(ReconnectTracker.Phase.RADIO_ON, now);
+                } else if (state == WifiManager.WIFI_STATE_DISABLED) {
+                    wifiState = false;
+                    if (!reach(ReconnectTracker.Phase.OFF, now) && mTracker.isTracking()) {
+                        // turned off while coming up: it will not get anywhere
+                        mTracker.cancel();
+                        updateView();
+                    }
+                }
+            } else if (WifiManager.SUPPLICANT_STATE_CHANGED_ACTION.equals(action)) {
+                SupplicantState state = intent.getParcelableExtra(WifiManager.EXTRA_NEW_STATE);
+                if (state == SupplicantState.COMPLETED) {
+                    WifiInfo info = ((WifiManager) getSystemService(WIFI_SERVICE)).getConnectionInfo();
+                    if (info != null) {
+                        mTracker.setAccessPoint(getString(R.string.toggle_wifi_access_point,
+                                SsidUtils.unquote(info.getSSID()), info.getBSSID()));
+                    }
+                    reach(ReconnectTracker.Phase.ASSOCIATED, now);
+                }
+            } else if (WifiManager.NETWORK_STATE_CHANGED_ACTION.equals(action)) {
+                NetworkInfo info = intent.getParcelableExtra(WifiManager.EXTRA_NETWORK_INFO);
+                // WiFi is only reported connected once DHCP gave us an address
+                if (info != null && info.isConnected() && reach(ReconnectTracker.Phase.CONNECTED, now)) {
+                    refreshNetworkInfo();
+                }
+            }
+        }
+    };
+
     @Override
     protected void onCreate(Bundle bundle) {
         super.onCreate(bundle);
@@ -72,6 +133,7 @@ public class ToggleWifiActivity extends Activity {
         // get the current WiFi state
         WifiManager wifiManager = (WifiManager) getSystemService(WIFI_SERVICE);
         wifiState = wifiManager.isWifiEnabled();
+        mTracker = new ReconnectTracker(wifiState ? ReconnectTracker.Phase.ONLINE : ReconnectTracker.Phase.OFF);
 
         mCardScroller = new CardScrollView(this);
         mCardScroller.setAdapter(new CardScrollAdapter() {
@@ -105,6 +167,24 @@ public class ToggleWifiActivity extends Activity {
         mGracePeriod = mSlider.startGracePeriod(mGracePeriodListener);
 
         mView = buildView();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(WifiManager.WIFI_STATE_CHANGED_ACTION);
+        filter.addAction(WifiManager.SUPPLICANT_STATE_CHANGED_ACTION);
+        filter.addAction(WifiManager.NETWORK_STATE_CHANGED_ACTION);
+        // until the activity is destroyed, so that phases are not missed while the menu is open
+        registerReceiver(mWifiReceiver, filter);
+    }
+
+    @Override
+    protected void onDestroy() {
+        unregisterReceiver(mWifiReceiver);
+        if (mRefreshListener != null) {
+            // aborted only if nobody else waits for it
+            getRefreshPipeline().leave(mRefreshListener);
+            mRefreshListener = null;
+        }
+        super.onDestroy();
     }
 
     @Override
@@ -171,8 +251,7 @@ public class ToggleWifiActivity extends Activity {
                 case R.id.tw_toggle_wifi:
                     // we start a grace period
                     mGracePeriod = Slider.from(mCardScroller).startGracePeriod(mGracePeriodListener);
-                    mView = buildView();
-                    mCardScroller.getAdapter().notifyDataSetChanged();
+                    updateView();
                     break;
                 case R.id.tw_close_activity:
                     // we go back to the previous activity (if any)
@@ -181,8 +260,7 @@ public class ToggleWifiActivity extends Activity {
                 case R.id.tw_cancel_toggle:
                     // cancel toggle = cancel grace period
                     mGracePeriod.cancel();
-                    mView = buildView();
-                    mCardScroller.getAdapter().notifyDataSetChanged();
+                    updateView();
                     break;
             }
             return true;
@@ -224,14 +302,92 @@ public class ToggleWifiActivity extends Activity {
      */
     private void toggleWifiState() {
         WifiManager wifiManager = (WifiManager) getSystemService(WIFI_SERVICE);
-        wifiState = !wifiManager.isWifiEnabled();
-        wifiManager.setWifiEnabled(wifiState);
+        boolean enable = !wifiManager.isWifiEnabled();
+        mTracker = new ReconnectTracker(mTracker.getPhase());
+        mTracker.start(enable, SystemClock.elapsedRealtime());
+        if (!wifiManager.setWifiEnabled(enable)) {
+            Log.e(TAG, "could not toggle WiFi");
+            mTracker.cancel();
+        }
+    }
+
+    /**
+     * Moves the tracker to a phase, and shows it
+     *
+     * @return true if the tracker moved
+     */
+    private boolean reach(ReconnectTracker.Phase phase, long nowMs) {
+        if (!mTracker.reach(phase, nowMs)) {
+            return false;
+        }
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, String.format("%s after %d ms", phase.getLabel(), mTracker.getDurationMs(phase)));
+        }
+        if (!mTracker.isTracking()) {
+            // done: keep it for the diagnostics card, to compare access points
+            ((NetInfoApplication) getApplication()).addReconnect(mTracker);
+            if (BuildConfig.DEBUG) {
+                Log.i(TAG, String.format("toggle to %s took %d ms (%s)", phase.getLabel(),
+                        mTracker.getElapsedMs(nowMs), mTracker.getAccessPoint()));
+            }
+        }
+        updateView();
+        return true;
+    }
+
+    /**
+     * Refreshes the network info now that the network is back, or joins the refresh already running
+     * The external IP answering tells us the internet is reachable. What the refresh finds is saved
+     * for the cards, as if they had asked for it.
+     */
+    private void refreshNetworkInfo() {
+        RefreshPipeline pipeline = getRefreshPipeline();
+        if (mRefreshListener != null) {
+            pipeline.leave(mRefreshListener);
+        }
+
+        RefreshCoordinator.Generation generation = getRefreshCoordinator().startOrJoin();
+        if (generation == null) {
+            mRefreshListener = new ReconnectListener(pipeline.isLookingUpExternal());
+            if (!pipeline.join(mRefreshListener)) {
+                mRefreshListener = null;
+            }
+            return;
+        }
+        mRefreshListener = new ReconnectListener(true);
+        NetworkIdentity identity = NetworkIdentity.current((WifiManager) getSystemService(WIFI_SERVICE));
+        pipeline.start(generation, identity, true, mRefreshListener);
+    }
+
+    private RefreshCoordinator getRefreshCoordinator() {
+        return ((NetInfoApplication) getApplication()).getRefreshCoordinator();
+    }
+
+    private RefreshPipeline getRefreshPipeline() {
+        return ((NetInfoApplication) getApplication()).getRefreshPipeline();
+    }
+
+    /**
+     * @return the last complete snapshot, what the refresh adds its results to
+     */
+    private NetInfoSnapshot lastKnownSnapshot() {
+        NetInfoSnapshot lastKnown = ((NetInfoApplication) getApplication()).getSnapshotStore().getLastKnown();
+        return lastKnown != null ? lastKnown : NetInfoSnapshot.EMPTY;
+    }
+
+    private void updateView() {
+        mView = buildView();
+        mCardScroller.getAdapter().notifyDataSetChanged();
     }
 
     /**
      * Builds a Glass styled view showing the WiFi state.
      */
     private View buildView() {
+        if (mGracePeriod == null && mTracker.hasStarted()) {
+            return buildPhasesView();
+        }
+
         CardBuilder card = new CardBuilder(this, CardBuilder.Layout.MENU);
 
         String txt;
@@ -254,4 +410,88 @@ public class ToggleWifiActivity extends Activity {
         return card.getView();
     }
 
+    /**
+     * Builds a view showing the phases WiFi went through since the toggle, and how long each took
+     */
+    private View buildPhasesView() {
+        StringBuilder sb = new StringBuilder();
+        for (ReconnectTracker.Phase phase : ReconnectTracker.Phase.values()) {
+            long durationMs = mTracker.getDurationMs(phase);
+            if (durationMs >= 0) {
+                sb.append(getString(R.string.toggle_wifi_phase, phase.getLabel(), durationMs)).append('\n');
+            }
+        }
+
+        String footnote;
+        long elapsedMs = mTracker.getElapsedMs(SystemClock.elapsedRealtime());
+        if (mTracker.isTracking()) {
+            footnote = getString(R.string.toggle_wifi_in_progress, elapsedMs);
+        } else if (mTracker.getPhase() == ReconnectTracker.Phase.ONLINE
+                || mTracker.getPhase() == ReconnectTracker.Phase.OFF) {
+            footnote = getString(R.string.toggle_wifi_done, elapsedMs);
+        } else {
+            footnote = getString(R.string.toggle_wifi_stuck, mTracker.getPhase().getLabel());
+        }
+
+        return new CardBuilder(this, CardBuilder.Layout.TEXT)
+                .setText(sb)
+                .setFootnote(footnote)
+                .getView();
+    }
+
+    /**
+     * Tells when the internet answers, and keeps what the refresh finds like the cards do
+     */
+    private class ReconnectListener extends SnapshotListener {
+        // nothing shows it here: it is only saved once complete
+        private final AtomicReference<NetInfoSnapshot> mSnapshot;
+
+        ReconnectListener(boolean lookupExternal) {
+            this(new AtomicReference<NetInfoSnapshot>(lastKnownSnapshot()), lookupExternal);
+        }
+
+        private ReconnectListener(AtomicReference<NetInfoSnapshot> snapshot, boolean lookupExternal) {
+            super(ToggleWifiActivity.this, snapshot,
+                    ((NetInfoApplication) getApplication()).getSnapshotStore(), lookupExternal);
+            mSnapshot = snapshot;
+        }
+
+        @Override
+        protected void publish(NetInfoSnapshot snapshot) {
+            mSnapshot.set(snapshot);
+        }
+
+        @Override
+        public void onReachability(Reachability reachability) {
+            super.onReachability(reachability);
+            if (reachability == Reachability.ONLINE) {
+                reach(ReconnectTracker.Phase.ONLINE, SystemClock.elapsedRealtime());
+            }
+        }
+
+        @Override
+        public void onExternalIp(String ip) {
+            super.onExternalIp(ip);
+            reach(ReconnectTracker.Phase.ONLINE, SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public void onIpInfo(IpInfo ipInfo) {
+            super.onIpInfo(ipInfo);
+            reach(ReconnectTracker.Phase.ONLINE, SystemClock.elapsedRealtime());
+        }
+
+        @Override
+        public void onFinished(boolean timedOut) {
+            super.onFinished(timedOut);
+            if (mRefreshListener == this) {
+                mRefreshListener = null;
+            }
+            if (mTracker.isTracking()) {
+                // connected, but the internet did not answer
+                mTracker.cancel();
+                updateView();
+            }
+        }
+    }
 }
@@ -0,0 +1,79 @@
+package com.hackncheese.glassnetinfo.benchmarks;
+
+import com.hackncheese.glassnetinfo.core.IpAddressUtils;
+import com.hackncheese.glassnetinfo.core.IpInfo;
+import com.hackncheese.glassnetinfo.core.IpInfoParser;
+import com.hackncheese.glassnetinfo.core.NetInfoHttpClient;
+import com.hackncheese.glassnetinfo.core.RefreshTimings;
+import com.hackncheese.glassnetinfo.core.StubHttpServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The lookups of a refresh against a local stub server, over a kept-alive connection.
+ * This measures what the client adds on top of the network, not the network itself.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FetchBenchmark {
+
+    private static final NetInfoHttpClient.Validator IS_IP = new NetInfoHttpClient.Validator() {
+        @Override
+        public boolean isValid(String body) {
+            return IpAddressUtils.isIPAddress(body);
+        }
+    };
+
+    private StubHttpServer mServer;
+    private NetInfoHttpClient mClient;
+    private String[] mIpUrls;
+    private String mJsonUrl;
+
+    @Setup
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mServer.answer("/ip", 200, "text/plain", "203.0.113.7\n");
+        mServer.answer("/json", 200, "application/json",
+                "{\"ip\":\"203.0.113.7\",\"city\":\"Paris\",\"country\":\"FR\",\"org\":\"AS3215 Orange\"}");
+        mClient = new NetInfoHttpClient(new RefreshTimings());
+        mIpUrls = new String[]{mServer.url("/ip"), mServer.url("/ip")};
+        mJsonUrl = mServer.url("/json");
+    }
+
+    @TearDown
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Benchmark
+    public String fetchExternalIp() throws IOException {
+        return mClient.fetch(mIpUrls[0]);
+    }
+
+    @Benchmark
+    public String fetchFirstHedged() throws IOException {
+        return mClient.fetchFirst(mIpUrls, 300, IS_IP);
+    }
+
+    @Benchmark
+    public IpInfo fetchIpInfo() throws IOException {
+        return mClient.fetch(mJsonUrl, new IpInfoParser());
+    }
+}
@@ -0,0 +1,88 @@
+package com.hackncheese.glassnetinfo.benchmarks;
+
+import com.hackncheese.glassnetinfo.core.IpAddressUtils;
+import com.hackncheese.glassnetinfo.core.IpInfo;
+import com.hackncheese.glassnetinfo.core.IpInfoParser;
+import com.hackncheese.glassnetinfo.core.ProcNetParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import okio.Buffer;
+
+/**
+ * The parsing done on each refresh, on canned input: no I/O is measured here.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParsingBenchmark {
+
+    private static final String IPINFO_ANSWER = "{\n"
+            + "  \"ip\": \"8.8.8.8\",\n"
+            + "  \"hostname\": \"google-public-dns-a.google.com\",\n"
+            + "  \"city\": \"Mountain View\",\n"
+            + "  \"region\": \"California\",\n"
+            + "  \"country\": \"US\",\n"
+            + "  \"loc\": \"37.3860,-122.0838\",\n"
+            + "  \"org\": \"AS15169 Google Inc.\",\n"
+            + "  \"postal\": \"94035\"\n"
+            + "}";
+
+    private static final String PROC_NET_ROUTE =
+            "Iface\tDestination\tGateway \tFlags\tRefCnt\tUse\tMetric\tMask\t\tMTU\tWindow\tIRTT\n"
+                    + "wlan0\t0001A8C0\t00000000\t0001\t0\t0\t0\t00FFFFFF\t0\t0\t0\n"
+                    + "bnep0\t00000000\t012CA8C0\t0003\t0\t0\t10\t00000000\t0\t0\t0\n"
+                    + "wlan0\t00000000\t0101A8C0\t0003\t0\t0\t0\t00000000\t0\t0\t0\n";
+
+    private static final String PROC_NET_IF_INET6 =
+            "00000000000000000000000000000001 01 80 10 80       lo\n"
+                    + "fe80000000000000021a11fffe00e3a7 05 40 20 80    wlan0\n"
+                    + "2a0104f8000000000000000000000abc 05 40 00 00    wlan0\n";
+
+    private final IpInfoParser mParser = new IpInfoParser();
+    private final Buffer mBody = new Buffer();
+
+    @Benchmark
+    public IpInfo parseIpInfo() throws IOException {
+        mBody.writeUtf8(IPINFO_ANSWER);
+        return mParser.read(mBody);
+    }
+
+    @Benchmark
+    public boolean validateIPv4() {
+        return IpAddressUtils.isIPAddress("192.168.100.254");
+    }
+
+    @Benchmark
+    public boolean validateIPv6() {
+        return IpAddressUtils.isIPAddress("2a01:4f8:0:a0a1::abc");
+    }
+
+    @Benchmark
+    public ProcNetParser.Route parseDefaultRoute() throws IOException {
+        return ProcNetParser.parseDefaultRoute(new BufferedReader(new StringReader(PROC_NET_ROUTE)));
+    }
+
+    @Benchmark
+    public Map<String, List<String>> parseIPv6Addresses() throws IOException {
+        return ProcNetParser.parseIPv6Addresses(new BufferedReader(new StringReader(PROC_NET_IF_INET6)));
+    }
+}
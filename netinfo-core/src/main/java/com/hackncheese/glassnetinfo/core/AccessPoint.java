@@ -0,0 +1,162 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * An access point seen by a WiFi scan
+ * Immutable: two scans of an access point that did not change give equal objects.
+ * The signal is compared by steps of {@link #SIGNAL_STEP_DB}: it jitters by a dB or two from one
+ * scan to the next, which is no reason to redraw a card.
+ */
+public final class AccessPoint {
+
+    // the signal steps access points are compared by, in dB
+    static final int SIGNAL_STEP_DB = 5;
+
+    private final long mId;
+    private final String mSsid;
+    private final String mBssid;
+    private final int mRssi;
+    private final int mFrequency;
+    private final String mSecurity;
+
+    /**
+     * @param ssid         : the network name, null or empty if hidden
+     * @param bssid        : the MAC address of the access point, like "00:11:22:aa:bb:cc"
+     * @param rssi         : the signal level, in dBm
+     * @param frequency    : the frequency of the channel, in MHz
+     * @param capabilities : the capabilities of the access point, like "[WPA2-PSK-CCMP][ESS]"
+     */
+    public AccessPoint(String ssid, String bssid, int rssi, int frequency, String capabilities) {
+        mId = parseBssid(bssid);
+        mSsid = ssid;
+        mBssid = bssid;
+        mRssi = rssi;
+        mFrequency = frequency;
+        mSecurity = parseSecurity(capabilities);
+    }
+
+    /**
+     * @return an id derived from the BSSID, the same from one scan to the next
+     */
+    public long getId() {
+        return mId;
+    }
+
+    public String getSsid() {
+        return mSsid;
+    }
+
+    public String getBssid() {
+        return mBssid;
+    }
+
+    public int getRssi() {
+        return mRssi;
+    }
+
+    /**
+     * @return the signal level rounded to a step of {@link #SIGNAL_STEP_DB}, in steps
+     */
+    public int getSignalLevel() {
+        return Math.round(mRssi / (float) SIGNAL_STEP_DB);
+    }
+
+    public int getFrequency() {
+        return mFrequency;
+    }
+
+    /**
+     * @return the channel number, or 0 if the frequency is not a known WiFi channel
+     */
+    public int getChannel() {
+        return channelOf(mFrequency);
+    }
+
+    /**
+     * @return the strongest security the access point offers: "WPA2", "WPA", "WEP" or "open",
+     * with "EAP" appended for enterprise networks
+     */
+    public String getSecurity() {
+        return mSecurity;
+    }
+
+    /**
+     * @param frequency : in MHz
+     * @return the channel number, or 0 if the frequency is not a known WiFi channel
+     */
+    static int channelOf(int frequency) {
+        if (frequency == 2484) {
+            // Japan only, out of the 5 MHz spacing
+            return 14;
+        } else if (frequency >= 2412 && frequency < 2484) {
+            return (frequency - 2407) / 5;
+        } else if (frequency >= 4915 && frequency <= 5825) {
+            return (frequency - 5000) / 5;
+        }
+        return 0;
+    }
+
+    private static String parseSecurity(String capabilities) {
+        if (capabilities == null) {
+            return "open";
+        }
+        String security;
+        if (capabilities.contains("WPA2") || capabilities.contains("RSN")) {
+            security = "WPA2";
+        } else if (capabilities.contains("WPA")) {
+            security = "WPA";
+        } else if (capabilities.contains("WEP")) {
+            security = "WEP";
+        } else {
+            return "open";
+        }
+        return capabilities.contains("EAP") ? security + " EAP" : security;
+    }
+
+    /**
+     * @return the 48 bits of the MAC address, or the hash of the string if it is not one
+     */
+    private static long parseBssid(String bssid) {
+        if (bssid == null) {
+            return 0;
+        }
+        long id = 0;
+        int digits = 0;
+        for (int i = 0; i < bssid.length(); i++) {
+            int digit = Character.digit(bssid.charAt(i), 16);
+            if (digit >= 0) {
+                id = (id << 4) | digit;
+                digits++;
+            } else if (bssid.charAt(i) != ':') {
+                return bssid.hashCode();
+            }
+        }
+        return digits == 12 ? id : bssid.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof AccessPoint)) {
+            return false;
+        }
+        AccessPoint other = (AccessPoint) o;
+        return mId == other.mId && getSignalLevel() == other.getSignalLevel() && mFrequency == other.mFrequency
+                && equal(mSsid, other.mSsid) && equal(mBssid, other.mBssid) && mSecurity.equals(other.mSecurity);
+    }
+
+    private static boolean equal(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    @Override
+    public int hashCode() {
+        return (int) (mId ^ (mId >>> 32)) * 31 + getSignalLevel();
+    }
+
+    @Override
+    public String toString() {
+        return mBssid + " (" + mSsid + ") " + mRssi + " dBm";
+    }
+}
@@ -0,0 +1,130 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import okio.BufferedSource;
+
+/**
+ * Reads a short text answer, like an IP address or a provider name, without trusting its size.
+ * <p/>
+ * The body is streamed into a small buffer, reused from one call to the next on a thread, and is
+ * checked as it arrives: past the byte cap, or at the first byte that cannot belong to a valid
+ * answer, the rest is not read and the answer is rejected. A captive portal returning a big HTML
+ * page instead of our IP address costs a few bytes, not the whole page.
+ */
+public class BoundedBodyReader implements NetInfoHttpClient.BodyReader<String> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final int mMaxBytes;
+    // true if only an IPv4 or IPv6 literal is acceptable, false for any text but markup
+    private final boolean mIpAddress;
+    private final ThreadLocal<byte[]> mBuffer = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[mMaxBytes];
+        }
+    };
+
+    private BoundedBodyReader(int maxBytes, boolean ipAddress) {
+        mMaxBytes = maxBytes;
+        mIpAddress = ipAddress;
+    }
+
+    /**
+     * @param maxBytes : the size of the biggest acceptable answer, whitespace included
+     * @return a reader that only accepts an IPv4 or IPv6 literal, surrounded by whitespace or not,
+     * and returns it without the whitespace
+     */
+    public static BoundedBodyReader ipAddress(int maxBytes) {
+        return new BoundedBodyReader(maxBytes, true);
+    }
+
+    /**
+     * @param maxBytes : the size of the biggest acceptable answer
+     * @return a reader that accepts any text that does not start with markup, and returns it as is
+     */
+    public static BoundedBodyReader text(int maxBytes) {
+        return new BoundedBodyReader(maxBytes, false);
+    }
+
+    /**
+     * @throws InvalidResponseException if the body is too big, or not what the reader accepts
+     */
+    @Override
+    public String read(BufferedSource source) throws IOException {
+        byte[] buffer = mBuffer.get();
+        int length = 0;
+
+        while (true) {
+            int count = source.read(buffer, length, buffer.length - length);
+            if (count == -1) {
+                break;
+            }
+            check(buffer, length, length + count);
+            length += count;
+            if (length == buffer.length) {
+                // full: one more byte is one too many
+                if (!source.exhausted()) {
+                    throw new InvalidResponseException(String.format("answer longer than %d bytes", mMaxBytes));
+                }
+                break;
+            }
+        }
+
+        if (!mIpAddress) {
+            return new String(buffer, 0, length, UTF_8);
+        }
+        int start = 0;
+        int end = length;
+        while (start < end && isWhitespace(buffer[start])) {
+            start++;
+        }
+        while (end > start && isWhitespace(buffer[end - 1])) {
+            end--;
+        }
+        // only ASCII got through the checks
+        String ip = new String(buffer, start, end - start, UTF_8);
+        if (!IpAddressUtils.isIPAddress(ip)) {
+            throw new InvalidResponseException(String.format("answer is not an IP address: %s", ip));
+        }
+        return ip;
+    }
+
+    /**
+     * Checks the bytes just read, in buffer[from, to[
+     *
+     * @throws InvalidResponseException at the first byte that cannot belong to a valid answer
+     */
+    private void check(byte[] buffer, int from, int to) throws InvalidResponseException {
+        for (int i = from; i < to; i++) {
+            byte b = buffer[i];
+            if (mIpAddress) {
+                if (!isIpAddressChar(b) && !isWhitespace(b)) {
+                    throw new InvalidResponseException(String.format("unexpected byte 0x%02x in an IP address", b));
+                }
+            } else if (b == '<' && isBlank(buffer, 0, i)) {
+                // the first character of a page, not of a name
+                throw new InvalidResponseException("answer is markup", true);
+            }
+        }
+    }
+
+    private static boolean isIpAddressChar(byte b) {
+        return (b >= '0' && b <= '9') || (b >= 'a' && b <= 'f') || (b >= 'A' && b <= 'F') || b == '.' || b == ':';
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    private static boolean isBlank(byte[] buffer, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!isWhitespace(buffer[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,129 @@
+package com.hackncheese.glassnetinfo.core;
+
+import com.squareup.okhttp.Dns;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remembers the addresses of the hosts we talk to for a while, so that a refresh does not
+ * wait for a DNS lookup it did a minute ago.
+ * <p/>
+ * Java does not tell the TTL of the records, so entries live for a fixed time, to be kept
+ * in the range of the TTLs of the lookup hosts. Failures are not remembered. When several
+ * threads ask for the same host at once, only one lookup is sent and they all get its answer:
+ * a pre-warming request and the refresh that follows it do not resolve the host twice.
+ */
+public class CachingDns implements Dns {
+
+    private final Dns mDelegate;
+    private final long mTtlNanos;
+
+    // guarded by itself
+    private final Map<String, Entry> mEntries = new HashMap<String, Entry>();
+
+    /**
+     * @param delegate : what actually resolves the hosts
+     * @param ttlMs    : how long an answer is used
+     */
+    public CachingDns(Dns delegate, long ttlMs) {
+        mDelegate = delegate;
+        mTtlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMs);
+    }
+
+    @Override
+    public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+        Entry entry;
+        boolean resolve;
+        synchronized (mEntries) {
+            entry = mEntries.get(hostname);
+            resolve = entry == null || (entry.isDone() && entry.isExpired());
+            if (resolve) {
+                entry = new Entry();
+                mEntries.put(hostname, entry);
+            }
+        }
+
+        if (!resolve) {
+            return entry.await();
+        }
+        try {
+            List<InetAddress> addresses = mDelegate.lookup(hostname);
+            entry.set(addresses, System.nanoTime() + mTtlNanos);
+            return addresses;
+        } catch (UnknownHostException e) {
+            forget(hostname, entry);
+            entry.fail(e);
+            throw e;
+        } catch (RuntimeException e) {
+            forget(hostname, entry);
+            entry.fail(new UnknownHostException(hostname));
+            throw e;
+        }
+    }
+
+    /**
+     * Forgets every address, when the network changed: another DNS server may answer differently
+     */
+    public void clear() {
+        synchronized (mEntries) {
+            mEntries.clear();
+        }
+    }
+
+    private void forget(String hostname, Entry entry) {
+        synchronized (mEntries) {
+            if (mEntries.get(hostname) == entry) {
+                mEntries.remove(hostname);
+            }
+        }
+    }
+
+    /**
+     * The addresses of a host, or the lookup that is getting them
+     */
+    private static final class Entry {
+        private List<InetAddress> mAddresses;
+        private UnknownHostException mFailure;
+        private long mExpiresAtNanos;
+
+        synchronized boolean isDone() {
+            return mAddresses != null || mFailure != null;
+        }
+
+        synchronized boolean isExpired() {
+            // compare differences, nanoTime may overflow
+            return mExpiresAtNanos - System.nanoTime() <= 0;
+        }
+
+        synchronized void set(List<InetAddress> addresses, long expiresAtNanos) {
+            mAddresses = addresses;
+            mExpiresAtNanos = expiresAtNanos;
+            notifyAll();
+        }
+
+        synchronized void fail(UnknownHostException failure) {
+            mFailure = failure;
+            notifyAll();
+        }
+
+        synchronized List<InetAddress> await() throws UnknownHostException {
+            while (!isDone()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new UnknownHostException("interrupted while resolving");
+                }
+            }
+            if (mFailure != null) {
+                throw mFailure;
+            }
+            return mAddresses;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * Stops sending requests to an endpoint that keeps failing, for a while.
+ * <p/>
+ * CLOSED lets every request through. After {@link #FAILURE_THRESHOLD} failures in a row the breaker
+ * opens: requests are refused right away instead of waiting for a timeout or an error page.
+ * Once the open period is over, one probe request is let through (HALF_OPEN): a success closes the
+ * breaker, a failure opens it again for twice as long, up to {@link #MAX_OPEN_MS}.
+ * Also keeps a health score, the moving average of the outcomes, for diagnostics.
+ * Not thread safe: {@link EndpointHealth} synchronizes access.
+ */
+public class CircuitBreaker {
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    // failures in a row that open the breaker
+    static final int FAILURE_THRESHOLD = 3;
+    // how long the breaker first stays open, then doubled each time the probe fails
+    static final long MIN_OPEN_MS = 30 * 1000;
+    static final long MAX_OPEN_MS = 10 * 60 * 1000;
+    // weight of the last outcome in the health score
+    private static final double SCORE_WEIGHT = 0.2;
+
+    private State mState = State.CLOSED;
+    private int mConsecutiveFailures;
+    private long mOpenMs;
+    private long mOpenUntilMs;
+    private boolean mProbing;
+    private double mScore = 1;
+
+    /**
+     * @param nowMs : the current time, in ms
+     * @return true if a request can be sent; in HALF_OPEN, only the probe is let through
+     */
+    public boolean allowRequest(long nowMs) {
+        if (mState == State.OPEN) {
+            if (nowMs - mOpenUntilMs < 0) {
+                return false;
+            }
+            // time for a probe
+            mState = State.HALF_OPEN;
+        }
+        if (mState == State.HALF_OPEN) {
+            if (mProbing) {
+                return false;
+            }
+            mProbing = true;
+        }
+        return true;
+    }
+
+    public void recordSuccess() {
+        mState = State.CLOSED;
+        mConsecutiveFailures = 0;
+        mOpenMs = 0;
+        mProbing = false;
+        mScore += SCORE_WEIGHT * (1 - mScore);
+    }
+
+    /**
+     * @param nowMs : the current time, in ms
+     */
+    public void recordFailure(long nowMs) {
+        mConsecutiveFailures++;
+        mProbing = false;
+        mScore -= SCORE_WEIGHT * mScore;
+        if (mState == State.HALF_OPEN || mConsecutiveFailures >= FAILURE_THRESHOLD) {
+            // back off a little more each time the endpoint is found still failing
+            mOpenMs = mOpenMs == 0 ? MIN_OPEN_MS : Math.min(MAX_OPEN_MS, mOpenMs * 2);
+            mOpenUntilMs = nowMs + mOpenMs;
+            mState = State.OPEN;
+        }
+    }
+
+    /**
+     * A request that was let through ended without telling anything about the endpoint, cancelled
+     * with its refresh for instance: in HALF_OPEN, the next request becomes the probe
+     */
+    public void recordAbandoned() {
+        mProbing = false;
+    }
+
+    public State getState() {
+        return mState;
+    }
+
+    /**
+     * @return between 0 (everything fails lately) and 1 (everything succeeds lately)
+     */
+    public double getScore() {
+        return mScore;
+    }
+
+    public int getConsecutiveFailures() {
+        return mConsecutiveFailures;
+    }
+
+    /**
+     * @param nowMs : the current time, in ms
+     * @return how long until a probe is let through, 0 if not open
+     */
+    public long getRetryInMs(long nowMs) {
+        return mState == State.OPEN ? Math.max(0, mOpenUntilMs - nowMs) : 0;
+    }
+}
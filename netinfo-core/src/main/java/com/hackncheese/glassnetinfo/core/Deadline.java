@@ -0,0 +1,55 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A point in time a piece of work must be done by.
+ * <p/>
+ * A refresh gets one overall deadline, and each of its stages gets a {@link #slice(long)} of it:
+ * a stage can never run past the refresh, however its own budget was configured.
+ */
+public final class Deadline {
+
+    private final long mExpiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        mExpiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * @param ms : the time allowed, from now
+     */
+    public static Deadline in(long ms) {
+        return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(ms));
+    }
+
+    /**
+     * @param maxMs : the budget of a stage
+     * @return a deadline that expires after the budget, or with this one if it comes first
+     */
+    public Deadline slice(long maxMs) {
+        long expiresAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(maxMs);
+        // compare differences, nanoTime may overflow
+        return expiresAt - mExpiresAtNanos < 0 ? new Deadline(expiresAt) : this;
+    }
+
+    /**
+     * @return the time left, 0 if expired
+     */
+    public long remainingMs() {
+        long remaining = mExpiresAtNanos - System.nanoTime();
+        return remaining > 0 ? TimeUnit.NANOSECONDS.toMillis(remaining) : 0;
+    }
+
+    /**
+     * @return the time left, in nanoseconds, 0 if expired
+     */
+    public long remainingNanos() {
+        long remaining = mExpiresAtNanos - System.nanoTime();
+        return remaining > 0 ? remaining : 0;
+    }
+
+    public boolean isExpired() {
+        return mExpiresAtNanos - System.nanoTime() <= 0;
+    }
+}
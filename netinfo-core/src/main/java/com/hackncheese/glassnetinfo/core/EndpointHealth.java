@@ -0,0 +1,104 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps a {@link CircuitBreaker} for each host we talk to, so that a service that is down or
+ * rate-limiting us is skipped instead of costing a timeout on every refresh.
+ * Kept in memory only: a new launch gives every endpoint a new chance.
+ * All methods are synchronized: hosts are reported on from the OkHttp threads.
+ */
+public class EndpointHealth {
+
+    // how many hosts to remember: a handful are used, this only bounds a misconfiguration
+    private static final int MAX_HOSTS = 32;
+
+    @SuppressWarnings("serial")
+    private final LinkedHashMap<String, CircuitBreaker> mBreakers =
+            new LinkedHashMap<String, CircuitBreaker>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CircuitBreaker> eldest) {
+                    return size() > MAX_HOSTS;
+                }
+            };
+
+    /**
+     * @return true if a request can be sent to the host; if so, its outcome must be reported
+     */
+    public synchronized boolean allowRequest(String host) {
+        return breaker(host).allowRequest(nowMs());
+    }
+
+    public synchronized void recordSuccess(String host) {
+        breaker(host).recordSuccess();
+    }
+
+    public synchronized void recordFailure(String host) {
+        breaker(host).recordFailure(nowMs());
+    }
+
+    /**
+     * The request was cancelled: it tells nothing about the host
+     */
+    public synchronized void recordAbandoned(String host) {
+        breaker(host).recordAbandoned();
+    }
+
+    /**
+     * Forgets every host: how they did on the previous network says nothing about the new one
+     */
+    public synchronized void clear() {
+        mBreakers.clear();
+    }
+
+    /**
+     * @return the state of each host, most recently used last, for diagnostics
+     */
+    public synchronized List<Summary> getSummaries() {
+        long now = nowMs();
+        List<Summary> summaries = new ArrayList<Summary>(mBreakers.size());
+        for (Map.Entry<String, CircuitBreaker> entry : mBreakers.entrySet()) {
+            CircuitBreaker breaker = entry.getValue();
+            summaries.add(new Summary(entry.getKey(), breaker.getState(),
+                    (int) Math.round(breaker.getScore() * 100), breaker.getRetryInMs(now)));
+        }
+        return summaries;
+    }
+
+    private CircuitBreaker breaker(String host) {
+        CircuitBreaker breaker = mBreakers.get(host);
+        if (breaker == null) {
+            breaker = new CircuitBreaker();
+            mBreakers.put(host, breaker);
+        }
+        return breaker;
+    }
+
+    private static long nowMs() {
+        // monotonic, unlike the wall clock
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime());
+    }
+
+    /**
+     * The health of one host
+     */
+    public static final class Summary {
+        public final String host;
+        public final CircuitBreaker.State state;
+        // 0 to 100, the higher the better
+        public final int score;
+        // how long until the host is tried again, 0 if not open
+        public final long retryInMs;
+
+        Summary(String host, CircuitBreaker.State state, int score, long retryInMs) {
+            this.host = host;
+            this.state = state;
+            this.score = score;
+            this.retryInMs = retryInMs;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps a {@link LatencyEstimator} of the connect and response times of each host we talk to,
+ * and derives the timeouts of the next requests from them.
+ * <p/>
+ * A fast LAN then gives up quickly on a dead endpoint, and a phone tethered over LTE is given
+ * the time it needs. The estimates are saved to a small binary file so that a new launch does not
+ * start from scratch. All methods are synchronized: hosts are measured from the OkHttp threads.
+ */
+public class EndpointLatencies {
+
+    // bump when the file format changes, older files are then ignored
+    private static final int FILE_VERSION = 1;
+    // how many hosts to remember: a handful are used, this only bounds a misconfiguration
+    private static final int MAX_HOSTS = 32;
+
+    private final File mFile;
+    private final long mInitialMs;
+    private final long mFloorMs;
+    private final long mCeilingMs;
+    private final LinkedHashMap<String, Endpoint> mEndpoints;
+    private boolean mLoaded;
+    private boolean mDirty;
+
+    /**
+     * @param file      : where the estimates are saved, null to keep them in memory only
+     * @param initialMs : the timeout of a host we know nothing about
+     * @param floorMs   : the shortest timeout
+     * @param ceilingMs : the longest timeout
+     */
+    @SuppressWarnings("serial")
+    public EndpointLatencies(File file, long initialMs, long floorMs, long ceilingMs) {
+        mFile = file;
+        mInitialMs = initialMs;
+        mFloorMs = floorMs;
+        mCeilingMs = ceilingMs;
+        // access order = least recently used first
+        mEndpoints = new LinkedHashMap<String, Endpoint>(8, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Endpoint> eldest) {
+                return size() > MAX_HOSTS;
+            }
+        };
+    }
+
+    public synchronized void recordConnect(String host, long ms) {
+        endpoint(host).connect.record(ms);
+        mDirty = true;
+    }
+
+    public synchronized void recordResponse(String host, long ms) {
+        endpoint(host).response.record(ms);
+        mDirty = true;
+    }
+
+    /**
+     * A request to the host timed out: we do not know which phase, so both wait longer next time
+     */
+    public synchronized void recordTimeout(String host) {
+        Endpoint endpoint = endpoint(host);
+        endpoint.connect.recordTimeout();
+        endpoint.response.recordTimeout();
+        endpoint.timeoutCount++;
+    }
+
+    /**
+     * @return how long to wait for a connection to the host
+     */
+    public synchronized long getConnectTimeoutMs(String host) {
+        return endpoint(host).connect.getTimeoutMs(mInitialMs, mFloorMs, mCeilingMs);
+    }
+
+    /**
+     * @return how long to wait for the host to answer, once connected
+     */
+    public synchronized long getResponseTimeoutMs(String host) {
+        return endpoint(host).response.getTimeoutMs(mInitialMs, mFloorMs, mCeilingMs);
+    }
+
+    /**
+     * @return what we know about each host, most recently used last, for diagnostics
+     */
+    public synchronized List<Summary> getSummaries() {
+        ensureLoaded();
+        List<Summary> summaries = new ArrayList<Summary>(mEndpoints.size());
+        for (Map.Entry<String, Endpoint> entry : mEndpoints.entrySet()) {
+            Endpoint endpoint = entry.getValue();
+            summaries.add(new Summary(entry.getKey(),
+                    endpoint.connect.getAverageMs(), endpoint.response.getAverageMs(),
+                    endpoint.connect.getTimeoutMs(mInitialMs, mFloorMs, mCeilingMs),
+                    endpoint.response.getTimeoutMs(mInitialMs, mFloorMs, mCeilingMs),
+                    endpoint.timeoutCount));
+        }
+        return summaries;
+    }
+
+    /**
+     * Saves the estimates, if they changed since the last save
+     * Does disk I/O, do not call from the UI thread.
+     */
+    public synchronized void save() {
+        if (mFile == null || !mDirty) {
+            return;
+        }
+        mDirty = false;
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mEndpoints.size());
+            for (Map.Entry<String, Endpoint> entry : mEndpoints.entrySet()) {
+                out.writeUTF(entry.getKey());
+                writeEstimator(out, entry.getValue().connect);
+                writeEstimator(out, entry.getValue().response);
+            }
+        } catch (IOException e) {
+            // try again on the next save
+            mDirty = true;
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private Endpoint endpoint(String host) {
+        ensureLoaded();
+        Endpoint endpoint = mEndpoints.get(host);
+        if (endpoint == null) {
+            endpoint = new Endpoint();
+            mEndpoints.put(host, endpoint);
+        }
+        return endpoint;
+    }
+
+    /**
+     * Reads the file the first time the estimates are used
+     * A missing or unreadable file just means we know nothing yet.
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mFile == null) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String host = in.readUTF();
+                Endpoint endpoint = new Endpoint();
+                readEstimator(in, endpoint.connect);
+                readEstimator(in, endpoint.response);
+                mEndpoints.put(host, endpoint);
+            }
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+        } catch (IOException e) {
+            mEndpoints.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private static void writeEstimator(DataOutputStream out, LatencyEstimator estimator) throws IOException {
+        out.writeInt(estimator.getSampleCount());
+        out.writeDouble(estimator.getAverageMs());
+        out.writeDouble(estimator.getDeviationMs());
+    }
+
+    private static void readEstimator(DataInputStream in, LatencyEstimator estimator) throws IOException {
+        int sampleCount = in.readInt();
+        double average = in.readDouble();
+        double deviation = in.readDouble();
+        if (sampleCount > 0) {
+            estimator.restore(average, deviation, sampleCount);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static class Endpoint {
+        final LatencyEstimator connect = new LatencyEstimator();
+        final LatencyEstimator response = new LatencyEstimator();
+        int timeoutCount;
+    }
+
+    /**
+     * What we know about one host
+     */
+    public static final class Summary {
+        public final String host;
+        // averages, -1 if never measured
+        public final long connectMs;
+        public final long responseMs;
+        // the timeouts the next request will use
+        public final long connectTimeoutMs;
+        public final long responseTimeoutMs;
+        // how many requests timed out since launch
+        public final int timeoutCount;
+
+        Summary(String host, long connectMs, long responseMs, long connectTimeoutMs, long responseTimeoutMs,
+                int timeoutCount) {
+            this.host = host;
+            this.connectMs = connectMs;
+            this.responseMs = responseMs;
+            this.connectTimeoutMs = connectTimeoutMs;
+            this.responseTimeoutMs = responseTimeoutMs;
+            this.timeoutCount = timeoutCount;
+        }
+    }
+}
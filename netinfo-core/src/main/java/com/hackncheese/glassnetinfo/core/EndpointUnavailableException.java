@@ -0,0 +1,15 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.IOException;
+
+/**
+ * A request was not sent: its endpoint failed too often lately, and is given a rest
+ */
+public class EndpointUnavailableException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public EndpointUnavailableException(String host) {
+        super(String.format("%s failed too often, skipped", host));
+    }
+}
@@ -0,0 +1,23 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.IOException;
+
+/**
+ * An endpoint answered with an error status, a rate limit (429) for instance.
+ * The body of such an answer is not the data we asked for, and must not be shown as such.
+ */
+public class HttpStatusException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int mCode;
+
+    public HttpStatusException(String url, int code) {
+        super(String.format("url %s answered %d", url, code));
+        mCode = code;
+    }
+
+    public int getCode() {
+        return mCode;
+    }
+}
@@ -0,0 +1,34 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.IOException;
+
+/**
+ * An endpoint answered with something that is not what we asked for: a page of a captive portal,
+ * a body far too big for its purpose, text that is not an IP address...
+ * Such an answer is dropped as soon as it is recognized, without being read any further.
+ */
+public class InvalidResponseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final boolean mMarkup;
+
+    public InvalidResponseException(String message) {
+        this(message, false);
+    }
+
+    /**
+     * @param markup : true if the answer is a web page, what a captive portal answers to any request
+     */
+    public InvalidResponseException(String message, boolean markup) {
+        super(message);
+        mMarkup = markup;
+    }
+
+    /**
+     * @return true if the answer is a web page, which says more about the network than about the endpoint
+     */
+    public boolean isMarkup() {
+        return mMarkup;
+    }
+}
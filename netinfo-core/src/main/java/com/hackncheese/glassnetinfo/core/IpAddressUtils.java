@@ -0,0 +1,150 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.util.Enumeration;
+
+/**
+ * Checks on textual IP addresses
+ * Only plain Java, so that it does not depend on the deprecated Apache classes of the framework
+ */
+public final class IpAddressUtils {
+
+    private IpAddressUtils() {
+    }
+
+    /**
+     * @param s : the text to check
+     * @return true if the text is an IPv4 or an IPv6 literal
+     */
+    public static boolean isIPAddress(CharSequence s) {
+        return isIPv4Address(s) || isIPv6Address(s);
+    }
+
+    /**
+     * @param addresses : the addresses of an interface, as given by {@code NetworkInterface}
+     * @return the first IPv4 address that is not loopback, or null if there is none
+     */
+    public static String firstIPv4Address(Enumeration<InetAddress> addresses) {
+        while (addresses.hasMoreElements()) {
+            InetAddress inetAddress = addresses.nextElement();
+            // get only IPv4 addresses that are not loopback
+            if (inetAddress instanceof Inet4Address && !inetAddress.isLoopbackAddress()) {
+                return inetAddress.getHostAddress();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param s : the text to check
+     * @return true if the text is a dotted-quad IPv4 address, like 192.168.0.1
+     */
+    public static boolean isIPv4Address(CharSequence s) {
+        return isIPv4Address(s, 0, s.length());
+    }
+
+    private static boolean isIPv4Address(CharSequence s, int start, int end) {
+        int parts = 0;
+        int digits = 0;
+        int value = 0;
+
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                // no leading zeros, and each part must fit in a byte
+                if (digits > 0 && value == 0) {
+                    return false;
+                }
+                value = value * 10 + (c - '0');
+                digits++;
+                if (value > 255) {
+                    return false;
+                }
+            } else if (c == '.') {
+                if (digits == 0 || ++parts > 3) {
+                    return false;
+                }
+                digits = 0;
+                value = 0;
+            } else {
+                return false;
+            }
+        }
+
+        return parts == 3 && digits > 0;
+    }
+
+    /**
+     * @param s : the text to check
+     * @return true if the text is an IPv6 address, full or compressed (with "::"),
+     * optionally ending with an embedded IPv4 address
+     */
+    public static boolean isIPv6Address(CharSequence s) {
+        int length = s.length();
+        // strip the zone id, like in fe80::1%wlan0
+        for (int i = 0; i < length; i++) {
+            if (s.charAt(i) == '%') {
+                if (i == length - 1) {
+                    return false;
+                }
+                length = i;
+                break;
+            }
+        }
+        if (length < 2) {
+            return false;
+        }
+
+        int groups = 0;
+        int digits = 0;
+        boolean compressed = false;
+        int groupStart = 0;
+
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == ':') {
+                if (i + 1 < length && s.charAt(i + 1) == ':') {
+                    // "::" may only appear once
+                    if (compressed) {
+                        return false;
+                    }
+                    compressed = true;
+                    if (digits > 0) {
+                        groups++;
+                    }
+                    i++;
+                } else if (digits == 0) {
+                    // a single ':' must follow a group, and cannot start the address
+                    return false;
+                } else {
+                    groups++;
+                    if (i == length - 1) {
+                        return false;
+                    }
+                }
+                digits = 0;
+                groupStart = i + 1;
+            } else if (c == '.') {
+                // the remainder is an embedded IPv4 address, worth two groups
+                if (!isIPv4Address(s, groupStart, length)) {
+                    return false;
+                }
+                groups += 2;
+                digits = 0;
+                break;
+            } else if (Character.digit(c, 16) >= 0) {
+                if (++digits > 4) {
+                    return false;
+                }
+            } else {
+                return false;
+            }
+        }
+        if (digits > 0) {
+            groups++;
+        }
+
+        return compressed ? groups < 8 : groups == 8;
+    }
+}
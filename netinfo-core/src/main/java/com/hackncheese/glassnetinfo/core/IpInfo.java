@@ -0,0 +1,77 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * What an "ip info" service knows about an external IP address
+ * Fields the service did not return are null.
+ */
+public class IpInfo {
+
+    private final String mIp;
+    private final String mAsn;
+    private final String mOrg;
+    private final String mCity;
+    private final String mCountry;
+
+    public IpInfo(String ip, String asn, String org, String city, String country) {
+        mIp = ip;
+        mAsn = asn;
+        mOrg = org;
+        mCity = city;
+        mCountry = country;
+    }
+
+    /**
+     * @return the external IP address
+     */
+    public String getIp() {
+        return mIp;
+    }
+
+    /**
+     * @return the autonomous system number, like "AS15169"
+     */
+    public String getAsn() {
+        return mAsn;
+    }
+
+    /**
+     * @return the name of the provider owning the address
+     */
+    public String getOrg() {
+        return mOrg;
+    }
+
+    public String getCity() {
+        return mCity;
+    }
+
+    public String getCountry() {
+        return mCountry;
+    }
+
+    /**
+     * @return "org (asn)", only what is known, or null if neither is
+     */
+    public String getProvider() {
+        if (mAsn == null || mAsn.isEmpty()) {
+            return mOrg;
+        }
+        if (mOrg == null || mOrg.isEmpty()) {
+            return mAsn;
+        }
+        return mOrg + " (" + mAsn + ")";
+    }
+
+    /**
+     * @return "city, country", only what is known, or null if neither is
+     */
+    public String getLocation() {
+        if (mCity == null || mCity.isEmpty()) {
+            return mCountry;
+        }
+        if (mCountry == null || mCountry.isEmpty()) {
+            return mCity;
+        }
+        return mCity + ", " + mCountry;
+    }
+}
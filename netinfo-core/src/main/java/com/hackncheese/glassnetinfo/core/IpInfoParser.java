@@ -0,0 +1,345 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+import okio.Buffer;
+import okio.BufferedSource;
+
+/**
+ * Reads the JSON answer of ipinfo.io, like:
+ * <pre>
+ * {
+ *   "ip": "8.8.8.8",
+ *   "city": "Mountain View",
+ *   "country": "US",
+ *   "org": "AS15169 Google Inc."
+ * }
+ * </pre>
+ * The body is parsed as it comes off the {@link BufferedSource}, without being read into a
+ * {@link String} first. Only the fields we need are decoded, everything else is skipped;
+ * field names are compared as bytes, without being decoded either.
+ * An answer that is not what ipinfo.io sends (a string far longer than any of its fields, an ip
+ * that is not an address) is rejected as soon as it is recognized.
+ * The parser keeps no state between answers: one can be shared by all the lookups.
+ */
+public class IpInfoParser implements NetInfoHttpClient.BodyReader<IpInfo> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // longer than any name, field or organization ipinfo.io sends, once unescaped
+    private static final int MAX_STRING_BYTES = 512;
+
+    // the fields we want, by index in FIELD_NAMES
+    private static final int IP = 0;
+    private static final int ORG = 1;
+    private static final int CITY = 2;
+    private static final int COUNTRY = 3;
+    private static final byte[][] FIELD_NAMES = {
+            "ip".getBytes(UTF_8), "org".getBytes(UTF_8), "city".getBytes(UTF_8), "country".getBytes(UTF_8)};
+
+    /**
+     * @throws InvalidResponseException if the answer has a string too long, or an ip that is not an address
+     */
+    @Override
+    public IpInfo read(BufferedSource source) throws IOException {
+        String ip = null;
+        String org = null;
+        String city = null;
+        String country = null;
+        Buffer scratch = new Buffer();
+
+        expect(source, '{');
+        if (peek(source) == '}') {
+            source.readByte();
+        } else {
+            while (true) {
+                expect(source, '"');
+                int field = readField(source, scratch);
+                expect(source, ':');
+
+                if (peek(source) == '"' && field >= 0) {
+                    source.readByte();
+                    String value = readString(source, scratch);
+                    if (field == IP) {
+                        ip = value;
+                    } else if (field == ORG) {
+                        org = value;
+                    } else if (field == CITY) {
+                        city = value;
+                    } else {
+                        country = value;
+                    }
+                } else {
+                    skipValue(source);
+                }
+
+                byte b = next(source);
+                if (b == '}') {
+                    break;
+                } else if (b != ',') {
+                    throw malformed(b);
+                }
+            }
+        }
+
+        if (ip == null) {
+            throw new IOException("no ip in the answer");
+        }
+        if (!IpAddressUtils.isIPAddress(ip)) {
+            throw new InvalidResponseException(String.format("ip is not an IP address: %s", ip));
+        }
+
+        // org is "AS15169 Google Inc.": split the AS number from the name
+        String asn = null;
+        if (org != null && org.startsWith("AS")) {
+            int idx = org.indexOf(' ');
+            if (idx > 0) {
+                asn = org.substring(0, idx);
+                org = org.substring(idx + 1).trim();
+            } else {
+                asn = org;
+                org = null;
+            }
+        }
+
+        return new IpInfo(ip, asn, org, city, country);
+    }
+
+    /**
+     * Takes the AS number off an organization, as returned by ipinfo.io/{ip}/org
+     *
+     * @param org : like "AS15169 Google Inc."
+     * @return the name of the provider, like "Google Inc."
+     */
+    public static String providerNameOf(String org) {
+        int idx = org.indexOf(' ');
+        if (idx > 0) {
+            return org.substring(idx).trim();
+        }
+        return org;
+    }
+
+    /**
+     * Takes the AS number out of an organization, as returned by ipinfo.io/{ip}/org
+     *
+     * @param org : like "AS15169 Google Inc."
+     * @return the AS number, like "AS15169", or null if the organization does not start with one
+     */
+    public static String asNumberOf(String org) {
+        org = org.trim();
+        if (!org.startsWith("AS")) {
+            return null;
+        }
+        int idx = org.indexOf(' ');
+        return idx > 0 ? org.substring(0, idx) : org;
+    }
+
+    /**
+     * Reads a field name whose opening quote was already consumed
+     *
+     * @return the index of the field in FIELD_NAMES, -1 if we do not want it
+     */
+    private static int readField(BufferedSource source, Buffer scratch) throws IOException {
+        readInto(source, scratch);
+        int field = -1;
+        for (int i = 0; i < FIELD_NAMES.length && field < 0; i++) {
+            if (sameBytes(scratch, FIELD_NAMES[i])) {
+                field = i;
+            }
+        }
+        scratch.clear();
+        return field;
+    }
+
+    private static boolean sameBytes(Buffer buffer, byte[] bytes) {
+        if (buffer.size() != bytes.length) {
+            return false;
+        }
+        for (int i = 0; i < bytes.length; i++) {
+            if (buffer.getByte(i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the next byte that is not whitespace, without consuming it
+     */
+    private static byte peek(BufferedSource source) throws IOException {
+        while (true) {
+            source.require(1);
+            byte b = source.buffer().getByte(0);
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                source.skip(1);
+            } else {
+                return b;
+            }
+        }
+    }
+
+    /**
+     * @return the next byte that is not whitespace
+     */
+    private static byte next(BufferedSource source) throws IOException {
+        peek(source);
+        return source.readByte();
+    }
+
+    private static void expect(BufferedSource source, char expected) throws IOException {
+        byte b = next(source);
+        if (b != expected) {
+            throw malformed(b);
+        }
+    }
+
+    /**
+     * Reads a string whose opening quote was already consumed
+     */
+    private static String readString(BufferedSource source, Buffer scratch) throws IOException {
+        readInto(source, scratch);
+        return scratch.readUtf8();
+    }
+
+    /**
+     * Unescapes a string whose opening quote was already consumed into the scratch buffer,
+     * up to its closing quote
+     *
+     * @throws InvalidResponseException past MAX_STRING_BYTES, without reading the rest
+     */
+    private static void readInto(BufferedSource source, Buffer scratch) throws IOException {
+        while (true) {
+            if (scratch.size() > MAX_STRING_BYTES) {
+                throw new InvalidResponseException(String.format("string longer than %d bytes", MAX_STRING_BYTES));
+            }
+            byte b = source.readByte();
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                byte escaped = source.readByte();
+                switch (escaped) {
+                    case 'b':
+                        scratch.writeByte('\b');
+                        break;
+                    case 'f':
+                        scratch.writeByte('\f');
+                        break;
+                    case 'n':
+                        scratch.writeByte('\n');
+                        break;
+                    case 'r':
+                        scratch.writeByte('\r');
+                        break;
+                    case 't':
+                        scratch.writeByte('\t');
+                        break;
+                    case 'u':
+                        scratch.writeUtf8CodePoint(readCodePoint(source));
+                        break;
+                    default:
+                        // '"', '\\' and '/' stand for themselves
+                        scratch.writeByte(escaped);
+                        break;
+                }
+            } else {
+                scratch.writeByte(b);
+            }
+        }
+    }
+
+    /**
+     * Reads the 4 hex digits of a unicode escape, and the escape of the low surrogate that follows
+     * a high one: a character out of the BMP, an emoji for instance, is written as a pair of escapes
+     *
+     * @return the code point, '?' for a surrogate that is not part of a pair
+     */
+    private static int readCodePoint(BufferedSource source) throws IOException {
+        source.require(4);
+        char c = hexAt(source.buffer(), 0);
+        source.skip(4);
+        if (!Character.isHighSurrogate(c)) {
+            return Character.isLowSurrogate(c) ? '?' : c;
+        }
+        // the low surrogate is only taken if it is one: anything else is read as usual
+        Buffer buffer = source.buffer();
+        if (!source.request(6) || buffer.getByte(0) != '\\' || buffer.getByte(1) != 'u') {
+            return '?';
+        }
+        char low = hexAt(buffer, 2);
+        if (!Character.isLowSurrogate(low)) {
+            return '?';
+        }
+        source.skip(6);
+        return Character.toCodePoint(c, low);
+    }
+
+    /**
+     * @return the char written as 4 hex digits at a position of the buffer
+     */
+    private static char hexAt(Buffer buffer, long pos) throws IOException {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            byte b = buffer.getByte(pos + i);
+            int digit = Character.digit(b, 16);
+            if (digit < 0) {
+                throw malformed(b);
+            }
+            value = (value << 4) | digit;
+        }
+        return (char) value;
+    }
+
+    /**
+     * Skips a value we are not interested in, including nested objects and arrays
+     */
+    private static void skipValue(BufferedSource source) throws IOException {
+        int depth = 0;
+        do {
+            byte b = peek(source);
+            if (b == '"') {
+                source.readByte();
+                skipString(source);
+            } else if (b == '{' || b == '[') {
+                source.readByte();
+                depth++;
+            } else if (b == '}' || b == ']') {
+                if (depth == 0) {
+                    throw malformed(b);
+                }
+                source.readByte();
+                depth--;
+            } else if (b == ',' || b == ':') {
+                if (depth == 0) {
+                    throw malformed(b);
+                }
+                source.readByte();
+            } else {
+                // number, true, false or null
+                while (true) {
+                    source.require(1);
+                    b = source.buffer().getByte(0);
+                    if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') {
+                        break;
+                    }
+                    source.skip(1);
+                }
+            }
+        } while (depth > 0);
+    }
+
+    private static void skipString(BufferedSource source) throws IOException {
+        while (true) {
+            byte b = source.readByte();
+            if (b == '"') {
+                return;
+            } else if (b == '\\') {
+                source.readByte();
+            }
+        }
+    }
+
+    private static IOException malformed(byte b) {
+        return new IOException("malformed JSON near '" + (char) b + "'");
+    }
+}
@@ -0,0 +1,93 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * Estimates how long an operation usually takes, and how long to wait for it before giving up.
+ * <p/>
+ * Works like the TCP retransmission timer (RFC 6298): an exponentially weighted moving average of
+ * the samples and of their deviation, the timeout being the average plus four deviations, which
+ * covers the bulk of the distribution, and at least half again the average when samples hardly vary.
+ * A timeout doubles the next timeout until a sample comes, otherwise an estimate that got too low
+ * would never learn about the slow answers it cuts off.
+ * Not thread safe: {@link EndpointLatencies} synchronizes access.
+ */
+public class LatencyEstimator {
+
+    // weight of a new sample in the average, and in the deviation
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    // how many deviations above the average the timeout is
+    private static final int K = 4;
+    // the timeout is at least that many times the average, for when the samples hardly vary
+    private static final double MIN_HEADROOM = 1.5;
+    // the timeout is not doubled more than that many times in a row: 2^3 = 8 times
+    private static final int MAX_BACKOFF = 3;
+
+    private double mAverageMs = -1;
+    private double mDeviationMs;
+    private int mBackoff;
+    private int mSampleCount;
+
+    /**
+     * @param ms : how long the operation took
+     */
+    public void record(long ms) {
+        if (mAverageMs < 0) {
+            // first sample
+            mAverageMs = ms;
+            mDeviationMs = ms / 2.0;
+        } else {
+            mDeviationMs += BETA * (Math.abs(ms - mAverageMs) - mDeviationMs);
+            mAverageMs += ALPHA * (ms - mAverageMs);
+        }
+        mBackoff = 0;
+        mSampleCount++;
+    }
+
+    /**
+     * The operation was given up on: wait longer next time
+     */
+    public void recordTimeout() {
+        if (mBackoff < MAX_BACKOFF) {
+            mBackoff++;
+        }
+    }
+
+    /**
+     * @param initialMs : the timeout when nothing is known yet
+     * @param floorMs   : the shortest timeout, so that a lucky streak does not make it too tight
+     * @param ceilingMs : the longest timeout, so that a dead endpoint does not use the whole refresh
+     * @return how long to wait for the operation
+     */
+    public long getTimeoutMs(long initialMs, long floorMs, long ceilingMs) {
+        double timeout = mAverageMs < 0
+                ? initialMs
+                : Math.max(mAverageMs + K * mDeviationMs, MIN_HEADROOM * mAverageMs);
+        timeout *= 1 << mBackoff;
+        return Math.max(floorMs, Math.min(ceilingMs, Math.round(timeout)));
+    }
+
+    /**
+     * @return the average, -1 if nothing was recorded
+     */
+    public long getAverageMs() {
+        return Math.round(mAverageMs);
+    }
+
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    double getDeviationMs() {
+        return mDeviationMs;
+    }
+
+    /**
+     * Restores a saved estimate
+     */
+    void restore(double averageMs, double deviationMs, int sampleCount) {
+        mAverageMs = averageMs;
+        mDeviationMs = deviationMs;
+        mSampleCount = sampleCount;
+        mBackoff = 0;
+    }
+}
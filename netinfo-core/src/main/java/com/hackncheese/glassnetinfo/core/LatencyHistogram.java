@@ -0,0 +1,127 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * A histogram of durations with logarithmic buckets, made to be recorded into on hot paths:
+ * its storage is allocated once, and recording never allocates.
+ * <p/>
+ * Each power of two is split into {@link #SUB_BUCKETS} buckets, so a percentile is known within
+ * about 20%, which is plenty to tell a fast network from a slow one.
+ * Values are in microseconds, up to about 35 minutes; bigger values land in the last bucket.
+ */
+public class LatencyHistogram {
+
+    // buckets per power of two, must be a power of two itself
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // 2^31 us is about 35 minutes
+    private static final int MAX_POWER = 31;
+    private static final int BUCKET_COUNT = (MAX_POWER - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final int[] mCounts = new int[BUCKET_COUNT];
+    private int mTotalCount;
+    private long mMax;
+
+    /**
+     * Records a duration
+     *
+     * @param micros : the duration in microseconds, negative values count as 0
+     */
+    public synchronized void record(long micros) {
+        mCounts[bucketOf(micros)]++;
+        mTotalCount++;
+        if (micros > mMax) {
+            mMax = micros;
+        }
+    }
+
+    /**
+     * Takes back a duration recorded before, for a histogram over a sliding window
+     * The max stays the longest duration ever recorded.
+     *
+     * @param micros : the duration, as it was recorded
+     */
+    public synchronized void forget(long micros) {
+        int bucket = bucketOf(micros);
+        if (mCounts[bucket] > 0) {
+            mCounts[bucket]--;
+            mTotalCount--;
+        }
+    }
+
+    /**
+     * @return how many durations were recorded
+     */
+    public synchronized int getCount() {
+        return mTotalCount;
+    }
+
+    /**
+     * @return the longest duration recorded, in microseconds
+     */
+    public synchronized long getMax() {
+        return mMax;
+    }
+
+    /**
+     * @param percentile : between 0 and 100
+     * @return the duration below which this percentage of the recorded durations fall,
+     * in microseconds, or 0 if nothing was recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (mTotalCount == 0) {
+            return 0;
+        }
+        // the rank of the wanted duration, 1-based
+        long rank = (long) Math.ceil(percentile / 100 * mTotalCount);
+        if (rank < 1) {
+            rank = 1;
+        }
+
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts[i];
+            if (seen >= rank) {
+                // never report more than what was actually seen
+                return Math.min(upperBoundOf(i), mMax);
+            }
+        }
+        return mMax;
+    }
+
+    public synchronized void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            mCounts[i] = 0;
+        }
+        mTotalCount = 0;
+        mMax = 0;
+    }
+
+    /**
+     * Bucket layout: values below {@link #SUB_BUCKETS} get one bucket each, then each power of two
+     * 2^p (p >= SUB_BUCKET_BITS) is split into SUB_BUCKETS buckets using the bits just below the top one.
+     */
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return micros < 0 ? 0 : (int) micros;
+        }
+        int power = 63 - Long.numberOfLeadingZeros(micros);
+        if (power > MAX_POWER) {
+            return BUCKET_COUNT - 1;
+        }
+        int sub = (int) (micros >>> (power - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (power - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    /**
+     * @return the biggest value that falls in the bucket
+     */
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int power = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        long lowerBound = (1L << power) + ((long) sub << (power - SUB_BUCKET_BITS));
+        return lowerBound + (1L << (power - SUB_BUCKET_BITS)) - 1;
+    }
+}
@@ -0,0 +1,225 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Probes a few targets at a regular interval, to tell how bad the network is right now.
+ * <p/>
+ * An "http://" target gets a HEAD request through the shared {@link NetInfoHttpClient}, on a kept
+ * alive connection after the first one; a "tcp://host:port" target gets a TCP connection, closed
+ * right away. Each target has its own {@link LatencyWindow}. Probes run one after the other on a
+ * thread of their own, only between {@link #start()} and {@link #stop()}. A probe still in flight
+ * when probing stops keeps its result to itself: it could otherwise land next to the probes of
+ * the next start.
+ */
+public class LatencyProbeEngine {
+
+    /**
+     * Gets told when a round of probes is done, on the thread of the probes
+     */
+    public interface Listener {
+        void onProbed();
+    }
+
+    /**
+     * A target and its samples
+     */
+    public static final class Target {
+        private final String mUrl;
+        private final String mLabel;
+        private final LatencyWindow mWindow;
+        // resolved on the first probe, and again after a failure. Written under the lock of the engine.
+        private volatile InetSocketAddress mAddress;
+
+        Target(String url, LatencyWindow window) {
+            mUrl = url;
+            mWindow = window;
+            String host = URI.create(url).getHost();
+            mLabel = host != null ? host : url;
+        }
+
+        /**
+         * @return the host probed, for the card
+         */
+        public String getLabel() {
+            return mLabel;
+        }
+
+        public LatencyWindow getWindow() {
+            return mWindow;
+        }
+
+        boolean isTcp() {
+            return mUrl.startsWith("tcp://");
+        }
+    }
+
+    private final NetInfoHttpClient mHttpClient;
+    private final Target[] mTargets;
+    private final long mIntervalMs;
+    private final int mTimeoutMs;
+    private volatile Listener mListener;
+    private ScheduledExecutorService mScheduler;
+    // a new one on each start: the probes of an older start drop their results
+    private Object mStartToken;
+
+    /**
+     * @param httpClient : sends the HEAD probes
+     * @param urls       : the targets, "http://..." or "tcp://host:port"
+     * @param intervalMs : how long between two rounds of probes
+     * @param timeoutMs  : how long before a probe counts as lost
+     * @param windowMs   : how long the samples are kept
+     */
+    public LatencyProbeEngine(NetInfoHttpClient httpClient, String[] urls, long intervalMs, int timeoutMs,
+                              long windowMs) {
+        mHttpClient = httpClient;
+        mIntervalMs = intervalMs;
+        mTimeoutMs = timeoutMs;
+        // one sample per round over the window, and one more for the round in progress
+        int capacity = (int) (windowMs / intervalMs) + 1;
+        mTargets = new Target[urls.length];
+        for (int i = 0; i < urls.length; i++) {
+            mTargets[i] = new Target(urls[i], new LatencyWindow(capacity, windowMs));
+        }
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Starts probing, right away then at the interval. Does nothing if already started.
+     */
+    public synchronized void start() {
+        if (mScheduler != null) {
+            return;
+        }
+        mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "latency-probe");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        final Object token = new Object();
+        mStartToken = token;
+        mScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                probeAll(token);
+            }
+        }, 0, mIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops probing. The samples are kept, until they get older than the window.
+     * Does not wait for a probe in flight, which records nothing once it is done.
+     */
+    public synchronized void stop() {
+        if (mScheduler == null) {
+            return;
+        }
+        mScheduler.shutdownNow();
+        mScheduler = null;
+        mStartToken = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return mScheduler != null;
+    }
+
+    /**
+     * @return the targets, in the configured order
+     */
+    public Target[] getTargets() {
+        return mTargets;
+    }
+
+    /**
+     * One round of probes, for the start the token belongs to
+     */
+    private void probeAll(Object token) {
+        for (Target target : mTargets) {
+            probe(target, token);
+        }
+        Listener listener = mListener;
+        if (listener != null && isCurrent(token)) {
+            listener.onProbed();
+        }
+    }
+
+    private synchronized boolean isCurrent(Object token) {
+        return token == mStartToken;
+    }
+
+    private void probe(Target target, Object token) {
+        long rttUs;
+        boolean lost = false;
+        try {
+            rttUs = target.isTcp() ? connect(target, token) : mHttpClient.ping(target.mUrl, mTimeoutMs);
+        } catch (IOException e) {
+            rttUs = 0;
+            lost = true;
+        }
+        synchronized (this) {
+            if (token != mStartToken) {
+                // stopped while probing, maybe started again since
+                return;
+            }
+            if (lost) {
+                target.mWindow.recordLoss(System.currentTimeMillis());
+            } else {
+                target.mWindow.recordRtt(System.currentTimeMillis(), rttUs);
+            }
+        }
+    }
+
+    /**
+     * @return how long connecting to the target took, in microseconds
+     */
+    private long connect(Target target, Object token) throws IOException {
+        InetSocketAddress address = target.mAddress;
+        if (address == null) {
+            URI uri = URI.create(target.mUrl);
+            // resolved once: the probe times the network, not the DNS
+            address = new InetSocketAddress(uri.getHost(), uri.getPort());
+            if (address.isUnresolved()) {
+                throw new IOException("cannot resolve " + uri.getHost());
+            }
+            setAddress(target, token, address);
+        }
+        Socket socket = new Socket();
+        try {
+            long start = System.nanoTime();
+            socket.connect(address, mTimeoutMs);
+            return (System.nanoTime() - start) / 1000;
+        } catch (IOException e) {
+            // the address may have changed
+            setAddress(target, token, null);
+            throw e;
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Remembers the address of a target, unless the probe belongs to an older start
+     */
+    private synchronized void setAddress(Target target, Object token, InetSocketAddress address) {
+        if (token == mStartToken) {
+            target.mAddress = address;
+        }
+    }
+}
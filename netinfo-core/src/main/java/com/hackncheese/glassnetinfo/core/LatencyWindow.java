@@ -0,0 +1,135 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * The round trip times of the probes to one target over the last minutes, lost probes included.
+ * <p/>
+ * Samples go into ring buffers of primitives and a {@link LatencyHistogram}, all allocated once:
+ * recording never allocates. A sample leaves the window when it gets older than the window,
+ * or when the buffers are full, whichever comes first, and is then taken back from the histogram.
+ * Jitter is smoothed as in RFC 3550: the mean deviation between consecutive round trips.
+ */
+public class LatencyWindow {
+
+    // the round trip of a lost probe
+    private static final int LOST = -1;
+    // RFC 3550 gain of the jitter estimator
+    private static final int JITTER_GAIN = 16;
+
+    private final long mWindowMs;
+    private final long[] mTimesMs;
+    private final int[] mRttsUs;
+    private final LatencyHistogram mHistogram = new LatencyHistogram();
+    // index of the oldest sample, and how many there are
+    private int mHead;
+    private int mSize;
+    private int mLostCount;
+
+    private long mLastRttUs = -1;
+    private double mJitterUs;
+
+    /**
+     * @param capacity : how many samples can be kept, at most
+     * @param windowMs : how long a sample is kept
+     */
+    public LatencyWindow(int capacity, long windowMs) {
+        mWindowMs = windowMs;
+        mTimesMs = new long[capacity];
+        mRttsUs = new int[capacity];
+    }
+
+    /**
+     * @param nowMs : when the probe answered, in ms
+     * @param rttUs : how long it took, in microseconds
+     */
+    public synchronized void recordRtt(long nowMs, long rttUs) {
+        int rtt = (int) Math.min(Math.max(rttUs, 0), Integer.MAX_VALUE);
+        add(nowMs, rtt);
+        mHistogram.record(rtt);
+        if (mLastRttUs >= 0) {
+            mJitterUs += (Math.abs(rtt - mLastRttUs) - mJitterUs) / JITTER_GAIN;
+        }
+        mLastRttUs = rtt;
+    }
+
+    /**
+     * @param nowMs : when the probe was given up on, in ms
+     */
+    public synchronized void recordLoss(long nowMs) {
+        add(nowMs, LOST);
+        mLostCount++;
+    }
+
+    private void add(long nowMs, int rttUs) {
+        expire(nowMs);
+        if (mSize == mTimesMs.length) {
+            removeOldest();
+        }
+        int tail = (mHead + mSize) % mTimesMs.length;
+        mTimesMs[tail] = nowMs;
+        mRttsUs[tail] = rttUs;
+        mSize++;
+    }
+
+    /**
+     * Drops the samples that are older than the window
+     */
+    private void expire(long nowMs) {
+        while (mSize > 0 && nowMs - mTimesMs[mHead] > mWindowMs) {
+            removeOldest();
+        }
+    }
+
+    private void removeOldest() {
+        int rtt = mRttsUs[mHead];
+        if (rtt == LOST) {
+            mLostCount--;
+        } else {
+            mHistogram.forget(rtt);
+        }
+        mHead = (mHead + 1) % mTimesMs.length;
+        mSize--;
+    }
+
+    /**
+     * @return the round trip of the last probe that answered, in microseconds, -1 if none did
+     */
+    public synchronized long getLastRttUs() {
+        return mLastRttUs;
+    }
+
+    /**
+     * @return the smoothed jitter, in microseconds
+     */
+    public synchronized long getJitterUs() {
+        return (long) mJitterUs;
+    }
+
+    /**
+     * @param nowMs : the current time, in ms
+     * @return how many probes are in the window, lost ones included
+     */
+    public synchronized int getCount(long nowMs) {
+        expire(nowMs);
+        return mSize;
+    }
+
+    /**
+     * @param nowMs : the current time, in ms
+     * @return the share of the probes of the window that were lost, between 0 and 100
+     */
+    public synchronized int getLossPercent(long nowMs) {
+        expire(nowMs);
+        return mSize > 0 ? mLostCount * 100 / mSize : 0;
+    }
+
+    /**
+     * @param percentile : between 0 and 100
+     * @param nowMs      : the current time, in ms
+     * @return the round trip below which this percentage of the answered probes of the window fall,
+     * in microseconds, or 0 if none answered
+     */
+    public synchronized long getPercentileUs(double percentile, long nowMs) {
+        expire(nowMs);
+        return mHistogram.getPercentile(percentile);
+    }
+}
@@ -0,0 +1,69 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.util.List;
+
+/**
+ * The local addresses of the device: the addresses of each interface, and the default gateway
+ */
+public class LocalAddresses {
+
+    private final List<Interface> mInterfaces;
+    private final String mGateway;
+    private final String mGatewayInterface;
+
+    public LocalAddresses(List<Interface> interfaces, String gateway, String gatewayInterface) {
+        mInterfaces = interfaces;
+        mGateway = gateway;
+        mGatewayInterface = gatewayInterface;
+    }
+
+    /**
+     * @return the interfaces that have at least one address
+     */
+    public List<Interface> getInterfaces() {
+        return mInterfaces;
+    }
+
+    /**
+     * @return the interface with this name, or null if it has no address
+     */
+    public Interface getInterface(String name) {
+        for (Interface intf : mInterfaces) {
+            if (intf.name.equals(name)) {
+                return intf;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the address of the default gateway, or null if there is no default route
+     */
+    public String getGateway() {
+        return mGateway;
+    }
+
+    /**
+     * @return the interface of the default route, or null if there is no default route
+     */
+    public String getGatewayInterface() {
+        return mGatewayInterface;
+    }
+
+    /**
+     * The addresses of one interface
+     */
+    public static final class Interface {
+        public final String name;
+        // null if the interface has no IPv4 address
+        public final String ipv4;
+        // global addresses first
+        public final List<String> ipv6;
+
+        public Interface(String name, String ipv4, List<String> ipv6) {
+            this.name = name;
+            this.ipv4 = ipv4;
+            this.ipv6 = ipv6;
+        }
+    }
+}
@@ -0,0 +1,952 @@
+package com.hackncheese.glassnetinfo.core;
+
+import com.squareup.okhttp.Call;
+import com.squareup.okhttp.Callback;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Dispatcher;
+import com.squareup.okhttp.Dns;
+import com.squareup.okhttp.HttpUrl;
+import com.squareup.okhttp.Interceptor;
+import com.squareup.okhttp.MediaType;
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.Request;
+import com.squareup.okhttp.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import okio.BufferedSource;
+
+/**
+ * The HTTP layer shared by every lookup of the application.
+ * There is only one {@link OkHttpClient}, so all the requests go through the same
+ * {@link ConnectionPool} and {@link Dispatcher}, and keep-alive connections are reused
+ * from one refresh to the next.
+ * Only 2xx answers are returned: an error page is a failure, and an endpoint that fails too
+ * often is skipped for a while, see {@link EndpointHealth}.
+ */
+public class NetInfoHttpClient {
+
+    // idle connections kept in the pool: one per lookup host is enough
+    private static final int MAX_IDLE_CONNECTIONS = 4;
+    // how long an idle connection is kept alive in the pool
+    private static final long KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000;
+    // connect/write/read timeouts, until the latencies of a host are known
+    private static final long TIMEOUT_MS = 1000;
+    // bounds of the timeouts derived from the latencies, when not configured
+    private static final long MIN_TIMEOUT_MS = 250;
+    private static final long MAX_TIMEOUT_MS = 4000;
+    // how long a DNS answer is used: the lookup hosts have TTLs of a few minutes at most
+    private static final long DNS_TTL_MS = 60 * 1000;
+    // the group of the pre-warming calls
+    private static final Object PREWARM_TAG = "prewarm";
+    // the latency probes and the throughput tests, kept out of the refresh timings
+    private static final Object PING_TAG = "ping";
+    private static final Object DOWNLOAD_TAG = "download";
+    // none of our endpoints answers more than a few kB: anything bigger is not for us
+    private static final int MAX_BODY_BYTES = 16 * 1024;
+    // timeouts are rounded up to this step, so that a handful of client clones serve all the calls
+    private static final long TIMEOUT_STEP_MS = 50;
+    // how many client clones are kept
+    private static final int MAX_CLIENTS = 16;
+
+    private final OkHttpClient mClient;
+    // for the throughput tests: a read may wait as long as the deadline allows, not the timeout of a lookup
+    private final OkHttpClient mDownloadClient;
+
+    /**
+     * Connections we already sent a request on. Weak keys, so that evicted connections
+     * do not stay in memory.
+     */
+    private final Map<Connection, Boolean> mSeenConnections =
+            Collections.synchronizedMap(new WeakHashMap<Connection, Boolean>());
+    private final AtomicInteger mNewConnectionCount = new AtomicInteger();
+    private final AtomicInteger mReusedConnectionCount = new AtomicInteger();
+
+    private final RefreshTimings mTimings;
+    private final EndpointLatencies mLatencies;
+    private final EndpointHealth mHealth = new EndpointHealth();
+    private final CachingDns mDns;
+    private final BoundedBodyReader mBodyReader = BoundedBodyReader.text(MAX_BODY_BYTES);
+
+    /**
+     * Clones of the client for other timeouts, or without redirects, by {@link #clientKey}.
+     * Least recently used first, guarded by itself.
+     */
+    @SuppressWarnings("serial")
+    private final LinkedHashMap<Long, OkHttpClient> mClients = new LinkedHashMap<Long, OkHttpClient>(MAX_CLIENTS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, OkHttpClient> eldest) {
+            return size() > MAX_CLIENTS;
+        }
+    };
+    // how many clones were made, guarded by mClients
+    private int mCloneCount;
+
+    // the hosts being pre-warmed and their calls, guarded by itself
+    private final Map<String, Call> mWarmingHosts = new HashMap<String, Call>();
+
+    /**
+     * Cancels the calls that run past their deadline. One daemon thread, idle most of the time.
+     */
+    private final ScheduledExecutorService mWatchdog = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "http-deadline-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * When the current call started, and how long its DNS lookup took, in nanoseconds.
+     * The whole interceptor chain of a call runs on one thread, so a thread local is enough
+     * to carry them from one interceptor to the other, and it is allocated once per thread.
+     */
+    private final ThreadLocal<long[]> mCallTimes = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[2];
+        }
+    };
+    private static final int CALL_START = 0;
+    private static final int CALL_DNS = 1;
+
+    /**
+     * A client with default timeout bounds, whose latency estimates are not saved
+     *
+     * @param timings : where to record how long DNS, connect, TTFB and body read took
+     */
+    public NetInfoHttpClient(RefreshTimings timings) {
+        this(timings, new EndpointLatencies(null, TIMEOUT_MS, MIN_TIMEOUT_MS, MAX_TIMEOUT_MS));
+    }
+
+    /**
+     * @param timings   : where to record how long DNS, connect, TTFB and body read took
+     * @param latencies : the latencies of each host, the timeouts of its requests are derived from
+     */
+    public NetInfoHttpClient(RefreshTimings timings, EndpointLatencies latencies) {
+        mTimings = timings;
+        mLatencies = latencies;
+        mClient = new OkHttpClient();
+
+        mClient.setConnectionPool(new ConnectionPool(MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION_MS));
+        mClient.setDispatcher(new Dispatcher());
+
+        mClient.setConnectTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        mClient.setWriteTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        mClient.setReadTimeout(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+        // cache the DNS answers, and time the lookups that are actually sent
+        mDns = new CachingDns(new Dns() {
+            @Override
+            public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+                long start = mTimings.begin(RefreshTimings.Stage.DNS);
+                try {
+                    return Dns.SYSTEM.lookup(hostname);
+                } finally {
+                    mCallTimes.get()[CALL_DNS] += mTimings.end(RefreshTimings.Stage.DNS, start);
+                }
+            }
+        }, DNS_TTL_MS);
+        mClient.setDns(mDns);
+
+        // an application interceptor sees the call before any DNS lookup or connection
+        mClient.interceptors().add(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                long[] callTimes = mCallTimes.get();
+                callTimes[CALL_START] = System.nanoTime();
+                callTimes[CALL_DNS] = 0;
+                return chain.proceed(chain.request());
+            }
+        });
+
+        // a network interceptor sees the actual connection used for each request,
+        // which tells us whether it came out of the pool or was just opened
+        mClient.networkInterceptors().add(new Interceptor() {
+            @Override
+            public Response intercept(Chain chain) throws IOException {
+                String host = chain.request().httpUrl().host();
+                boolean untimed = isOutsideRefresh(chain.request());
+                if (countConnection(chain.connection())) {
+                    // connecting is what happened since the call started, apart from DNS
+                    long[] callTimes = mCallTimes.get();
+                    long connectNanos = System.nanoTime() - callTimes[CALL_START] - callTimes[CALL_DNS];
+                    if (!untimed) {
+                        mTimings.record(RefreshTimings.Stage.CONNECT, connectNanos);
+                    }
+                    mLatencies.recordConnect(host, TimeUnit.NANOSECONDS.toMillis(connectNanos));
+                }
+
+                long start = untimed ? System.nanoTime() : mTimings.begin(RefreshTimings.Stage.TTFB);
+                boolean answered = false;
+                try {
+                    Response response = chain.proceed(chain.request());
+                    answered = true;
+                    return response;
+                } finally {
+                    long ttfbNanos = untimed ? System.nanoTime() - start : mTimings.end(RefreshTimings.Stage.TTFB, start);
+                    // a failure says nothing about how fast the host answers
+                    if (answered) {
+                        mLatencies.recordResponse(host, TimeUnit.NANOSECONDS.toMillis(ttfbNanos));
+                    }
+                }
+            }
+        });
+
+        // cloned last, to share the interceptors; downloads are always made with a deadline
+        mDownloadClient = mClient.clone();
+        mDownloadClient.setWriteTimeout(0, TimeUnit.MILLISECONDS);
+        mDownloadClient.setReadTimeout(0, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Retrieves the content of a URL
+     * gzip and keep-alive are handled transparently by OkHttp
+     *
+     * @param url : the url of the web page
+     * @return the content as a {@link String}
+     * @throws IOException if the request failed or timed out
+     */
+    public String fetch(String url) throws IOException {
+        return fetch(url, (Object) null, null);
+    }
+
+    /**
+     * Retrieves the content of a URL, as part of a group of calls that can be cancelled together,
+     * within a deadline
+     *
+     * @param url      : the url of the web page
+     * @param tag      : the group of the call, for {@link #cancel(Object)}; null if none
+     * @param deadline : when the call is aborted, whatever it is doing; null for the default timeouts only
+     * @return the content as a {@link String}
+     * @throws IOException if the request failed, timed out, was cancelled or ran past the deadline,
+     *                     if the endpoint answered with an error status, a web page or more than 16 kB,
+     *                     or is skipped after failing too often
+     */
+    public String fetch(String url, Object tag, Deadline deadline) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .tag(tag)
+                .build();
+
+        Call call = clientFor(request, deadline).newCall(request);
+        checkHealth(request);
+        Future<?> watchdog = abortAtDeadline(call, deadline);
+        try {
+            String body = readBody(checkResponse(request, call.execute()), mBodyReader);
+            mHealth.recordSuccess(request.httpUrl().host());
+            return body;
+        } catch (IOException e) {
+            recordFailure(call, request, e);
+            throw deadlineExceeded(deadline, e);
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Retrieves a URL and reads its content as it arrives, without buffering it whole
+     *
+     * @param url    : the url of the web page
+     * @param reader : what to make of the content
+     * @return what the reader made of the content
+     * @throws IOException if the request failed, timed out, or the content could not be read
+     */
+    public <T> T fetch(String url, BodyReader<T> reader) throws IOException {
+        return fetch(url, reader, null, null);
+    }
+
+    /**
+     * Retrieves a URL and reads its content as it arrives, as part of a group of calls
+     * that can be cancelled together, within a deadline
+     *
+     * @param url      : the url of the web page
+     * @param reader   : what to make of the content
+     * @param tag      : the group of the call, for {@link #cancel(Object)}; null if none
+     * @param deadline : when the call is aborted, reading included; null for the default timeouts only
+     * @return what the reader made of the content
+     * @throws IOException if the request failed, timed out, was cancelled, ran past the deadline,
+     *                     the endpoint answered with an error status or is skipped after failing too often,
+     *                     or the content could not be read
+     */
+    public <T> T fetch(String url, BodyReader<T> reader, Object tag, Deadline deadline) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .tag(tag)
+                .build();
+
+        Call call = clientFor(request, deadline).newCall(request);
+        checkHealth(request);
+        Future<?> watchdog = abortAtDeadline(call, deadline);
+        try {
+            T result = readBody(checkResponse(request, call.execute()), reader);
+            mHealth.recordSuccess(request.httpUrl().host());
+            return result;
+        } catch (IOException e) {
+            // content that cannot be read is as much a failure as an error status
+            recordFailure(call, request, e);
+            throw deadlineExceeded(deadline, e);
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Times a HEAD request, for the latency probes
+     * Pings are not recorded in the refresh timings, and do not count for the health of the host.
+     * They wait for the timeout they are given, not for the timeout adapted to the host:
+     * a probe that waits longer than the usual latency is what tells about the spikes.
+     *
+     * @param url       : the url to ask, the answer does not matter as long as there is one
+     * @param timeoutMs : how long to wait for the answer
+     * @return how long the request took, in microseconds
+     * @throws IOException if the request failed or timed out
+     */
+    public long ping(String url, long timeoutMs) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .head()
+                .tag(PING_TAG)
+                .build();
+
+        Deadline deadline = Deadline.in(timeoutMs);
+        Call call = clientWith(timeoutMs, timeoutMs, true).newCall(request);
+        Future<?> watchdog = abortAtDeadline(call, deadline);
+        try {
+            long start = System.nanoTime();
+            call.execute().body().close();
+            return (System.nanoTime() - start) / 1000;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Streams the content of a URL through a reader, for the throughput tests
+     * Downloads are not recorded in the refresh timings, and do not count for the health of the host.
+     * The body is not buffered: the reader gets it as it arrives, and can stop before its end.
+     * Only connecting has a timeout: a network too slow for the lookups can still be measured.
+     *
+     * @param url      : the url of the file
+     * @param reader   : what to do with the content, as it is streamed
+     * @param deadline : when the call is aborted, reading included
+     * @return what the reader made of the content
+     * @throws IOException if the request failed, timed out, was cancelled with {@link #cancelDownloads()},
+     *                     ran past the deadline or the server answered with an error status
+     */
+    public <T> T download(String url, BodyReader<T> reader, Deadline deadline) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .tag(DOWNLOAD_TAG)
+                .build();
+
+        if (deadline.isExpired()) {
+            throw new InterruptedIOException("deadline expired");
+        }
+        Call call = mDownloadClient.newCall(request);
+        Future<?> watchdog = abortAtDeadline(call, deadline);
+        try {
+            BufferedSource source = checkResponse(request, call.execute()).body().source();
+            try {
+                return reader.read(source);
+            } finally {
+                source.close();
+            }
+        } catch (IOException e) {
+            throw deadlineExceeded(deadline, e);
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Aborts the downloads in progress
+     */
+    public void cancelDownloads() {
+        mClient.cancel(DOWNLOAD_TAG);
+    }
+
+    /**
+     * Finds out whether the internet can be reached, with a URL that answers an empty 204
+     * (like http://connectivitycheck.gstatic.com/generate_204). Redirects are not followed:
+     * a captive portal is recognized by its very first answer, whatever it is.
+     * The probe does not count for the health of the host: it is the network that is tested.
+     *
+     * @param url      : the probe URL, plain HTTP so that a portal can intercept it
+     * @param tag      : the group of the call, for {@link #cancel(Object)}; null if none
+     * @param deadline : when to give up; null for the default timeouts only
+     * @return ONLINE for a 204, CAPTIVE for any other answer, OFFLINE if the request could not be sent,
+     * UNKNOWN if it timed out
+     * @throws InterruptedIOException if the call was cancelled
+     */
+    public Reachability probe(String url, Object tag, Deadline deadline) throws InterruptedIOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .tag(tag)
+                .build();
+
+        OkHttpClient client;
+        try {
+            // the answer itself tells us what we want, not where it leads
+            client = clientFor(request, deadline, false);
+        } catch (InterruptedIOException e) {
+            return Reachability.UNKNOWN;
+        }
+
+        Call call = client.newCall(request);
+        Future<?> watchdog = abortAtDeadline(call, deadline);
+        try {
+            Response response = call.execute();
+            response.body().close();
+            return response.code() == 204 ? Reachability.ONLINE : Reachability.CAPTIVE;
+        } catch (IOException e) {
+            if (call.isCanceled()) {
+                if (deadline != null && deadline.remainingMs() == 0) {
+                    // aborted at the deadline (the watchdog works to the millisecond): as good as a timeout
+                    return Reachability.UNKNOWN;
+                }
+                throw new InterruptedIOException("probe cancelled");
+            }
+            // a timeout says the network is slow, not that it is down
+            return e instanceof InterruptedIOException ? Reachability.UNKNOWN : Reachability.OFFLINE;
+        } finally {
+            if (watchdog != null) {
+                watchdog.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Sends the same question to several endpoints and returns the first valid answer.
+     * The first URL is requested right away; a backup request is sent to the next URL
+     * each time {@code hedgeDelayMs} elapses without a valid answer, or as soon as
+     * no request is left in flight after a failure or an invalid answer.
+     * Endpoints that failed too often lately are skipped.
+     * When an answer is accepted, all the other requests are cancelled.
+     *
+     * @param urls        : the endpoints, in order of preference
+     * @param hedgeDelayMs : how long to wait before sending a backup request;
+     *                    0 sends all the requests at once,
+     *                    a negative value only sends a backup request when the previous one failed
+     * @param validator   : tells whether an answer is acceptable
+     * @return the first valid answer, trimmed
+     * @throws IOException if no endpoint gave a valid answer
+     */
+    public String fetchFirst(String[] urls, long hedgeDelayMs, Validator validator) throws IOException {
+        return fetchFirst(urls, hedgeDelayMs, validator, null, null);
+    }
+
+    /**
+     * Same as {@link #fetchFirst(String[], long, Validator)}, each answer being read and checked
+     * as it arrives by a reader, which throws at the first sign of an invalid answer.
+     * Named apart from the validating one: a null reader or validator would not tell which is meant.
+     *
+     * @param reader   : reads an answer, or rejects it
+     * @param tag      : the group of the calls, for {@link #cancel(Object)}; null if none
+     * @param deadline : when to give up on all the endpoints; null for the default timeouts only
+     */
+    public String fetchFirstRead(String[] urls, long hedgeDelayMs, BodyReader<String> reader, Object tag,
+                                 Deadline deadline) throws IOException {
+        return fetchFirst(urls, hedgeDelayMs, reader, null, tag, deadline);
+    }
+
+    /**
+     * Same as {@link #fetchFirst(String[], long, Validator)}, with all the requests in a group
+     * that can be cancelled together, and a deadline for the whole race
+     *
+     * @param tag      : the group of the calls, for {@link #cancel(Object)}; null if none
+     * @param deadline : when to give up on all the endpoints; null for the default timeouts only
+     */
+    public String fetchFirst(String[] urls, long hedgeDelayMs, Validator validator, Object tag,
+                             Deadline deadline) throws IOException {
+        return fetchFirst(urls, hedgeDelayMs, mBodyReader, validator, tag, deadline);
+    }
+
+    /**
+     * @param validator : tells whether an answer the reader accepted is acceptable; null to take it
+     */
+    private String fetchFirst(String[] urls, long hedgeDelayMs, BodyReader<String> reader, Validator validator,
+                              Object tag, Deadline deadline) throws IOException {
+        final BlockingQueue<Object> answers = new LinkedBlockingQueue<Object>();
+        List<Call> calls = new ArrayList<Call>(urls.length);
+        int pending = 0;
+        int next = 0;
+
+        try {
+            while (true) {
+                // launch the next request(s): all at once for a zero delay, one at a time otherwise
+                while (next < urls.length && (pending == 0 || hedgeDelayMs == 0)) {
+                    enqueue(urls[next++], reader, tag, deadline, answers, calls);
+                    pending++;
+                }
+
+                long waitMs = deadline != null ? deadline.remainingMs() : Long.MAX_VALUE;
+                Object answer;
+                if (hedgeDelayMs > 0 && next < urls.length && hedgeDelayMs < waitMs) {
+                    answer = answers.poll(hedgeDelayMs, TimeUnit.MILLISECONDS);
+                    if (answer == null) {
+                        // too slow: hedge with the next endpoint
+                        enqueue(urls[next++], reader, tag, deadline, answers, calls);
+                        pending++;
+                        continue;
+                    }
+                } else if (pending > 0) {
+                    answer = deadline != null ? answers.poll(waitMs, TimeUnit.MILLISECONDS) : answers.take();
+                    if (answer == null) {
+                        throw new InterruptedIOException("no endpoint answered before the deadline");
+                    }
+                } else {
+                    throw new IOException("no endpoint gave a valid answer");
+                }
+                pending--;
+
+                if (answer instanceof String) {
+                    String body = ((String) answer).trim();
+                    if (validator == null || validator.isValid(body)) {
+                        return body;
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("interrupted while waiting for an answer");
+        } finally {
+            // the losers are of no use anymore
+            for (Call call : calls) {
+                call.cancel();
+            }
+        }
+    }
+
+    /**
+     * Sends a request of {@link #fetchFirst}, its answer or failure will be put in the queue
+     *
+     * @param calls : where the call is added, unless the endpoint is skipped
+     */
+    private void enqueue(String url, final BodyReader<String> reader, Object tag, Deadline deadline,
+                         final BlockingQueue<Object> answers, List<Call> calls) throws IOException {
+        Request request = new Request.Builder()
+                .url(url)
+                .tag(tag)
+                .build();
+
+        // no watchdog needed: the caller stops waiting at the deadline, and cancels the calls
+        final Call call = clientFor(request, deadline).newCall(request);
+        if (!mHealth.allowRequest(request.httpUrl().host())) {
+            // counts as a failure right away: the next endpoint is asked without waiting
+            answers.offer(new EndpointUnavailableException(request.httpUrl().host()));
+            return;
+        }
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Request request, IOException e) {
+                recordFailure(call, request, e);
+                answers.offer(e);
+            }
+
+            @Override
+            public void onResponse(Response response) throws IOException {
+                Request request = response.request();
+                try {
+                    String body = readBody(checkResponse(request, response), reader);
+                    mHealth.recordSuccess(request.httpUrl().host());
+                    answers.offer(body);
+                } catch (IOException e) {
+                    recordFailure(call, request, e);
+                    answers.offer(e);
+                }
+            }
+        });
+        calls.add(call);
+    }
+
+    /**
+     * @return a client whose timeouts fit the latencies of the host, without going past the deadline
+     * @throws InterruptedIOException if the deadline has already expired
+     */
+    private OkHttpClient clientFor(Request request, Deadline deadline) throws InterruptedIOException {
+        return clientFor(request, deadline, true);
+    }
+
+    /**
+     * @param followRedirects : false to get the very first answer, whatever it is
+     * @return a client whose timeouts fit the latencies of the host, without going much past the deadline:
+     * they are rounded up to a step, the watchdog aborts the call at the deadline anyway
+     * @throws InterruptedIOException if the deadline has already expired
+     */
+    private OkHttpClient clientFor(Request request, Deadline deadline, boolean followRedirects)
+            throws InterruptedIOException {
+        String host = request.httpUrl().host();
+        long connectMs = mLatencies.getConnectTimeoutMs(host);
+        long responseMs = mLatencies.getResponseTimeoutMs(host);
+        if (deadline != null) {
+            long remainingMs = deadline.remainingMs();
+            if (remainingMs <= 0) {
+                throw new InterruptedIOException("deadline expired");
+            }
+            connectMs = Math.min(connectMs, remainingMs);
+            responseMs = Math.min(responseMs, remainingMs);
+        }
+        return clientWith(connectMs, responseMs, followRedirects);
+    }
+
+    /**
+     * @return a client with these timeouts, rounded up to a step so that a handful of clones are enough
+     */
+    private OkHttpClient clientWith(long connectMs, long responseMs, boolean followRedirects) {
+        connectMs = roundUp(connectMs);
+        responseMs = roundUp(responseMs);
+        if (followRedirects && connectMs == mClient.getConnectTimeout() && responseMs == mClient.getReadTimeout()) {
+            return mClient;
+        }
+
+        Long key = clientKey(connectMs, responseMs, followRedirects);
+        synchronized (mClients) {
+            OkHttpClient client = mClients.get(key);
+            if (client == null) {
+                // a clone shares the pool, the dispatcher and the interceptors: only the timeouts differ
+                client = mClient.clone();
+                client.setConnectTimeout(connectMs, TimeUnit.MILLISECONDS);
+                client.setWriteTimeout(responseMs, TimeUnit.MILLISECONDS);
+                client.setReadTimeout(responseMs, TimeUnit.MILLISECONDS);
+                client.setFollowRedirects(followRedirects);
+                client.setFollowSslRedirects(followRedirects);
+                mClients.put(key, client);
+                mCloneCount++;
+            }
+            return client;
+        }
+    }
+
+    private static long roundUp(long ms) {
+        return (ms + TIMEOUT_STEP_MS - 1) / TIMEOUT_STEP_MS * TIMEOUT_STEP_MS;
+    }
+
+    /**
+     * @return the key of the clone of the client with these settings in {@link #mClients}
+     */
+    private static Long clientKey(long connectMs, long responseMs, boolean followRedirects) {
+        return (connectMs << 32) | (responseMs << 1) | (followRedirects ? 1 : 0);
+    }
+
+    /**
+     * @throws EndpointUnavailableException if the host failed too often lately
+     */
+    private void checkHealth(Request request) throws EndpointUnavailableException {
+        String host = request.httpUrl().host();
+        if (!mHealth.allowRequest(host)) {
+            throw new EndpointUnavailableException(host);
+        }
+    }
+
+    /**
+     * @return the response, if its status is 2xx and it is not a web page
+     * @throws HttpStatusException if the status is not 2xx, the body being released
+     * @throws InvalidResponseException if the content is HTML, the body being released:
+     *                                  none of our endpoints answers a page, a captive portal does
+     */
+    private static Response checkResponse(Request request, Response response) throws IOException {
+        IOException rejected = null;
+        if (!response.isSuccessful()) {
+            rejected = new HttpStatusException(request.urlString(), response.code());
+        } else {
+            MediaType contentType = response.body().contentType();
+            if (contentType != null && contentType.subtype().contains("html")) {
+                rejected = new InvalidResponseException(String.format("url %s answered %s", request.urlString(), contentType), true);
+            }
+        }
+        if (rejected == null) {
+            return response;
+        }
+        try {
+            response.body().close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+        throw rejected;
+    }
+
+    /**
+     * Counts a failure against the host, unless it says nothing about it: the call was cancelled,
+     * or the network did not let it reach the host. A captive portal fails every host alike,
+     * opening their breakers would keep them skipped long after the portal is logged in to.
+     * A timed out request also makes the next ones to the same host wait longer.
+     */
+    private void recordFailure(Call call, Request request, IOException e) {
+        String host = request.httpUrl().host();
+        if (call.isCanceled() || isConnectivityFailure(e)) {
+            mHealth.recordAbandoned(host);
+            return;
+        }
+        mHealth.recordFailure(host);
+        if (e instanceof SocketTimeoutException) {
+            mLatencies.recordTimeout(host);
+        }
+    }
+
+    /**
+     * A refused connection or an answer that is not a page (junk, an error status) does come from
+     * the host, and counts against it.
+     *
+     * @return true if the failure comes from the network we are on rather than from the host:
+     * no name resolution, no route, or a page or redirection from a captive portal
+     */
+    private static boolean isConnectivityFailure(IOException e) {
+        if (e instanceof UnknownHostException || e instanceof NoRouteToHostException) {
+            return true;
+        }
+        if (e instanceof InvalidResponseException) {
+            return ((InvalidResponseException) e).isMarkup();
+        }
+        if (e instanceof HttpStatusException) {
+            int code = ((HttpStatusException) e).getCode();
+            return code >= 300 && code < 400;
+        }
+        return false;
+    }
+
+    /**
+     * Timeouts bound each socket operation, not the whole call: cancel the call at the deadline,
+     * so that a slow trickle of bytes cannot keep it going
+     *
+     * @return the scheduled cancellation, to be cancelled once the call is done; null if no deadline
+     */
+    private Future<?> abortAtDeadline(final Call call, Deadline deadline) {
+        if (deadline == null) {
+            return null;
+        }
+        // to the nanosecond: rounded down, it could fire before the deadline expires and pass for a plain failure
+        return mWatchdog.schedule(new Runnable() {
+            @Override
+            public void run() {
+                call.cancel();
+            }
+        }, deadline.remainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the failure of a call, told apart from a plain timeout if the deadline is what stopped it
+     */
+    private static IOException deadlineExceeded(Deadline deadline, IOException e) {
+        if (deadline == null || !deadline.isExpired()) {
+            return e;
+        }
+        InterruptedIOException exceeded = new InterruptedIOException("deadline expired");
+        exceeded.initCause(e);
+        return exceeded;
+    }
+
+    /**
+     * Resolves the hosts of the URLs and opens a keep-alive connection to each of them, in the
+     * background, so that the lookups that follow find both in the caches.
+     * A host already being warmed is skipped. Failures are ignored: the real request will tell.
+     *
+     * @param urls : the URLs that are about to be requested
+     */
+    public void prewarm(String... urls) {
+        for (String url : urls) {
+            HttpUrl httpUrl = HttpUrl.parse(url);
+            if (httpUrl == null) {
+                continue;
+            }
+            final String host = httpUrl.host();
+
+            // the root of the site is enough to connect, and HEAD keeps the answer small
+            Request request = new Request.Builder()
+                    .url(httpUrl.resolve("/"))
+                    .head()
+                    .tag(PREWARM_TAG)
+                    .build();
+            final Call call;
+            try {
+                call = clientFor(request, null).newCall(request);
+            } catch (IOException e) {
+                // no deadline, cannot happen
+                continue;
+            }
+            synchronized (mWarmingHosts) {
+                if (mWarmingHosts.containsKey(host)) {
+                    continue;
+                }
+                mWarmingHosts.put(host, call);
+            }
+            call.enqueue(new Callback() {
+                @Override
+                public void onFailure(Request request, IOException e) {
+                    warmed(host, call);
+                }
+
+                @Override
+                public void onResponse(Response response) throws IOException {
+                    // gives the connection back to the pool
+                    response.body().close();
+                    warmed(host, call);
+                }
+            });
+        }
+    }
+
+    private void warmed(String host, Call call) {
+        synchronized (mWarmingHosts) {
+            // a call cancelled by a network change must not forget the one warming the host since
+            if (mWarmingHosts.get(host) == call) {
+                mWarmingHosts.remove(host);
+            }
+        }
+    }
+
+    /**
+     * @return how many hosts are being pre-warmed
+     */
+    int getWarmingCount() {
+        synchronized (mWarmingHosts) {
+            return mWarmingHosts.size();
+        }
+    }
+
+    /**
+     * Forgets the DNS answers, the health of the hosts, and closes the idle connections,
+     * which belong to the previous network
+     */
+    public void onNetworkChanged() {
+        mClient.cancel(PREWARM_TAG);
+        // the cancelled calls must not keep their hosts from being warmed on the new network
+        synchronized (mWarmingHosts) {
+            mWarmingHosts.clear();
+        }
+        mDns.clear();
+        mHealth.clear();
+        mClient.getConnectionPool().evictAll();
+    }
+
+    /**
+     * Aborts all the calls of a group, whether they are waiting, connecting or reading.
+     * The threads blocked on them get an {@link IOException} right away.
+     *
+     * @param tag : the group of the calls, as given to the fetch methods
+     */
+    public void cancel(Object tag) {
+        mClient.cancel(tag);
+    }
+
+    /**
+     * @return the latencies of the hosts, and the timeouts derived from them
+     */
+    public EndpointLatencies getLatencies() {
+        return mLatencies;
+    }
+
+    /**
+     * @return the health of the hosts, and whether they are skipped
+     */
+    public EndpointHealth getHealth() {
+        return mHealth;
+    }
+
+    /**
+     * @return the number of requests that had to open a new connection
+     */
+    public int getNewConnectionCount() {
+        return mNewConnectionCount.get();
+    }
+
+    /**
+     * @return the number of requests that were sent on a pooled keep-alive connection
+     */
+    public int getReusedConnectionCount() {
+        return mReusedConnectionCount.get();
+    }
+
+    /**
+     * @return how many clones of the client were made for other timeouts
+     */
+    int getCloneCount() {
+        synchronized (mClients) {
+            return mCloneCount;
+        }
+    }
+
+    /**
+     * Reads the content of a response with a reader, timing it
+     * The body is released even if the reader stopped before its end.
+     */
+    private <T> T readBody(Response response, BodyReader<T> reader) throws IOException {
+        BufferedSource source = response.body().source();
+        long start = mTimings.begin(RefreshTimings.Stage.BODY);
+        try {
+            return reader.read(source);
+        } finally {
+            mTimings.end(RefreshTimings.Stage.BODY, start);
+            source.close();
+        }
+    }
+
+    /**
+     * @return true if the request is not part of a refresh, and must stay out of the refresh timings:
+     * pre-warming, latency probes and throughput tests
+     */
+    private static boolean isOutsideRefresh(Request request) {
+        Object tag = request.tag();
+        return tag == PREWARM_TAG || tag == PING_TAG || tag == DOWNLOAD_TAG;
+    }
+
+    /**
+     * @return true if the connection was just opened, false if it was reused
+     */
+    private boolean countConnection(Connection connection) {
+        if (connection == null) {
+            return false;
+        }
+        if (mSeenConnections.put(connection, Boolean.TRUE) == null) {
+            mNewConnectionCount.incrementAndGet();
+            return true;
+        } else {
+            mReusedConnectionCount.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Tells whether an answer returned by an endpoint can be used
+     */
+    public interface Validator {
+        boolean isValid(String body);
+    }
+
+    /**
+     * Makes something out of the content of a response, as it is streamed
+     */
+    public interface BodyReader<T> {
+        T read(BufferedSource source) throws IOException;
+    }
+}
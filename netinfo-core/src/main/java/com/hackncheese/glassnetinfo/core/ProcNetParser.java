@@ -0,0 +1,175 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Parses the files of {@code /proc/net} that tell us about the local addresses and routes.
+ * Plain Java working on readers, so that it can be fed with fixture files.
+ */
+public final class ProcNetParser {
+
+    // route flags, from linux/route.h
+    private static final int RTF_UP = 0x0001;
+    private static final int RTF_GATEWAY = 0x0002;
+
+    // address scope, from linux/rtnetlink.h
+    private static final int SCOPE_GLOBAL = 0x00;
+
+    private ProcNetParser() {
+    }
+
+    /**
+     * A default route, as found in {@code /proc/net/route}
+     */
+    public static final class Route {
+        public final String iface;
+        public final String gateway;
+
+        Route(String iface, String gateway) {
+            this.iface = iface;
+            this.gateway = gateway;
+        }
+    }
+
+    /**
+     * Finds the default route in the content of {@code /proc/net/route}, which looks like:
+     * <pre>
+     * Iface	Destination	Gateway 	Flags	RefCnt	Use	Metric	Mask		MTU	Window	IRTT
+     * wlan0	00000000	0101A8C0	0003	0	0	0	00000000	0	0	0
+     * wlan0	0001A8C0	00000000	0001	0	0	0	00FFFFFF	0	0	0
+     * </pre>
+     * Addresses are in hexadecimal, in the byte order of the host (little endian on ARM and x86).
+     *
+     * @return the default route with the lowest metric, or null if there is none
+     */
+    public static Route parseDefaultRoute(BufferedReader reader) throws IOException {
+        Route best = null;
+        int bestMetric = Integer.MAX_VALUE;
+
+        // skip the header
+        String line = reader.readLine();
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 8) {
+                continue;
+            }
+            try {
+                long destination = Long.parseLong(fields[1], 16);
+                long gateway = Long.parseLong(fields[2], 16);
+                int flags = Integer.parseInt(fields[3], 16);
+                int metric = Integer.parseInt(fields[6]);
+                long mask = Long.parseLong(fields[7], 16);
+
+                boolean isDefault = destination == 0 && mask == 0
+                        && (flags & RTF_UP) != 0 && (flags & RTF_GATEWAY) != 0;
+                if (isDefault && metric < bestMetric) {
+                    best = new Route(fields[0], littleEndianToIPv4(gateway));
+                    bestMetric = metric;
+                }
+            } catch (NumberFormatException e) {
+                // not a route line
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Reads the IPv6 addresses in the content of {@code /proc/net/if_inet6}, which looks like:
+     * <pre>
+     * 20010db8000000000000000000000001 05 40 00 80     wlan0
+     * fe800000000000000000000000000001 05 40 20 80     wlan0
+     * </pre>
+     * (address, interface index, prefix length, scope, flags, interface name)
+     *
+     * @return the addresses of each interface, global addresses first
+     */
+    public static Map<String, List<String>> parseIPv6Addresses(BufferedReader reader) throws IOException {
+        Map<String, List<String>> addresses = new LinkedHashMap<String, List<String>>();
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            String[] fields = line.trim().split("\\s+");
+            if (fields.length < 6 || fields[0].length() != 32) {
+                continue;
+            }
+            int scope;
+            try {
+                scope = Integer.parseInt(fields[3], 16);
+            } catch (NumberFormatException e) {
+                continue;
+            }
+
+            List<String> list = addresses.get(fields[5]);
+            if (list == null) {
+                list = new ArrayList<String>(2);
+                addresses.put(fields[5], list);
+            }
+            String address = formatIPv6(fields[0]);
+            if (scope == SCOPE_GLOBAL) {
+                list.add(0, address);
+            } else {
+                list.add(address);
+            }
+        }
+
+        return addresses;
+    }
+
+    /**
+     * @param hex : an IPv4 address as an int in little endian, like 0x0101A8C0
+     * @return the dotted-quad address, like 192.168.1.1
+     */
+    static String littleEndianToIPv4(long hex) {
+        return (hex & 0xff) + "." + ((hex >> 8) & 0xff) + "." + ((hex >> 16) & 0xff) + "." + ((hex >> 24) & 0xff);
+    }
+
+    /**
+     * @param hex : 32 hexadecimal digits, like 20010db8000000000000000000000001
+     * @return the compressed IPv6 text, like 2001:db8::1
+     */
+    static String formatIPv6(String hex) {
+        int[] groups = new int[8];
+        for (int i = 0; i < 8; i++) {
+            groups[i] = Integer.parseInt(hex.substring(i * 4, i * 4 + 4), 16);
+        }
+
+        // find the longest run of zero groups, to replace it with "::"
+        int bestStart = -1;
+        int bestLength = 1;
+        for (int i = 0; i < 8; ) {
+            if (groups[i] != 0) {
+                i++;
+                continue;
+            }
+            int j = i;
+            while (j < 8 && groups[j] == 0) {
+                j++;
+            }
+            if (j - i > bestLength) {
+                bestStart = i;
+                bestLength = j - i;
+            }
+            i = j;
+        }
+
+        StringBuilder sb = new StringBuilder(39);
+        for (int i = 0; i < 8; i++) {
+            if (i == bestStart) {
+                sb.append("::");
+                i += bestLength - 1;
+                continue;
+            }
+            if (sb.length() > 0 && sb.charAt(sb.length() - 1) != ':') {
+                sb.append(':');
+            }
+            sb.append(Integer.toHexString(groups[i]));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,192 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers the provider of the external IP addresses we have already seen,
+ * so that we do not ask the "ip info" service again for an address we know.
+ * <p/>
+ * Entries live in memory in least recently used order, are dropped once older than the TTL,
+ * and are saved to a small binary file so that they survive the process.
+ * All methods are synchronized: the cache is used from both the UI thread and background tasks.
+ */
+public class ProviderCache {
+
+    // bump when the file format changes, older files are then ignored
+    private static final int FILE_VERSION = 1;
+
+    private final File mFile;
+    private final long mTtlMs;
+    private final LinkedHashMap<String, CachedInfo> mEntries;
+    private boolean mLoaded;
+
+    private int mHitCount;
+    private int mMissCount;
+    private int mEvictionCount;
+
+    /**
+     * @param file       : where the entries are saved
+     * @param maxEntries : how many addresses to remember at most
+     * @param ttlMs      : how long an entry can be used after it was stored
+     */
+    @SuppressWarnings("serial")
+    public ProviderCache(File file, final int maxEntries, long ttlMs) {
+        mFile = file;
+        mTtlMs = ttlMs;
+        // access order = least recently used first
+        mEntries = new LinkedHashMap<String, CachedInfo>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedInfo> eldest) {
+                if (size() > maxEntries) {
+                    mEvictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param ip : an external IP address
+     * @return what we know about this address, or null if it is unknown or too old
+     */
+    public synchronized IpInfo get(String ip) {
+        ensureLoaded();
+
+        CachedInfo entry = mEntries.get(ip);
+        if (entry != null && System.currentTimeMillis() - entry.storedAt > mTtlMs) {
+            mEntries.remove(ip);
+            mEvictionCount++;
+            entry = null;
+        }
+
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.info;
+    }
+
+    /**
+     * Remembers the provider of an address, and saves the cache to its file
+     * Does disk I/O, do not call from the UI thread.
+     */
+    public synchronized void put(IpInfo info) {
+        ensureLoaded();
+
+        mEntries.put(info.getIp(), new CachedInfo(info, System.currentTimeMillis()));
+        save();
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    public synchronized int getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * Reads the file the first time the cache is used
+     * A missing or unreadable file just means an empty cache.
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != FILE_VERSION) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long storedAt = in.readLong();
+                IpInfo info = new IpInfo(in.readUTF(), readNullableUTF(in), readNullableUTF(in),
+                        readNullableUTF(in), readNullableUTF(in));
+                // the file is written least recently used first, so the access order is kept
+                if (now - storedAt <= mTtlMs) {
+                    mEntries.put(info.getIp(), new CachedInfo(info, storedAt));
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // nothing saved yet
+        } catch (IOException e) {
+            mEntries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void save() {
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mFile)));
+            out.writeInt(FILE_VERSION);
+            out.writeInt(mEntries.size());
+            for (CachedInfo entry : mEntries.values()) {
+                out.writeLong(entry.storedAt);
+                out.writeUTF(entry.info.getIp());
+                writeNullableUTF(out, entry.info.getAsn());
+                writeNullableUTF(out, entry.info.getOrg());
+                writeNullableUTF(out, entry.info.getCity());
+                writeNullableUTF(out, entry.info.getCountry());
+            }
+        } catch (IOException e) {
+            // the in-memory cache still works, we will try again on the next put
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    private static class CachedInfo {
+        final IpInfo info;
+        final long storedAt;
+
+        CachedInfo(IpInfo info, long storedAt) {
+            this.info = info;
+            this.storedAt = storedAt;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * Whether the internet can be reached from the network we are on, as told by a reachability probe
+ */
+public enum Reachability {
+    // the probe got its empty 204 answer
+    ONLINE,
+    // something answered in place of the probe: a captive portal (a redirect, a login page, a 511...)
+    CAPTIVE,
+    // the probe could not even be sent: no route, no DNS, connection refused
+    OFFLINE,
+    // the probe did not answer in time: the network may only be slow
+    UNKNOWN;
+
+    /**
+     * @return true if the lookups of the external IP are worth trying
+     */
+    public boolean allowsLookups() {
+        return this == ONLINE || this == UNKNOWN;
+    }
+}
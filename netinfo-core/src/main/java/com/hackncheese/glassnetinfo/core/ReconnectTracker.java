@@ -0,0 +1,164 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.util.Arrays;
+
+/**
+ * Follows WiFi through a toggle, phase by phase, and times each transition.
+ * <p/>
+ * Turning WiFi on goes ENABLING, RADIO_ON, ASSOCIATED, CONNECTED (DHCP lease) then ONLINE (the
+ * internet answered); turning it off goes DISABLING then OFF. The phases are fed from the WiFi
+ * broadcasts, which can come late, twice or out of order: the tracker only moves forward, and a
+ * phase reached without its predecessors being seen counts them as reached at the same time.
+ * Not thread safe: meant to be used from the UI thread, where the broadcasts are received.
+ */
+public class ReconnectTracker {
+
+    public enum Phase {
+        DISABLING("disabling"),
+        OFF("off"),
+        ENABLING("enabling"),
+        RADIO_ON("radio on"),
+        ASSOCIATED("associated"),
+        CONNECTED("IP assigned"),
+        ONLINE("online");
+
+        private final String mLabel;
+
+        Phase(String label) {
+            mLabel = label;
+        }
+
+        /**
+         * @return a short name, for the card and the logs
+         */
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    // when each phase was reached, -1 if it was not
+    private final long[] mReachedAtMs = new long[Phase.values().length];
+    private Phase mPhase;
+    private boolean mTracking;
+    private String mAccessPoint;
+
+    /**
+     * @param phase : the phase WiFi is in now, before any toggle
+     */
+    public ReconnectTracker(Phase phase) {
+        mPhase = phase;
+        Arrays.fill(mReachedAtMs, -1);
+    }
+
+    /**
+     * Starts timing a toggle
+     *
+     * @param enable : true if WiFi is being turned on, false if off
+     * @param nowMs  : the current time, in ms
+     */
+    public void start(boolean enable, long nowMs) {
+        Arrays.fill(mReachedAtMs, -1);
+        mPhase = enable ? Phase.ENABLING : Phase.DISABLING;
+        mReachedAtMs[mPhase.ordinal()] = nowMs;
+        mTracking = true;
+    }
+
+    /**
+     * Reports a phase WiFi has reached
+     *
+     * @param phase : the phase, as told by a broadcast
+     * @param nowMs : the current time, in ms
+     * @return true if the tracker moved to this phase, false if it is behind or not on the way
+     */
+    public boolean reach(Phase phase, long nowMs) {
+        if (!mTracking || !isNext(phase)) {
+            return false;
+        }
+        // the phases we did not hear about were gone through on the way
+        for (int i = mPhase.ordinal() + 1; i <= phase.ordinal(); i++) {
+            mReachedAtMs[i] = nowMs;
+        }
+        mPhase = phase;
+        if (phase == Phase.OFF || phase == Phase.ONLINE) {
+            mTracking = false;
+        }
+        return true;
+    }
+
+    private boolean isNext(Phase phase) {
+        if (phase.ordinal() <= mPhase.ordinal()) {
+            return false;
+        }
+        // turning off only goes to OFF, turning on never does
+        return mPhase == Phase.DISABLING ? phase == Phase.OFF : phase.ordinal() > Phase.OFF.ordinal();
+    }
+
+    /**
+     * Stops timing, when the toggle will not get anywhere (WiFi turned off meanwhile...)
+     */
+    public void cancel() {
+        mTracking = false;
+    }
+
+    /**
+     * @param accessPoint : the access point WiFi associated with, to compare reconnects across them
+     */
+    public void setAccessPoint(String accessPoint) {
+        mAccessPoint = accessPoint;
+    }
+
+    /**
+     * @return the access point WiFi associated with, null if not known
+     */
+    public String getAccessPoint() {
+        return mAccessPoint;
+    }
+
+    public Phase getPhase() {
+        return mPhase;
+    }
+
+    /**
+     * @return true once a toggle was started, even if it is over
+     */
+    public boolean hasStarted() {
+        return mReachedAtMs[Phase.DISABLING.ordinal()] >= 0 || mReachedAtMs[Phase.ENABLING.ordinal()] >= 0;
+    }
+
+    /**
+     * @return true while a toggle is under way
+     */
+    public boolean isTracking() {
+        return mTracking;
+    }
+
+    /**
+     * @return how long it took to reach the phase from the previous one, -1 if it was not reached
+     */
+    public long getDurationMs(Phase phase) {
+        long reachedAt = mReachedAtMs[phase.ordinal()];
+        if (reachedAt < 0) {
+            return -1;
+        }
+        // the previous phase is the last one reached before it
+        for (int i = phase.ordinal() - 1; i >= 0; i--) {
+            if (mReachedAtMs[i] >= 0) {
+                return reachedAt - mReachedAtMs[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param nowMs : the current time, in ms
+     * @return how long the toggle took, or has been going on for
+     */
+    public long getElapsedMs(long nowMs) {
+        long startedAt = Math.max(mReachedAtMs[Phase.DISABLING.ordinal()], mReachedAtMs[Phase.ENABLING.ordinal()]);
+        if (startedAt < 0) {
+            return 0;
+        }
+        long endedAt = mTracking ? nowMs : mReachedAtMs[mPhase.ordinal()];
+        return endedAt - startedAt;
+    }
+}
@@ -0,0 +1,120 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * Keeps track of the refresh in progress, so that it can be joined, superseded or cancelled.
+ * <p/>
+ * Each refresh is a new {@link Generation}. Its HTTP calls are tagged with it, so that cancelling
+ * the generation really aborts them, instead of leaving a thread blocked on a socket.
+ * Results of a generation that is not the current one anymore must be dropped, so that a slow
+ * lookup cannot overwrite what a newer one found.
+ */
+public class RefreshCoordinator {
+
+    private final NetInfoHttpClient mClient;
+
+    private Generation mCurrent;
+    private int mLastNumber;
+    private int mJoinedCount;
+
+    /**
+     * @param client : the client the calls of the refreshes go through
+     */
+    public RefreshCoordinator(NetInfoHttpClient client) {
+        mClient = client;
+    }
+
+    /**
+     * Starts a refresh, unless one is already running, in which case the caller joins it:
+     * the running refresh will deliver its results to everyone.
+     *
+     * @return the new generation, or null if the caller joined the running one
+     */
+    public synchronized Generation startOrJoin() {
+        if (mCurrent != null) {
+            mJoinedCount++;
+            return null;
+        }
+        return start();
+    }
+
+    /**
+     * Starts a refresh, cancelling the running one if any, for when what it would find
+     * is known to be out of date (the network changed)
+     *
+     * @return the new generation
+     */
+    public synchronized Generation start() {
+        cancel();
+        mCurrent = new Generation(++mLastNumber);
+        return mCurrent;
+    }
+
+    /**
+     * @return true if the results of the generation can be shown
+     */
+    public synchronized boolean isCurrent(Generation generation) {
+        return generation != null && generation == mCurrent;
+    }
+
+    /**
+     * Marks a generation as done, so that the next refresh starts anew
+     *
+     * @return true if it was the current one, false if it had been superseded or cancelled
+     */
+    public synchronized boolean finish(Generation generation) {
+        if (!isCurrent(generation)) {
+            return false;
+        }
+        mCurrent = null;
+        return true;
+    }
+
+    /**
+     * Cancels the running refresh, if any, and aborts its calls
+     */
+    public synchronized void cancel() {
+        if (mCurrent != null) {
+            mCurrent.mCancelled = true;
+            mClient.cancel(mCurrent);
+            mCurrent = null;
+        }
+    }
+
+    /**
+     * @return true if a refresh is running
+     */
+    public synchronized boolean isRunning() {
+        return mCurrent != null;
+    }
+
+    /**
+     * @return how many refresh requests joined a running refresh instead of starting one
+     */
+    public synchronized int getJoinedCount() {
+        return mJoinedCount;
+    }
+
+    /**
+     * One refresh. Also the tag of its HTTP calls.
+     */
+    public static final class Generation {
+        private final int mNumber;
+        private volatile boolean mCancelled;
+
+        private Generation(int number) {
+            mNumber = number;
+        }
+
+        /**
+         * @return true if the refresh was cancelled or superseded: stop working on it
+         */
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+
+        @Override
+        public String toString() {
+            return "refresh #" + mNumber;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * Times each stage of a refresh and keeps a {@link LatencyHistogram} per stage.
+ * <p/>
+ * Stages are also marked as trace sections through a {@link Tracer}, so that they show up in
+ * systrace. Recording allocates nothing, so timing a stage does not disturb what it measures.
+ */
+public class RefreshTimings {
+
+    /**
+     * The stages of a refresh
+     */
+    public enum Stage {
+        LOCAL_SCAN("local scan"),
+        SSID("SSID"),
+        DNS("DNS"),
+        CONNECT("connect"),
+        TTFB("TTFB"),
+        BODY("body read"),
+        RENDER("render");
+
+        private final String mLabel;
+
+        Stage(String label) {
+            mLabel = label;
+        }
+
+        /**
+         * @return a short name, for the diagnostics card and trace sections
+         */
+        public String getLabel() {
+            return mLabel;
+        }
+    }
+
+    /**
+     * Marks sections in a trace, like {@code android.os.Trace}
+     * Sections nest, and must be ended on the thread that began them.
+     */
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    private static final Tracer NO_TRACER = new Tracer() {
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+    };
+
+    private final LatencyHistogram[] mHistograms = new LatencyHistogram[Stage.values().length];
+    private final Tracer mTracer;
+
+    public RefreshTimings() {
+        this(NO_TRACER);
+    }
+
+    public RefreshTimings(Tracer tracer) {
+        mTracer = tracer;
+        for (int i = 0; i < mHistograms.length; i++) {
+            mHistograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Starts timing a stage, to be followed by {@link #end(Stage, long)} on the same thread
+     *
+     * @return the start time, to give to {@link #end(Stage, long)}
+     */
+    public long begin(Stage stage) {
+        mTracer.beginSection(stage.getLabel());
+        return System.nanoTime();
+    }
+
+    /**
+     * Ends timing a stage, and records its duration
+     *
+     * @param startNanos : what {@link #begin(Stage)} returned
+     * @return the duration of the stage, in nanoseconds
+     */
+    public long end(Stage stage, long startNanos) {
+        long durationNanos = System.nanoTime() - startNanos;
+        record(stage, durationNanos);
+        mTracer.endSection();
+        return durationNanos;
+    }
+
+    /**
+     * Records the duration of a stage that was measured elsewhere
+     */
+    public void record(Stage stage, long durationNanos) {
+        mHistograms[stage.ordinal()].record(durationNanos / 1000);
+    }
+
+    /**
+     * @return the histogram of a stage, durations in microseconds
+     */
+    public LatencyHistogram getHistogram(Stage stage) {
+        return mHistograms[stage.ordinal()];
+    }
+}
@@ -0,0 +1,162 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The access points of successive WiFi scans, in a stable order, for a deck of cards.
+ * <p/>
+ * Each scan is merged into the deck instead of replacing it: an access point keeps its position
+ * and its id from one scan to the next, new ones are added at the end, strongest first, and the
+ * update tells what changed so that only those cards are bound again. Scans often miss an access
+ * point that is still there: one is only removed after it was missed by several scans in a row.
+ * Not thread safe: meant to be used from the UI thread.
+ */
+public class ScanDeck {
+
+    /**
+     * What an update changed in the deck
+     */
+    public static final class Changes {
+        public final int added;
+        public final int removed;
+        // access points still there, with a different signal level, channel...
+        public final int changed;
+
+        Changes(int added, int removed, int changed) {
+            this.added = added;
+            this.removed = removed;
+            this.changed = changed;
+        }
+
+        /**
+         * @return true if nothing changed: the deck does not need to be redrawn
+         */
+        public boolean isEmpty() {
+            return added == 0 && removed == 0 && changed == 0;
+        }
+
+        /**
+         * @return true if cards were added or removed, false if only their content changed
+         */
+        public boolean isStructural() {
+            return added > 0 || removed > 0;
+        }
+    }
+
+    private static final Comparator<AccessPoint> STRONGEST_FIRST = new Comparator<AccessPoint>() {
+        @Override
+        public int compare(AccessPoint a, AccessPoint b) {
+            return b.getRssi() - a.getRssi();
+        }
+    };
+
+    private static final class Entry {
+        AccessPoint accessPoint;
+        // how many scans in a row did not see it
+        int missedScans;
+        // the scan that last saw it
+        int seenInScan;
+
+        Entry(AccessPoint accessPoint) {
+            this.accessPoint = accessPoint;
+        }
+    }
+
+    private final int mMaxMissedScans;
+    private final List<Entry> mEntries = new ArrayList<Entry>();
+    private final Map<Long, Entry> mEntriesById = new HashMap<Long, Entry>();
+    private int mScanCount;
+
+    /**
+     * @param maxMissedScans : how many scans in a row can miss an access point before it is removed
+     */
+    public ScanDeck(int maxMissedScans) {
+        mMaxMissedScans = maxMissedScans;
+    }
+
+    /**
+     * Merges the results of a scan into the deck
+     *
+     * @param scan : the access points seen by the scan
+     * @return what changed in the deck
+     */
+    public Changes update(List<AccessPoint> scan) {
+        mScanCount++;
+        int changed = 0;
+        List<Entry> added = new ArrayList<Entry>();
+
+        for (AccessPoint accessPoint : scan) {
+            Entry entry = mEntriesById.get(accessPoint.getId());
+            if (entry == null) {
+                entry = new Entry(accessPoint);
+                entry.seenInScan = mScanCount;
+                mEntriesById.put(accessPoint.getId(), entry);
+                added.add(entry);
+            } else if (entry.seenInScan == mScanCount) {
+                // seen twice by the same scan: keep the strongest
+                if (accessPoint.getRssi() > entry.accessPoint.getRssi()) {
+                    entry.accessPoint = accessPoint;
+                }
+            } else {
+                if (!accessPoint.equals(entry.accessPoint)) {
+                    entry.accessPoint = accessPoint;
+                    changed++;
+                }
+                entry.seenInScan = mScanCount;
+                entry.missedScans = 0;
+            }
+        }
+
+        int removed = 0;
+        for (Iterator<Entry> it = mEntries.iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.seenInScan != mScanCount && ++entry.missedScans > mMaxMissedScans) {
+                it.remove();
+                mEntriesById.remove(entry.accessPoint.getId());
+                removed++;
+            }
+        }
+
+        // new access points go after the known ones, strongest first
+        List<AccessPoint> newAccessPoints = new ArrayList<AccessPoint>(added.size());
+        for (Entry entry : added) {
+            newAccessPoints.add(entry.accessPoint);
+        }
+        Collections.sort(newAccessPoints, STRONGEST_FIRST);
+        for (AccessPoint accessPoint : newAccessPoints) {
+            mEntries.add(mEntriesById.get(accessPoint.getId()));
+        }
+
+        return new Changes(added.size(), removed, changed);
+    }
+
+    public int size() {
+        return mEntries.size();
+    }
+
+    public AccessPoint get(int position) {
+        return mEntries.get(position).accessPoint;
+    }
+
+    /**
+     * @return the position of the access point, or -1 if it is not in the deck
+     */
+    public int indexOf(long id) {
+        Entry entry = mEntriesById.get(id);
+        return entry != null ? mEntries.indexOf(entry) : -1;
+    }
+
+    /**
+     * Empties the deck
+     */
+    public void clear() {
+        mEntries.clear();
+        mEntriesById.clear();
+    }
+}
@@ -0,0 +1,30 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * Cleans up the SSIDs returned by the WiFi framework
+ */
+public final class SsidUtils {
+
+    // what the framework returns when not associated, depending on the version
+    private static final String UNKNOWN_SSID_HEX = "0x";
+    private static final String UNKNOWN_SSID = "<unknown ssid>";
+
+    private SsidUtils() {
+    }
+
+    /**
+     * @param ssid : the SSID as returned by {@code WifiInfo.getSSID()}
+     * @return the SSID without its surrounding double quotation marks,
+     * or null if the framework does not know it
+     */
+    public static String unquote(String ssid) {
+        if (ssid == null || ssid.equals(UNKNOWN_SSID_HEX) || ssid.equals(UNKNOWN_SSID)) {
+            return null;
+        }
+        if (ssid.length() >= 2 && ssid.startsWith("\"") && ssid.endsWith("\"")) {
+            // ssid is often returned with surrounding double quotation marks. We take them off.
+            return ssid.substring(1, ssid.length() - 1);
+        }
+        return ssid;
+    }
+}
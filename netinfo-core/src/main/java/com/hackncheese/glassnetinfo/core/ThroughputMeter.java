@@ -0,0 +1,142 @@
+package com.hackncheese.glassnetinfo.core;
+
+/**
+ * Turns the bytes received so far into a throughput, smoothed over a sliding window.
+ * <p/>
+ * The bytes received are sampled at a fixed interval; the estimate is the bytes of the last samples
+ * over the time they took, so that a slow start or a hiccup fades out of it. The estimate is stable
+ * once the last estimates stay within a spread of their mean: measuring longer would not tell more.
+ * Samples go into ring buffers of primitives allocated once: updating never allocates.
+ */
+public class ThroughputMeter {
+
+    private final long mSampleIntervalNanos;
+    private final int mStableSpreadPercent;
+    // bytes and duration of each sample of the window
+    private final long[] mSampleBytes;
+    private final long[] mSampleNanos;
+    // the estimates made after each of the last samples, in bits per second
+    private final double[] mEstimates;
+
+    private int mSampleCount;
+    private long mWindowBytes;
+    private long mWindowNanos;
+
+    private long mStartNanos;
+    private long mSampleStartNanos;
+    private long mSampleStartBytes;
+    private long mTotalBytes;
+
+    /**
+     * @param sampleIntervalMs    : how often the bytes received are sampled
+     * @param windowSamples       : how many samples the estimate is made of,
+     *                            and how many estimates are compared to tell whether it is stable
+     * @param stableSpreadPercent : how far apart the last estimates can be, compared to their mean,
+     *                            for the estimate to be stable
+     */
+    public ThroughputMeter(long sampleIntervalMs, int windowSamples, int stableSpreadPercent) {
+        mSampleIntervalNanos = sampleIntervalMs * 1000000;
+        mStableSpreadPercent = stableSpreadPercent;
+        mSampleBytes = new long[windowSamples];
+        mSampleNanos = new long[windowSamples];
+        mEstimates = new double[windowSamples];
+    }
+
+    /**
+     * Starts a new measurement, forgetting the previous one
+     *
+     * @param nowNanos : the current time, from {@link System#nanoTime()}
+     */
+    public void start(long nowNanos) {
+        mSampleCount = 0;
+        mWindowBytes = 0;
+        mWindowNanos = 0;
+        mStartNanos = nowNanos;
+        mSampleStartNanos = nowNanos;
+        mSampleStartBytes = 0;
+        mTotalBytes = 0;
+    }
+
+    /**
+     * @param nowNanos   : the current time, from {@link System#nanoTime()}
+     * @param totalBytes : how many bytes were received since the start
+     * @return true if a new sample was taken, and the estimate changed
+     */
+    public boolean update(long nowNanos, long totalBytes) {
+        mTotalBytes = totalBytes;
+        long nanos = nowNanos - mSampleStartNanos;
+        if (nanos < mSampleIntervalNanos) {
+            return false;
+        }
+        long bytes = totalBytes - mSampleStartBytes;
+        mSampleStartNanos = nowNanos;
+        mSampleStartBytes = totalBytes;
+
+        int slot = mSampleCount % mSampleBytes.length;
+        if (mSampleCount >= mSampleBytes.length) {
+            // the oldest sample leaves the window
+            mWindowBytes -= mSampleBytes[slot];
+            mWindowNanos -= mSampleNanos[slot];
+        }
+        mSampleBytes[slot] = bytes;
+        mSampleNanos[slot] = nanos;
+        mWindowBytes += bytes;
+        mWindowNanos += nanos;
+        mEstimates[slot] = bitsPerSecond(mWindowBytes, mWindowNanos);
+        mSampleCount++;
+        return true;
+    }
+
+    /**
+     * @return the throughput over the window, in Mbit/s; 0 before the first sample
+     */
+    public double getMbps() {
+        return bitsPerSecond(mWindowBytes, mWindowNanos) / 1000000;
+    }
+
+    /**
+     * @param nowNanos : the current time, from {@link System#nanoTime()}
+     * @return the throughput since the start, in Mbit/s
+     */
+    public double getAverageMbps(long nowNanos) {
+        return bitsPerSecond(mTotalBytes, nowNanos - mStartNanos) / 1000000;
+    }
+
+    /**
+     * @return true once the window is full and the last estimates stay within the spread of their mean
+     */
+    public boolean isStable() {
+        if (mSampleCount < 2 * mEstimates.length) {
+            // the first estimates still include the slow start of the transfer
+            return false;
+        }
+        double min = Double.MAX_VALUE;
+        double max = 0;
+        double sum = 0;
+        for (double estimate : mEstimates) {
+            min = Math.min(min, estimate);
+            max = Math.max(max, estimate);
+            sum += estimate;
+        }
+        double mean = sum / mEstimates.length;
+        return mean > 0 && (max - min) * 100 <= mean * mStableSpreadPercent;
+    }
+
+    /**
+     * @return how many bytes were received since the start
+     */
+    public long getTotalBytes() {
+        return mTotalBytes;
+    }
+
+    /**
+     * @return how many samples were taken since the start
+     */
+    public int getSampleCount() {
+        return mSampleCount;
+    }
+
+    private static double bitsPerSecond(long bytes, long nanos) {
+        return nanos > 0 ? bytes * 8 * 1e9 / nanos : 0;
+    }
+}
@@ -0,0 +1,164 @@
+package com.hackncheese.glassnetinfo.core;
+
+import java.io.IOException;
+
+import okio.BufferedSource;
+
+/**
+ * Measures the download throughput of the network, by streaming a big file and throwing it away.
+ * <p/>
+ * The body is read into a buffer allocated once, and never kept: reading a chunk allocates nothing,
+ * so that the garbage collector does not get in the way of the measurement on a slow CPU.
+ * The test stops at the end of the file, at the deadline, when cancelled, when the download breaks,
+ * or as soon as the {@link ThroughputMeter} tells the estimate is stable.
+ */
+public class ThroughputTest {
+
+    /**
+     * Gets told how the estimate evolves, on the thread running the test
+     */
+    public interface Listener {
+        /**
+         * @param mbps       : the throughput over the last samples, in Mbit/s
+         * @param totalBytes : how many bytes were received so far
+         */
+        void onSample(double mbps, long totalBytes);
+    }
+
+    /**
+     * Why the test stopped
+     */
+    public enum End {
+        // the estimate stopped changing
+        STABLE,
+        // the whole file was received
+        COMPLETE,
+        // the deadline came first
+        TIME_UP,
+        // stopped with cancel()
+        CANCELLED,
+        // the download broke after some samples, which still make an estimate
+        FAILED
+    }
+
+    /**
+     * The outcome of a test
+     */
+    public static final class Result {
+        public final End end;
+        // the throughput over the last samples, and since the start, in Mbit/s
+        public final double mbps;
+        public final double averageMbps;
+        public final long totalBytes;
+        public final long durationMs;
+
+        Result(End end, double mbps, double averageMbps, long totalBytes, long durationMs) {
+            this.end = end;
+            this.mbps = mbps;
+            this.averageMbps = averageMbps;
+            this.totalBytes = totalBytes;
+            this.durationMs = durationMs;
+        }
+    }
+
+    private final NetInfoHttpClient mHttpClient;
+    private final String mUrl;
+    private final ThroughputMeter mMeter;
+    private final byte[] mBuffer;
+    private volatile Listener mListener;
+    private volatile boolean mCancelled;
+
+    // the test in progress, only touched by the thread running it
+    private Deadline mDeadline;
+    private long mStartNanos;
+    private End mEnd;
+
+    private final NetInfoHttpClient.BodyReader<Void> mDiscardingReader = new NetInfoHttpClient.BodyReader<Void>() {
+        @Override
+        public Void read(BufferedSource source) throws IOException {
+            long totalBytes = 0;
+            while (true) {
+                int read = source.read(mBuffer, 0, mBuffer.length);
+                if (read == -1) {
+                    mEnd = End.COMPLETE;
+                    return null;
+                }
+                totalBytes += read;
+                if (mMeter.update(System.nanoTime(), totalBytes)) {
+                    Listener listener = mListener;
+                    if (listener != null) {
+                        listener.onSample(mMeter.getMbps(), totalBytes);
+                    }
+                    if (mMeter.isStable()) {
+                        mEnd = End.STABLE;
+                        return null;
+                    }
+                }
+                if (mCancelled) {
+                    mEnd = End.CANCELLED;
+                    return null;
+                }
+                if (mDeadline.isExpired()) {
+                    mEnd = End.TIME_UP;
+                    return null;
+                }
+            }
+        }
+    };
+
+    /**
+     * @param httpClient  : streams the file
+     * @param url         : a file big enough to keep the network busy until the estimate is stable
+     * @param bufferBytes : how much to read at once
+     * @param meter       : makes the estimate, reset at the start of each test
+     */
+    public ThroughputTest(NetInfoHttpClient httpClient, String url, int bufferBytes, ThroughputMeter meter) {
+        mHttpClient = httpClient;
+        mUrl = url;
+        mBuffer = new byte[bufferBytes];
+        mMeter = meter;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Runs a test, blocking until it ends
+     *
+     * @param deadline : when to stop measuring, if the estimate is not stable by then
+     * @return the estimate when the test stopped
+     * @throws IOException if the file could not be downloaded at all, or the download broke before the first sample
+     */
+    public Result run(Deadline deadline) throws IOException {
+        mCancelled = false;
+        mDeadline = deadline;
+        mEnd = null;
+        mStartNanos = System.nanoTime();
+        mMeter.start(mStartNanos);
+        try {
+            mHttpClient.download(mUrl, mDiscardingReader, deadline);
+        } catch (IOException e) {
+            // aborted in the middle of a read: what was received so far still counts
+            if (mCancelled) {
+                mEnd = End.CANCELLED;
+            } else if (mMeter.getSampleCount() == 0) {
+                throw e;
+            } else {
+                mEnd = deadline.isExpired() ? End.TIME_UP : End.FAILED;
+            }
+        }
+        long nowNanos = System.nanoTime();
+        return new Result(mEnd, mMeter.getMbps(), mMeter.getAverageMbps(nowNanos), mMeter.getTotalBytes(),
+                (nowNanos - mStartNanos) / 1000000);
+    }
+
+    /**
+     * Stops the test in progress, from any thread
+     */
+    public void cancel() {
+        mCancelled = true;
+        // a read may be waiting for the network
+        mHttpClient.cancelDownloads();
+    }
+}
@@ -0,0 +1,73 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okio.Buffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BoundedBodyReaderTest {
+
+    private static Buffer body(String text) {
+        return new Buffer().writeUtf8(text);
+    }
+
+    @Test
+    public void readsAnIpAddressWithoutItsWhitespace() throws IOException {
+        BoundedBodyReader reader = BoundedBodyReader.ipAddress(64);
+
+        assertEquals("1.2.3.4", reader.read(body("1.2.3.4\n")));
+        assertEquals("2001:db8::1", reader.read(body("  2001:db8::1\r\n")));
+    }
+
+    @Test
+    public void rejectsAPageAtItsFirstByte() throws IOException {
+        StringBuilder page = new StringBuilder("<html><body>Welcome to the hotel WiFi");
+        for (int i = 0; i < 100000; i++) {
+            page.append(" please log in");
+        }
+        Buffer body = body(page.toString());
+        long size = body.size();
+
+        try {
+            BoundedBodyReader.ipAddress(64).read(body);
+            fail();
+        } catch (InvalidResponseException expected) {
+            // no more than the buffer was read
+            assertTrue(size - body.size() <= 64);
+        }
+    }
+
+    @Test(expected = InvalidResponseException.class)
+    public void rejectsAnAnswerPastTheCap() throws IOException {
+        BoundedBodyReader.ipAddress(16).read(body("1111:2222:3333:4444:5555:6666:7777:8888"));
+    }
+
+    @Test(expected = InvalidResponseException.class)
+    public void rejectsSomethingThatOnlyLooksLikeAnAddress() throws IOException {
+        BoundedBodyReader.ipAddress(64).read(body("1.2.3.4.5"));
+    }
+
+    @Test
+    public void answerOfExactlyTheCapIsAccepted() throws IOException {
+        assertEquals("10.0.0.1", BoundedBodyReader.ipAddress(8).read(body("10.0.0.1")));
+    }
+
+    @Test
+    public void readsTextButNotMarkup() throws IOException {
+        BoundedBodyReader reader = BoundedBodyReader.text(256);
+
+        assertEquals("AS15169 Google Inc.\n", reader.read(body("AS15169 Google Inc.\n")));
+        assertEquals("AT&T <Services>", reader.read(body("AT&T <Services>")));
+        try {
+            reader.read(body("\n  <!DOCTYPE html>"));
+            fail();
+        } catch (InvalidResponseException expected) {
+            // a page
+        }
+    }
+}
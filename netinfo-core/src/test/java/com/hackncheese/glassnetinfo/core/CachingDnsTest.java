@@ -0,0 +1,113 @@
+package com.hackncheese.glassnetinfo.core;
+
+import com.squareup.okhttp.Dns;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class CachingDnsTest {
+
+    /**
+     * Resolves every host to the loopback address, counting the lookups
+     */
+    private static class CountingDns implements Dns {
+        final AtomicInteger lookups = new AtomicInteger();
+        volatile boolean failing;
+        volatile long delayMs;
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            lookups.incrementAndGet();
+            if (delayMs > 0) {
+                try {
+                    Thread.sleep(delayMs);
+                } catch (InterruptedException e) {
+                    throw new UnknownHostException(hostname);
+                }
+            }
+            if (failing) {
+                throw new UnknownHostException(hostname);
+            }
+            return Collections.singletonList(InetAddress.getByAddress(hostname, new byte[]{127, 0, 0, 1}));
+        }
+    }
+
+    @Test
+    public void answersFromTheCacheUntilTheTtl() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 100);
+
+        dns.lookup("ipinfo.io");
+        dns.lookup("ipinfo.io");
+        assertEquals(1, delegate.lookups.get());
+
+        Thread.sleep(150);
+        dns.lookup("ipinfo.io");
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void doesNotRememberFailures() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 60000);
+        delegate.failing = true;
+        try {
+            dns.lookup("ipinfo.io");
+            fail();
+        } catch (UnknownHostException expected) {
+            // not cached
+        }
+
+        delegate.failing = false;
+        assertEquals(1, dns.lookup("ipinfo.io").size());
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void clearForgetsEverything() throws Exception {
+        CountingDns delegate = new CountingDns();
+        CachingDns dns = new CachingDns(delegate, 60000);
+
+        dns.lookup("ipinfo.io");
+        dns.clear();
+        dns.lookup("ipinfo.io");
+
+        assertEquals(2, delegate.lookups.get());
+    }
+
+    @Test
+    public void concurrentLookupsOfAHostAreSentOnce() throws Exception {
+        final CountingDns delegate = new CountingDns();
+        delegate.delayMs = 200;
+        final CachingDns dns = new CachingDns(delegate, 60000);
+        final CountDownLatch done = new CountDownLatch(4);
+
+        for (int i = 0; i < 4; i++) {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        dns.lookup("whatismyip.akamai.com");
+                        done.countDown();
+                    } catch (UnknownHostException e) {
+                        // not counted down
+                    }
+                }
+            }.start();
+        }
+
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+        assertEquals(1, delegate.lookups.get());
+    }
+}
@@ -0,0 +1,83 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CircuitBreakerTest {
+
+    @Test
+    public void opensAfterFailuresInARow() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        breaker.recordFailure(0);
+        breaker.recordSuccess();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD - 1; i++) {
+            breaker.recordFailure(0);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure(0);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(CircuitBreaker.MIN_OPEN_MS - 1));
+    }
+
+    @Test
+    public void letsOneProbeThroughOnceOpenPeriodIsOver() {
+        CircuitBreaker breaker = open();
+
+        assertTrue(breaker.allowRequest(CircuitBreaker.MIN_OPEN_MS));
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest(CircuitBreaker.MIN_OPEN_MS));
+
+        breaker.recordSuccess();
+
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest(CircuitBreaker.MIN_OPEN_MS));
+    }
+
+    @Test
+    public void failedProbeDoublesTheOpenPeriod() {
+        CircuitBreaker breaker = open();
+        long now = CircuitBreaker.MIN_OPEN_MS;
+        breaker.allowRequest(now);
+
+        breaker.recordFailure(now);
+
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(2 * CircuitBreaker.MIN_OPEN_MS, breaker.getRetryInMs(now));
+    }
+
+    @Test
+    public void openPeriodIsBounded() {
+        CircuitBreaker breaker = open();
+        long now = 0;
+        for (int i = 0; i < 20; i++) {
+            now += CircuitBreaker.MAX_OPEN_MS;
+            assertTrue(breaker.allowRequest(now));
+            breaker.recordFailure(now);
+        }
+
+        assertEquals(CircuitBreaker.MAX_OPEN_MS, breaker.getRetryInMs(now));
+    }
+
+    @Test
+    public void abandonedProbeLetsTheNextOneThrough() {
+        CircuitBreaker breaker = open();
+        breaker.allowRequest(CircuitBreaker.MIN_OPEN_MS);
+
+        breaker.recordAbandoned();
+
+        assertTrue(breaker.allowRequest(CircuitBreaker.MIN_OPEN_MS));
+    }
+
+    private static CircuitBreaker open() {
+        CircuitBreaker breaker = new CircuitBreaker();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            breaker.recordFailure(0);
+        }
+        return breaker;
+    }
+}
@@ -0,0 +1,39 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DeadlineTest {
+
+    @Test
+    public void aSliceNeverOutlivesItsDeadline() {
+        Deadline deadline = Deadline.in(1000);
+
+        assertTrue(deadline.slice(200).remainingMs() <= 200);
+        assertSame(deadline, deadline.slice(5000));
+    }
+
+    @Test
+    public void expires() throws InterruptedException {
+        Deadline deadline = Deadline.in(20);
+        assertFalse(deadline.isExpired());
+
+        Thread.sleep(40);
+        assertTrue(deadline.isExpired());
+        assertEquals(0, deadline.remainingMs());
+        assertEquals(0, deadline.remainingNanos());
+    }
+
+    @Test
+    public void waitingTheNanosLeftExpiresIt() throws InterruptedException {
+        // the milliseconds left are rounded down: waiting them may stop short of the deadline
+        Deadline deadline = Deadline.in(5);
+        long nanos = deadline.remainingNanos();
+        Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+        assertTrue(deadline.isExpired());
+    }
+}
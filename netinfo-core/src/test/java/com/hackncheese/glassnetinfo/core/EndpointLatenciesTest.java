@@ -0,0 +1,68 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class EndpointLatenciesTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void hostsAreEstimatedSeparately() {
+        EndpointLatencies latencies = new EndpointLatencies(null, 1000, 250, 4000);
+        for (int i = 0; i < 20; i++) {
+            latencies.recordResponse("lan.example", 10);
+            latencies.recordResponse("far.example", 900);
+        }
+
+        assertEquals(250, latencies.getResponseTimeoutMs("lan.example"));
+        assertEquals(1000, latencies.getConnectTimeoutMs("lan.example"));
+        assertEquals(true, latencies.getResponseTimeoutMs("far.example") > 1000);
+    }
+
+    @Test
+    public void survivesARestart() throws IOException {
+        File file = mFolder.newFile();
+        EndpointLatencies latencies = new EndpointLatencies(file, 1000, 250, 4000);
+        for (int i = 0; i < 20; i++) {
+            latencies.recordConnect("ipinfo.io", 300);
+            latencies.recordResponse("ipinfo.io", 400);
+        }
+        latencies.save();
+
+        EndpointLatencies restored = new EndpointLatencies(file, 1000, 250, 4000);
+        assertEquals(latencies.getConnectTimeoutMs("ipinfo.io"), restored.getConnectTimeoutMs("ipinfo.io"), 1);
+        assertEquals(latencies.getResponseTimeoutMs("ipinfo.io"), restored.getResponseTimeoutMs("ipinfo.io"), 1);
+
+        List<EndpointLatencies.Summary> summaries = restored.getSummaries();
+        assertEquals(1, summaries.size());
+        assertEquals("ipinfo.io", summaries.get(0).host);
+        assertEquals(300, summaries.get(0).connectMs);
+    }
+
+    @Test
+    public void learnsFromTheClient() throws IOException {
+        StubHttpServer server = new StubHttpServer();
+        try {
+            server.answer("/ip", 200, "text/plain", "1.2.3.4");
+            NetInfoHttpClient client = new NetInfoHttpClient(new RefreshTimings());
+            client.fetch(server.url("/ip"));
+            client.fetch(server.url("/ip"));
+
+            EndpointLatencies.Summary summary = client.getLatencies().getSummaries().get(0);
+            assertEquals("127.0.0.1", summary.host);
+            // a loopback answers within the floor
+            assertEquals(250, summary.responseTimeoutMs);
+        } finally {
+            server.shutdown();
+        }
+    }
+}
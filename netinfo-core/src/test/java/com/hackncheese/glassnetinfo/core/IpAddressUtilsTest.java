@@ -0,0 +1,72 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class IpAddressUtilsTest {
+
+    @Test
+    public void acceptsIPv4Addresses() {
+        assertTrue(IpAddressUtils.isIPv4Address("0.0.0.0"));
+        assertTrue(IpAddressUtils.isIPv4Address("192.168.1.1"));
+        assertTrue(IpAddressUtils.isIPv4Address("255.255.255.255"));
+    }
+
+    @Test
+    public void rejectsMalformedIPv4Addresses() {
+        assertFalse(IpAddressUtils.isIPv4Address(""));
+        assertFalse(IpAddressUtils.isIPv4Address("1.2.3"));
+        assertFalse(IpAddressUtils.isIPv4Address("1.2.3.4.5"));
+        assertFalse(IpAddressUtils.isIPv4Address("256.1.1.1"));
+        assertFalse(IpAddressUtils.isIPv4Address("1..2.3"));
+        assertFalse(IpAddressUtils.isIPv4Address("1.2.3.4 "));
+        assertFalse(IpAddressUtils.isIPv4Address("<html>"));
+    }
+
+    @Test
+    public void acceptsIPv6Addresses() {
+        assertTrue(IpAddressUtils.isIPv6Address("::"));
+        assertTrue(IpAddressUtils.isIPv6Address("::1"));
+        assertTrue(IpAddressUtils.isIPv6Address("2001:db8::1"));
+        assertTrue(IpAddressUtils.isIPv6Address("2001:0db8:0000:0000:0000:0000:0000:0001"));
+        assertTrue(IpAddressUtils.isIPv6Address("fe80::1%wlan0"));
+        assertTrue(IpAddressUtils.isIPv6Address("::ffff:192.168.1.1"));
+    }
+
+    @Test
+    public void rejectsMalformedIPv6Addresses() {
+        assertFalse(IpAddressUtils.isIPv6Address(":"));
+        assertFalse(IpAddressUtils.isIPv6Address("2001:db8::1::2"));
+        assertFalse(IpAddressUtils.isIPv6Address("2001:db8:0:0:0:0:0:0:1"));
+        assertFalse(IpAddressUtils.isIPv6Address("12345::"));
+        assertFalse(IpAddressUtils.isIPv6Address("g::1"));
+    }
+
+    @Test
+    public void acceptsBothFamilies() {
+        assertTrue(IpAddressUtils.isIPAddress("8.8.8.8"));
+        assertTrue(IpAddressUtils.isIPAddress("2001:4860:4860::8888"));
+        assertFalse(IpAddressUtils.isIPAddress("dns.google"));
+    }
+
+    @Test
+    public void picksTheFirstIPv4AddressThatIsNotLoopback() throws UnknownHostException {
+        InetAddress loopback = InetAddress.getByName("127.0.0.1");
+        InetAddress linkLocal = InetAddress.getByName("fe80::1");
+        InetAddress wlan = InetAddress.getByName("192.168.1.12");
+
+        assertEquals("192.168.1.12", IpAddressUtils.firstIPv4Address(
+                Collections.enumeration(Arrays.asList(loopback, linkLocal, wlan))));
+        assertNull(IpAddressUtils.firstIPv4Address(
+                Collections.enumeration(Arrays.asList(loopback, linkLocal))));
+    }
+}
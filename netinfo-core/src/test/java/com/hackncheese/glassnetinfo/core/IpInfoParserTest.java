@@ -0,0 +1,105 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okio.Buffer;
+import okio.Okio;
+import okio.Source;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IpInfoParserTest {
+
+    static final String IPINFO_ANSWER = "{\n"
+            + "  \"ip\": \"8.8.8.8\",\n"
+            + "  \"hostname\": \"google-public-dns-a.google.com\",\n"
+            + "  \"city\": \"Mountain View\",\n"
+            + "  \"region\": \"California\",\n"
+            + "  \"country\": \"US\",\n"
+            + "  \"loc\": \"37.3860,-122.0838\",\n"
+            + "  \"org\": \"AS15169 Google Inc.\",\n"
+            + "  \"postal\": \"94035\"\n"
+            + "}";
+
+    private static IpInfo parse(String json) throws IOException {
+        // read through a buffered source, like a response body, which throws on a premature end
+        Source body = new Buffer().writeUtf8(json);
+        return new IpInfoParser().read(Okio.buffer(body));
+    }
+
+    @Test
+    public void readsTheFieldsWeShow() throws IOException {
+        IpInfo info = parse(IPINFO_ANSWER);
+
+        assertEquals("8.8.8.8", info.getIp());
+        assertEquals("AS15169", info.getAsn());
+        assertEquals("Google Inc.", info.getOrg());
+        assertEquals("Mountain View", info.getCity());
+        assertEquals("US", info.getCountry());
+        assertEquals("Mountain View, US", info.getLocation());
+        assertEquals("Google Inc. (AS15169)", info.getProvider());
+    }
+
+    @Test
+    public void skipsNestedValuesAndUnescapesStrings() throws IOException {
+        IpInfo info = parse("{\"extra\":{\"a\":[1,2,{\"b\":null}],\"c\":true},"
+                + "\"ip\":\"1.2.3.4\",\"city\":\"Saint-\\u00c9tienne \\\"42\\\"\",\"n\":-1.5e3}");
+
+        assertEquals("1.2.3.4", info.getIp());
+        assertEquals("Saint-\u00c9tienne \"42\"", info.getCity());
+        assertNull(info.getOrg());
+        assertNull(info.getCountry());
+    }
+
+    @Test
+    public void joinsEscapedSurrogatePairs() throws IOException {
+        IpInfo info = parse("{\"ip\":\"1.2.3.4\",\"city\":\"Smile \\ud83d\\ude00\","
+                + "\"country\":\"\\ud83dA\\ud83d\\u0042\"}");
+
+        assertEquals("Smile \ud83d\ude00", info.getCity());
+        // a surrogate out of a pair is replaced, what follows it is kept
+        assertEquals("?A?B", info.getCountry());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsOnTruncatedContent() throws IOException {
+        parse("{\"ip\":\"1.2.3.4\",\"org\":\"AS1");
+    }
+
+    @Test(expected = InvalidResponseException.class)
+    public void rejectsAnIpThatIsNotAnAddress() throws IOException {
+        parse("{\"ip\":\"<html>\",\"org\":\"AS1 Nobody\"}");
+    }
+
+    @Test
+    public void stopsReadingAStringFarTooLong() throws IOException {
+        StringBuilder json = new StringBuilder("{\"ip\":\"1.2.3.4\",\"city\":\"");
+        for (int i = 0; i < 100000; i++) {
+            json.append('x');
+        }
+        json.append("\"}");
+        Buffer body = new Buffer().writeUtf8(json.toString());
+
+        try {
+            new IpInfoParser().read(body);
+            fail("a string of 100000 bytes was read");
+        } catch (InvalidResponseException expected) {
+            // the rest of the string was left unread
+            assertTrue(body.size() > 90000);
+        }
+    }
+
+    @Test
+    public void takesTheAsNumberOffTheProviderName() {
+        assertEquals("Google Inc.", IpInfoParser.providerNameOf("AS15169 Google Inc."));
+        assertEquals("Orange", IpInfoParser.providerNameOf("Orange"));
+        assertEquals("AS15169", IpInfoParser.asNumberOf("AS15169 Google Inc.\n"));
+        assertEquals("AS3215", IpInfoParser.asNumberOf("AS3215\n"));
+        assertNull(IpInfoParser.asNumberOf("Orange"));
+    }
+}
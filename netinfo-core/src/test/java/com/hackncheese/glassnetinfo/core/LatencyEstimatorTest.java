@@ -0,0 +1,61 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyEstimatorTest {
+
+    private static final long INITIAL = 1000;
+    private static final long FLOOR = 250;
+    private static final long CEILING = 4000;
+
+    @Test
+    public void startsFromTheInitialTimeout() {
+        assertEquals(INITIAL, new LatencyEstimator().getTimeoutMs(INITIAL, FLOOR, CEILING));
+    }
+
+    @Test
+    public void aFastEndpointGetsTheFloor() {
+        LatencyEstimator estimator = new LatencyEstimator();
+        for (int i = 0; i < 20; i++) {
+            estimator.record(5);
+        }
+
+        assertEquals(FLOOR, estimator.getTimeoutMs(INITIAL, FLOOR, CEILING));
+    }
+
+    @Test
+    public void aSlowLinkGetsMoreThanTheInitialTimeout() {
+        LatencyEstimator estimator = new LatencyEstimator();
+        for (int i = 0; i < 20; i++) {
+            // LTE through a phone: 600 to 1000 ms
+            estimator.record(i % 2 == 0 ? 600 : 1000);
+        }
+
+        long timeout = estimator.getTimeoutMs(INITIAL, FLOOR, CEILING);
+        assertTrue("timeout " + timeout, timeout > 1000 && timeout < CEILING);
+        assertEquals(800, estimator.getAverageMs(), 100);
+    }
+
+    @Test
+    public void timeoutsBackOffUntilTheNextSample() {
+        LatencyEstimator estimator = new LatencyEstimator();
+        for (int i = 0; i < 20; i++) {
+            estimator.record(300);
+        }
+        long timeout = estimator.getTimeoutMs(INITIAL, FLOOR, CEILING);
+
+        estimator.recordTimeout();
+        assertEquals(2 * timeout, estimator.getTimeoutMs(INITIAL, FLOOR, CEILING));
+        for (int i = 0; i < 10; i++) {
+            estimator.recordTimeout();
+        }
+        // doubled three times at most
+        assertEquals(8 * timeout, estimator.getTimeoutMs(INITIAL, FLOOR, CEILING));
+
+        estimator.record(300);
+        assertTrue(estimator.getTimeoutMs(INITIAL, FLOOR, CEILING) < 2 * timeout);
+    }
+}
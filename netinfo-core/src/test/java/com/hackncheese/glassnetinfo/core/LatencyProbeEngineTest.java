@@ -0,0 +1,86 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyProbeEngineTest {
+
+    private StubHttpServer mServer;
+    private RefreshTimings mTimings;
+    private NetInfoHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mTimings = new RefreshTimings();
+        mClient = new NetInfoHttpClient(mTimings);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void probesEachTargetEveryRound() throws Exception {
+        mServer.answer("/generate_204", 204, "text/plain", "");
+        URI server = URI.create(mServer.url("/"));
+        String[] targets = {
+                mServer.url("/generate_204"),
+                "tcp://127.0.0.1:" + server.getPort(),
+                // nothing listens on port 1
+                "tcp://127.0.0.1:1"};
+        LatencyProbeEngine engine = new LatencyProbeEngine(mClient, targets, 50, 500, 60000);
+        final CountDownLatch rounds = new CountDownLatch(3);
+        engine.setListener(new LatencyProbeEngine.Listener() {
+            @Override
+            public void onProbed() {
+                rounds.countDown();
+            }
+        });
+
+        engine.start();
+        assertTrue(rounds.await(5, TimeUnit.SECONDS));
+        engine.stop();
+
+        long now = System.currentTimeMillis();
+        LatencyWindow http = engine.getTargets()[0].getWindow();
+        LatencyWindow tcp = engine.getTargets()[1].getWindow();
+        LatencyWindow closed = engine.getTargets()[2].getWindow();
+        assertTrue(http.getCount(now) >= 3);
+        assertEquals(0, http.getLossPercent(now));
+        assertTrue(http.getLastRttUs() > 0);
+        assertEquals(0, tcp.getLossPercent(now));
+        assertEquals(100, closed.getLossPercent(now));
+        assertEquals("127.0.0.1", engine.getTargets()[1].getLabel());
+        // the probes are kept out of the refresh timings
+        assertEquals(0, mTimings.getHistogram(RefreshTimings.Stage.TTFB).getCount());
+    }
+
+    @Test
+    public void probeInFlightWhenStoppedRecordsNothing() throws Exception {
+        mServer.answer("/slow_204", 204, "text/plain", new byte[0], 300);
+        LatencyProbeEngine engine = new LatencyProbeEngine(mClient, new String[]{mServer.url("/slow_204")},
+                50, 2000, 60000);
+
+        engine.start();
+        long waitUntil = System.currentTimeMillis() + 2000;
+        while (mServer.getRequestCount() == 0 && System.currentTimeMillis() < waitUntil) {
+            Thread.sleep(5);
+        }
+        // the first probe waits for its answer
+        engine.stop();
+        Thread.sleep(600);
+
+        assertEquals(0, engine.getTargets()[0].getWindow().getCount(System.currentTimeMillis()));
+    }
+}
@@ -0,0 +1,77 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyWindowTest {
+
+    @Test
+    public void percentilesCoverTheAnsweredProbes() {
+        LatencyWindow window = new LatencyWindow(100, 60000);
+        for (int i = 1; i <= 20; i++) {
+            window.recordRtt(i * 1000, i * 10000);
+        }
+
+        long p50 = window.getPercentileUs(50, 20000);
+        long p95 = window.getPercentileUs(95, 20000);
+        // within the precision of the histogram
+        assertTrue("p50 " + p50, p50 >= 100000 && p50 < 130000);
+        assertTrue("p95 " + p95, p95 >= 190000 && p95 <= 200000);
+        assertEquals(200000, window.getLastRttUs());
+        assertEquals(20, window.getCount(20000));
+    }
+
+    @Test
+    public void lossIsTheShareOfLostProbes() {
+        LatencyWindow window = new LatencyWindow(100, 60000);
+        window.recordRtt(1000, 20000);
+        window.recordLoss(2000);
+        window.recordRtt(3000, 20000);
+        window.recordLoss(4000);
+
+        assertEquals(50, window.getLossPercent(4000));
+    }
+
+    @Test
+    public void oldSamplesLeaveTheWindow() {
+        LatencyWindow window = new LatencyWindow(100, 10000);
+        window.recordRtt(0, 500000);
+        window.recordLoss(1000);
+        window.recordRtt(20000, 20000);
+
+        assertEquals(1, window.getCount(20000));
+        assertEquals(0, window.getLossPercent(20000));
+        // the slow one is gone from the histogram too
+        assertTrue(window.getPercentileUs(99, 20000) < 100000);
+        assertEquals(0, window.getCount(40000));
+    }
+
+    @Test
+    public void fullBufferDropsTheOldestSample() {
+        LatencyWindow window = new LatencyWindow(3, 60000);
+        window.recordLoss(1000);
+        window.recordRtt(2000, 10000);
+        window.recordRtt(3000, 10000);
+        window.recordRtt(4000, 10000);
+
+        assertEquals(3, window.getCount(4000));
+        assertEquals(0, window.getLossPercent(4000));
+    }
+
+    @Test
+    public void steadyRoundTripsHaveNoJitter() {
+        LatencyWindow window = new LatencyWindow(100, 60000);
+        for (int i = 0; i < 50; i++) {
+            window.recordRtt(i * 1000, 30000);
+        }
+        assertEquals(0, window.getJitterUs());
+
+        for (int i = 50; i < 150; i++) {
+            window.recordRtt(i * 1000, i % 2 == 0 ? 20000 : 40000);
+        }
+        // converges to the mean deviation between consecutive round trips
+        assertTrue("jitter " + window.getJitterUs(), Math.abs(window.getJitterUs() - 20000) < 1000);
+    }
+}
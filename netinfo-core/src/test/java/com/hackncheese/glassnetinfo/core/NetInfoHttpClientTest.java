@@ -0,0 +1,341 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.junit.Assert.assertTrue;
+
+public class NetInfoHttpClientTest {
+
+    private static final NetInfoHttpClient.Validator IS_IP = new NetInfoHttpClient.Validator() {
+        @Override
+        public boolean isValid(String body) {
+            return IpAddressUtils.isIPAddress(body);
+        }
+    };
+
+    private StubHttpServer mServer;
+    private NetInfoHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mClient = new NetInfoHttpClient(new RefreshTimings());
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void reusesTheConnection() throws IOException {
+        mServer.answer("/ip", 200, "text/plain", "1.2.3.4\n");
+
+        assertEquals("1.2.3.4\n", mClient.fetch(mServer.url("/ip")));
+        assertEquals("1.2.3.4\n", mClient.fetch(mServer.url("/ip")));
+        assertEquals(1, mClient.getNewConnectionCount());
+        assertEquals(1, mClient.getReusedConnectionCount());
+    }
+
+    @Test
+    public void prewarmedHostIsNotResolvedAgain() throws Exception {
+        RefreshTimings timings = new RefreshTimings();
+        NetInfoHttpClient client = new NetInfoHttpClient(timings);
+        mServer.answer("/ip", 200, "text/plain", "1.2.3.4");
+
+        client.prewarm(mServer.url("/ip"));
+        while (client.getWarmingCount() > 0) {
+            Thread.sleep(10);
+        }
+        // the pre-warming call itself is not part of a refresh
+        assertEquals(0, timings.getHistogram(RefreshTimings.Stage.CONNECT).getCount());
+        assertEquals(0, timings.getHistogram(RefreshTimings.Stage.TTFB).getCount());
+        assertEquals("1.2.3.4", client.fetch(mServer.url("/ip")));
+
+        assertEquals(1, timings.getHistogram(RefreshTimings.Stage.DNS).getCount());
+    }
+
+    @Test
+    public void networkChangeLetsTheHostsBeWarmedAgain() throws Exception {
+        // slow enough to still be warming when the network changes
+        mServer.answer("/", 200, "text/plain", "ok".getBytes("UTF-8"), 500);
+
+        mClient.prewarm(mServer.url("/ip"));
+        assertEquals(1, mClient.getWarmingCount());
+        mClient.onNetworkChanged();
+        assertEquals(0, mClient.getWarmingCount());
+
+        mClient.prewarm(mServer.url("/ip"));
+        // the cancelled call is done with, and did not forget the new one
+        Thread.sleep(100);
+        assertEquals(1, mClient.getWarmingCount());
+    }
+
+    @Test
+    public void streamsTheBodyToAReader() throws IOException {
+        mServer.answer("/json", 200, "application/json", IpInfoParserTest.IPINFO_ANSWER);
+
+        IpInfo info = mClient.fetch(mServer.url("/json"), new IpInfoParser());
+        assertEquals("8.8.8.8", info.getIp());
+    }
+
+    @Test
+    public void fallsBackOnAnInvalidAnswer() throws IOException {
+        mServer.answer("/html", 200, "text/html", "<html>captive portal</html>");
+        mServer.answer("/ip", 200, "text/plain", "1.2.3.4\n");
+
+        String ip = mClient.fetchFirst(new String[]{mServer.url("/html"), mServer.url("/ip")}, -1, IS_IP);
+        assertEquals("1.2.3.4", ip);
+    }
+
+    @Test
+    public void hedgesASlowEndpoint() throws IOException {
+        mServer.answer("/slow", 200, "text/plain", "1.1.1.1".getBytes("UTF-8"), 800);
+        mServer.answer("/fast", 200, "text/plain", "2.2.2.2");
+
+        long start = System.nanoTime();
+        String ip = mClient.fetchFirst(new String[]{mServer.url("/slow"), mServer.url("/fast")}, 100, IS_IP);
+        long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+        assertEquals("2.2.2.2", ip);
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 800);
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWhenNoEndpointAnswers() throws IOException {
+        mServer.answer("/html", 200, "text/html", "<html></html>");
+
+        mClient.fetchFirst(new String[]{mServer.url("/html"), mServer.url("/missing")}, 0, IS_IP);
+    }
+
+    @Test
+    public void deadlineAbortsASlowCall() throws IOException {
+        mServer.answer("/slow", 200, "application/json", "{}".getBytes("UTF-8"), 5000);
+
+        long start = System.nanoTime();
+        try {
+            mClient.fetch(mServer.url("/slow"), new IpInfoParser(), null, Deadline.in(300));
+            fail();
+        } catch (InterruptedIOException expected) {
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            // well before the 1 s read timeout
+            assertTrue("took " + elapsedMs + " ms", elapsedMs < 800);
+        }
+    }
+
+    @Test
+    public void deadlineBoundsTheWholeRace() throws IOException {
+        mServer.answer("/slow1", 200, "text/plain", "1.1.1.1".getBytes("UTF-8"), 5000);
+        mServer.answer("/slow2", 200, "text/plain", "2.2.2.2".getBytes("UTF-8"), 5000);
+
+        long start = System.nanoTime();
+        try {
+            mClient.fetchFirst(new String[]{mServer.url("/slow1"), mServer.url("/slow2")}, 100, IS_IP,
+                    null, Deadline.in(300));
+            fail();
+        } catch (InterruptedIOException expected) {
+            long elapsedMs = (System.nanoTime() - start) / 1000000;
+            assertTrue("took " + elapsedMs + " ms", elapsedMs < 800);
+        }
+    }
+
+    @Test
+    public void errorStatusIsNotReturnedAsData() throws IOException {
+        mServer.answer("/limited", 429, "text/plain", "Rate limit exceeded");
+
+        try {
+            mClient.fetch(mServer.url("/limited"));
+            fail();
+        } catch (HttpStatusException expected) {
+            assertEquals(429, expected.getCode());
+        }
+    }
+
+    @Test
+    public void pingWaitsForItsOwnTimeout() throws IOException {
+        mServer.answer("/ip", 200, "text/plain", "1.2.3.4");
+        mServer.answer("/slow", 200, "text/plain", "ok".getBytes("UTF-8"), 500);
+        // fast answers bring the timeout of the host down to its floor
+        for (int i = 0; i < 10; i++) {
+            mClient.fetch(mServer.url("/ip"));
+        }
+
+        // a spike is measured, not cut short
+        long rttUs = mClient.ping(mServer.url("/slow"), 1000);
+        assertTrue("took " + rttUs + " us", rttUs >= 500000);
+    }
+
+    @Test
+    public void skipsAnEndpointThatKeepsFailing() throws IOException {
+        mServer.answer("/down", 503, "text/plain", "Service unavailable");
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mClient.fetch(mServer.url("/down"));
+                fail();
+            } catch (HttpStatusException expected) {
+                // counted
+            }
+        }
+
+        try {
+            mClient.fetch(mServer.url("/down"));
+            fail();
+        } catch (EndpointUnavailableException expected) {
+            assertEquals(CircuitBreaker.FAILURE_THRESHOLD, mServer.getRequestCount());
+        }
+    }
+
+    @Test
+    public void networkChangeGivesTheEndpointsANewChance() throws IOException {
+        mServer.answer("/down", 503, "text/plain", "Service unavailable");
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mClient.fetch(mServer.url("/down"));
+            } catch (HttpStatusException expected) {
+                // counted
+            }
+        }
+        mServer.answer("/down", 200, "text/plain", "1.2.3.4");
+
+        mClient.onNetworkChanged();
+        assertEquals("1.2.3.4", mClient.fetch(mServer.url("/down")));
+    }
+
+    @Test
+    public void captivePortalDoesNotOpenTheBreaker() throws IOException {
+        mServer.answer("/portal", 200, "text/html; charset=utf-8", "<html>captive portal</html>");
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mClient.fetch(mServer.url("/portal"));
+                fail();
+            } catch (InvalidResponseException expected) {
+                // not counted
+            }
+        }
+        mServer.answer("/portal", 200, "text/plain", "1.2.3.4");
+
+        // logged in to the portal
+        assertEquals("1.2.3.4", mClient.fetch(mServer.url("/portal")));
+    }
+
+    @Test
+    public void refusedConnectionOpensTheBreaker() throws IOException {
+        // a port nobody listens on anymore
+        ServerSocket socket = new ServerSocket(0);
+        String url = "http://127.0.0.1:" + socket.getLocalPort() + "/ip";
+        socket.close();
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mClient.fetch(url);
+                fail();
+            } catch (ConnectException expected) {
+                // counted: the network let us reach the host
+            }
+        }
+
+        try {
+            mClient.fetch(url);
+            fail();
+        } catch (EndpointUnavailableException expected) {
+            // skipped
+        }
+    }
+
+    @Test
+    public void junkAnswerOpensTheBreaker() throws IOException {
+        mServer.answer("/ip", 200, "text/plain", "not an address");
+        BoundedBodyReader reader = BoundedBodyReader.ipAddress(64);
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mClient.fetch(mServer.url("/ip"), reader, null, null);
+                fail();
+            } catch (InvalidResponseException expected) {
+                // counted
+            }
+        }
+
+        try {
+            mClient.fetch(mServer.url("/ip"), reader, null, null);
+            fail();
+        } catch (EndpointUnavailableException expected) {
+            assertEquals(CircuitBreaker.FAILURE_THRESHOLD, mServer.getRequestCount());
+        }
+    }
+
+    @Test
+    public void raceSkipsAnEndpointThatKeepsFailing() throws IOException {
+        mServer.answer("/down", 503, "text/plain", "Service unavailable");
+        mServer.answer("/ip", 200, "text/plain", "1.2.3.4");
+        for (int i = 0; i < CircuitBreaker.FAILURE_THRESHOLD; i++) {
+            try {
+                mClient.fetch(mServer.url("/down"));
+            } catch (HttpStatusException expected) {
+                // counted
+            }
+        }
+
+        // same server, but another host as far as the client is concerned
+        String backup = mServer.url("/ip").replace("127.0.0.1", "localhost");
+        String ip = mClient.fetchFirst(new String[]{mServer.url("/ip"), backup}, 1000, IS_IP);
+
+        assertEquals("1.2.3.4", ip);
+        assertEquals(CircuitBreaker.FAILURE_THRESHOLD + 1, mServer.getRequestCount());
+    }
+
+    @Test(expected = InvalidResponseException.class)
+    public void webPageIsNotReturnedAsData() throws IOException {
+        mServer.answer("/portal", 200, "text/html; charset=utf-8", "<html>captive portal</html>");
+
+        mClient.fetch(mServer.url("/portal"));
+    }
+
+    @Test
+    public void raceSkipsAnAnswerThatIsNotAnAddress() throws IOException {
+        mServer.answer("/junk", 200, "text/plain", "Please log in to use the internet");
+        mServer.answer("/ip", 200, "text/plain", "1.2.3.4\n");
+
+        String ip = mClient.fetchFirstRead(new String[]{mServer.url("/junk"), mServer.url("/ip")}, -1,
+                BoundedBodyReader.ipAddress(64), null, null);
+        assertEquals("1.2.3.4", ip);
+    }
+
+    @Test
+    public void probeTellsOnlineFromCaptive() throws IOException {
+        mServer.answer("/generate_204", 204, "text/plain", "");
+        mServer.answer("/portal", 302, "text/html", "<a href=\"http://login.hotel\">log in</a>");
+        mServer.answer("/login", 200, "text/html", "<html>log in</html>");
+
+        assertEquals(Reachability.ONLINE, mClient.probe(mServer.url("/generate_204"), null, Deadline.in(1000)));
+        assertEquals(Reachability.CAPTIVE, mClient.probe(mServer.url("/portal"), null, Deadline.in(1000)));
+        assertEquals(Reachability.CAPTIVE, mClient.probe(mServer.url("/login"), null, Deadline.in(1000)));
+    }
+
+    @Test
+    public void probeTellsOfflineFromSlow() throws IOException {
+        mServer.answer("/slow", 204, "text/plain", new byte[0], 2000);
+        String unreachable = mServer.url("/generate_204");
+        mServer.shutdown();
+
+        assertEquals(Reachability.OFFLINE, mClient.probe(unreachable, null, Deadline.in(1000)));
+
+        mServer = new StubHttpServer();
+        mServer.answer("/slow", 204, "text/plain", new byte[0], 2000);
+        assertEquals(Reachability.UNKNOWN, mClient.probe(mServer.url("/slow"), null, Deadline.in(300)));
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void expiredDeadlineSendsNothing() throws IOException {
+        mServer.answer("/ip", 200, "text/plain", "1.2.3.4");
+
+        mClient.fetch(mServer.url("/ip"), null, Deadline.in(0));
+    }
+}
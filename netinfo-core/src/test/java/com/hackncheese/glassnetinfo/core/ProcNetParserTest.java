@@ -0,0 +1,50 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProcNetParserTest {
+
+    private static BufferedReader fixture(String name) {
+        return new BufferedReader(new InputStreamReader(
+                ProcNetParserTest.class.getResourceAsStream("/proc/" + name)));
+    }
+
+    @Test
+    public void picksTheDefaultRouteWithTheLowestMetric() throws IOException {
+        ProcNetParser.Route route = ProcNetParser.parseDefaultRoute(fixture("route"));
+
+        assertEquals("wlan0", route.iface);
+        assertEquals("192.168.1.1", route.gateway);
+    }
+
+    @Test
+    public void hasNoGatewayWithoutADefaultRoute() throws IOException {
+        assertNull(ProcNetParser.parseDefaultRoute(fixture("route_no_default")));
+    }
+
+    @Test
+    public void readsIPv6AddressesGlobalFirst() throws IOException {
+        Map<String, List<String>> addresses = ProcNetParser.parseIPv6Addresses(fixture("if_inet6"));
+
+        assertEquals(Arrays.asList("2a01:4f8::abc", "fe80::21a:11ff:fe00:e3a7"), addresses.get("wlan0"));
+        assertEquals(Arrays.asList("fe80::b0c2:a4ff:fe7c:6e19"), addresses.get("bnep0"));
+        assertEquals(Arrays.asList("::1"), addresses.get("lo"));
+    }
+
+    @Test
+    public void convertsAddresses() {
+        assertEquals("192.168.1.1", ProcNetParser.littleEndianToIPv4(0x0101A8C0L));
+        assertEquals("::1", ProcNetParser.formatIPv6("00000000000000000000000000000001"));
+        assertEquals("2001:db8:0:1::", ProcNetParser.formatIPv6("20010db8000000010000000000000000"));
+    }
+}
@@ -0,0 +1,68 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ProviderCacheTest {
+
+    private static final long ONE_HOUR = 3600 * 1000L;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static IpInfo info(String ip) {
+        return new IpInfo(ip, "AS3215", "Orange", "Paris", "FR");
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsed() throws IOException {
+        ProviderCache cache = new ProviderCache(mFolder.newFile(), 2, ONE_HOUR);
+        cache.put(info("1.1.1.1"));
+        cache.put(info("2.2.2.2"));
+        cache.get("1.1.1.1");
+        cache.put(info("3.3.3.3"));
+
+        assertEquals("Orange", cache.get("1.1.1.1").getOrg());
+        assertNull(cache.get("2.2.2.2"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void expiresOldEntries() throws IOException {
+        ProviderCache cache = new ProviderCache(mFolder.newFile(), 2, -1);
+        cache.put(info("1.1.1.1"));
+
+        assertNull(cache.get("1.1.1.1"));
+    }
+
+    @Test
+    public void survivesARestart() throws IOException {
+        File file = mFolder.newFile();
+        new ProviderCache(file, 8, ONE_HOUR).put(new IpInfo("1.1.1.1", null, "Orange", null, "FR"));
+
+        IpInfo info = new ProviderCache(file, 8, ONE_HOUR).get("1.1.1.1");
+        assertEquals("Orange", info.getOrg());
+        assertNull(info.getAsn());
+        assertEquals("FR", info.getCountry());
+    }
+
+    @Test
+    public void ignoresAnUnreadableFile() throws IOException {
+        File file = mFolder.newFile();
+        FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[]{1, 2, 3});
+        out.close();
+
+        assertNull(new ProviderCache(file, 8, ONE_HOUR).get("1.1.1.1"));
+    }
+}
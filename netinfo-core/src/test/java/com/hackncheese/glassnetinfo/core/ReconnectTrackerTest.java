@@ -0,0 +1,70 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReconnectTrackerTest {
+
+    @Test
+    public void timesEachPhaseOfAReconnect() {
+        ReconnectTracker tracker = new ReconnectTracker(ReconnectTracker.Phase.OFF);
+
+        tracker.start(true, 1000);
+        assertTrue(tracker.reach(ReconnectTracker.Phase.RADIO_ON, 1800));
+        assertTrue(tracker.reach(ReconnectTracker.Phase.ASSOCIATED, 3000));
+        assertTrue(tracker.reach(ReconnectTracker.Phase.CONNECTED, 3300));
+        assertTrue(tracker.reach(ReconnectTracker.Phase.ONLINE, 3700));
+
+        assertEquals(800, tracker.getDurationMs(ReconnectTracker.Phase.RADIO_ON));
+        assertEquals(1200, tracker.getDurationMs(ReconnectTracker.Phase.ASSOCIATED));
+        assertEquals(300, tracker.getDurationMs(ReconnectTracker.Phase.CONNECTED));
+        assertEquals(400, tracker.getDurationMs(ReconnectTracker.Phase.ONLINE));
+        assertEquals(2700, tracker.getElapsedMs(9999));
+        assertFalse(tracker.isTracking());
+    }
+
+    @Test
+    public void ignoresLateAndRepeatedBroadcasts() {
+        ReconnectTracker tracker = new ReconnectTracker(ReconnectTracker.Phase.OFF);
+        tracker.start(true, 0);
+        tracker.reach(ReconnectTracker.Phase.ASSOCIATED, 500);
+
+        assertFalse(tracker.reach(ReconnectTracker.Phase.RADIO_ON, 600));
+        assertFalse(tracker.reach(ReconnectTracker.Phase.ASSOCIATED, 700));
+        assertEquals(ReconnectTracker.Phase.ASSOCIATED, tracker.getPhase());
+    }
+
+    @Test
+    public void skippedPhasesAreReachedTogether() {
+        ReconnectTracker tracker = new ReconnectTracker(ReconnectTracker.Phase.OFF);
+        tracker.start(true, 0);
+
+        tracker.reach(ReconnectTracker.Phase.CONNECTED, 2000);
+
+        assertEquals(2000, tracker.getDurationMs(ReconnectTracker.Phase.RADIO_ON));
+        assertEquals(0, tracker.getDurationMs(ReconnectTracker.Phase.ASSOCIATED));
+        assertEquals(0, tracker.getDurationMs(ReconnectTracker.Phase.CONNECTED));
+        assertEquals(-1, tracker.getDurationMs(ReconnectTracker.Phase.ONLINE));
+    }
+
+    @Test
+    public void turningOffOnlyEndsOff() {
+        ReconnectTracker tracker = new ReconnectTracker(ReconnectTracker.Phase.ONLINE);
+        tracker.start(false, 0);
+
+        assertFalse(tracker.reach(ReconnectTracker.Phase.CONNECTED, 100));
+        assertTrue(tracker.reach(ReconnectTracker.Phase.OFF, 400));
+        assertEquals(400, tracker.getDurationMs(ReconnectTracker.Phase.OFF));
+    }
+
+    @Test
+    public void nothingIsTimedBeforeAToggle() {
+        ReconnectTracker tracker = new ReconnectTracker(ReconnectTracker.Phase.OFF);
+
+        assertFalse(tracker.reach(ReconnectTracker.Phase.RADIO_ON, 100));
+        assertEquals(0, tracker.getElapsedMs(100));
+    }
+}
@@ -0,0 +1,96 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Counts what a refresh allocates, once the connections are warm, to catch a change that makes
+ * every refresh allocate more (a new client, a parser reading the body into a String...).
+ * Only the allocations of the thread running the lookups are counted, which is where they run.
+ * The stub server closes the connection after a 204, unlike the real probe endpoint,
+ * so the reachability probe connects again on each refresh and that is counted too.
+ * <p/>
+ * Only the lookups are guarded: what the app does with their outcome on the UI thread
+ * (the cards built by MainActivity and CardAdapter, their strings, the sound played) is not measured.
+ */
+public class RefreshAllocationTest {
+
+    // a warm refresh allocated 26.5 to 26.6 kB when this test was written (JDK 17, OkHttp 2.7.5),
+    // mostly inside OkHttp. The budget leaves 20% for other JVMs and their socket classes:
+    // one more 8 kB okio segment per refresh still goes past it, clones are counted apart
+    private static final long BUDGET_BYTES_PER_REFRESH = 32000;
+    private static final int WARMUP_REFRESHES = 50;
+    private static final int MEASURED_REFRESHES = 200;
+
+    private StubHttpServer mServer;
+    private NetInfoHttpClient mClient;
+    private RefreshCoordinator mCoordinator;
+    private final IpInfoParser mParser = new IpInfoParser();
+    private com.sun.management.ThreadMXBean mThreads;
+
+    @Before
+    public void setUp() throws IOException {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+        mThreads = (com.sun.management.ThreadMXBean) threads;
+        Assume.assumeTrue(mThreads.isThreadAllocatedMemorySupported());
+        mThreads.setThreadAllocatedMemoryEnabled(true);
+
+        mServer = new StubHttpServer();
+        mServer.answer("/generate_204", 204, "text/plain", "");
+        mServer.answer("/json", 200, "application/json",
+                "{\"ip\": \"8.8.8.8\", \"hostname\": \"dns.google\", \"city\": \"Mountain View\","
+                        + " \"region\": \"California\", \"country\": \"US\", \"org\": \"AS15169 Google LLC\"}");
+        mClient = new NetInfoHttpClient(new RefreshTimings());
+        mCoordinator = new RefreshCoordinator(mClient);
+    }
+
+    @After
+    public void tearDown() {
+        if (mServer != null) {
+            mServer.shutdown();
+        }
+    }
+
+    @Test
+    public void warmRefreshStaysWithinBudget() throws IOException {
+        for (int i = 0; i < WARMUP_REFRESHES; i++) {
+            refresh();
+        }
+
+        int clonesBefore = mClient.getCloneCount();
+        long threadId = Thread.currentThread().getId();
+        long before = mThreads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_REFRESHES; i++) {
+            refresh();
+        }
+        long perRefresh = (mThreads.getThreadAllocatedBytes(threadId) - before) / MEASURED_REFRESHES;
+
+        assertTrue("allocated " + perRefresh + " bytes per refresh, budget is " + BUDGET_BYTES_PER_REFRESH,
+                perRefresh <= BUDGET_BYTES_PER_REFRESH);
+        // a clone is too small to show in the budget: warm refreshes get the clients already made
+        assertEquals(clonesBefore, mClient.getCloneCount());
+        // the ip info lookups reused their connection all along
+        assertTrue(mClient.getReusedConnectionCount() >= MEASURED_REFRESHES);
+    }
+
+    /**
+     * The lookups of a refresh, as the refresh pipeline makes them with the combined ip info request
+     */
+    private void refresh() throws IOException {
+        RefreshCoordinator.Generation generation = mCoordinator.start();
+        Deadline deadline = Deadline.in(3000);
+        assertEquals(Reachability.ONLINE, mClient.probe(mServer.url("/generate_204"), generation, deadline.slice(800)));
+        IpInfo ipInfo = mClient.fetch(mServer.url("/json"), mParser, generation, deadline.slice(1500));
+        assertEquals("8.8.8.8", ipInfo.getIp());
+        mCoordinator.finish(generation);
+    }
+}
@@ -0,0 +1,92 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RefreshCoordinatorTest {
+
+    private StubHttpServer mServer;
+    private NetInfoHttpClient mClient;
+    private RefreshCoordinator mCoordinator;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mClient = new NetInfoHttpClient(new RefreshTimings());
+        mCoordinator = new RefreshCoordinator(mClient);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void overlappingRefreshesJoinTheRunningOne() {
+        RefreshCoordinator.Generation first = mCoordinator.startOrJoin();
+
+        assertNotNull(first);
+        assertNull(mCoordinator.startOrJoin());
+        assertEquals(1, mCoordinator.getJoinedCount());
+
+        assertTrue(mCoordinator.finish(first));
+        assertNotNull(mCoordinator.startOrJoin());
+    }
+
+    @Test
+    public void supersededGenerationsAreDropped() {
+        RefreshCoordinator.Generation old = mCoordinator.startOrJoin();
+        RefreshCoordinator.Generation current = mCoordinator.start();
+
+        assertTrue(old.isCancelled());
+        assertFalse(mCoordinator.isCurrent(old));
+        assertFalse(mCoordinator.finish(old));
+        assertTrue(mCoordinator.isRunning());
+        assertTrue(mCoordinator.isCurrent(current));
+    }
+
+    @Test
+    public void cancelAbortsTheBlockedCall() throws Exception {
+        mServer.answer("/slow", 200, "text/plain", "1.2.3.4".getBytes("UTF-8"), 5000);
+        final RefreshCoordinator.Generation generation = mCoordinator.startOrJoin();
+        final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+        final CountDownLatch done = new CountDownLatch(1);
+
+        Thread thread = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    mClient.fetch(mServer.url("/slow"), generation, null);
+                } catch (IOException e) {
+                    failure.set(e);
+                } finally {
+                    done.countDown();
+                }
+            }
+        };
+        thread.start();
+        // let the request reach the server
+        while (mServer.getRequestCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        mCoordinator.cancel();
+
+        // well before both the read timeout and the answer
+        assertTrue(done.await(500, TimeUnit.MILLISECONDS));
+        assertNotNull(failure.get());
+        assertFalse(mCoordinator.isRunning());
+    }
+}
@@ -0,0 +1,130 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ScanDeckTest {
+
+    private static AccessPoint ap(String bssid, int rssi) {
+        return new AccessPoint("venue", bssid, rssi, 2437, "[WPA2-PSK-CCMP][ESS]");
+    }
+
+    @Test
+    public void firstScanIsStrongestFirst() {
+        ScanDeck deck = new ScanDeck(1);
+
+        ScanDeck.Changes changes = deck.update(Arrays.asList(
+                ap("00:00:00:00:00:01", -80), ap("00:00:00:00:00:02", -40), ap("00:00:00:00:00:03", -60)));
+
+        assertEquals(3, changes.added);
+        assertEquals(-40, deck.get(0).getRssi());
+        assertEquals(-60, deck.get(1).getRssi());
+        assertEquals(-80, deck.get(2).getRssi());
+    }
+
+    @Test
+    public void accessPointsKeepTheirPositionAcrossScans() {
+        ScanDeck deck = new ScanDeck(1);
+        deck.update(Arrays.asList(ap("00:00:00:00:00:01", -40), ap("00:00:00:00:00:02", -60)));
+
+        // the second one got stronger: it does not move, the card is only bound again
+        ScanDeck.Changes changes = deck.update(Arrays.asList(
+                ap("00:00:00:00:00:01", -40), ap("00:00:00:00:00:02", -30), ap("00:00:00:00:00:03", -20)));
+
+        assertEquals(1, changes.added);
+        assertEquals(1, changes.changed);
+        assertEquals(0, deck.indexOf(ap("00:00:00:00:00:01", 0).getId()));
+        assertEquals(1, deck.indexOf(ap("00:00:00:00:00:02", 0).getId()));
+        assertEquals(2, deck.indexOf(ap("00:00:00:00:00:03", 0).getId()));
+    }
+
+    @Test
+    public void sameScanChangesNothing() {
+        ScanDeck deck = new ScanDeck(1);
+        deck.update(Arrays.asList(ap("00:00:00:00:00:01", -40), ap("00:00:00:00:00:02", -60)));
+
+        ScanDeck.Changes changes = deck.update(Arrays.asList(ap("00:00:00:00:00:02", -60), ap("00:00:00:00:00:01", -40)));
+
+        assertTrue(changes.isEmpty());
+        assertFalse(changes.isStructural());
+    }
+
+    @Test
+    public void signalJitterChangesNothing() {
+        ScanDeck deck = new ScanDeck(1);
+        deck.update(Arrays.asList(ap("00:00:00:00:00:01", -40), ap("00:00:00:00:00:02", -60)));
+
+        ScanDeck.Changes changes = deck.update(Arrays.asList(ap("00:00:00:00:00:01", -41), ap("00:00:00:00:00:02", -59)));
+
+        assertTrue(changes.isEmpty());
+        // the card keeps showing what it was bound to
+        assertEquals(-40, deck.get(0).getRssi());
+    }
+
+    @Test
+    public void missedAccessPointIsRemovedAfterSeveralScans() {
+        ScanDeck deck = new ScanDeck(2);
+        deck.update(Arrays.asList(ap("00:00:00:00:00:01", -40), ap("00:00:00:00:00:02", -60)));
+        List<AccessPoint> withoutSecond = Collections.singletonList(ap("00:00:00:00:00:01", -40));
+
+        assertEquals(0, deck.update(withoutSecond).removed);
+        assertEquals(0, deck.update(withoutSecond).removed);
+        assertEquals(1, deck.update(withoutSecond).removed);
+        assertEquals(1, deck.size());
+        assertEquals(-1, deck.indexOf(ap("00:00:00:00:00:02", 0).getId()));
+    }
+
+    @Test
+    public void duplicatesOfAScanAreMerged() {
+        ScanDeck deck = new ScanDeck(1);
+
+        deck.update(Arrays.asList(ap("00:00:00:00:00:01", -70), ap("00:00:00:00:00:01", -50)));
+
+        assertEquals(1, deck.size());
+        assertEquals(-50, deck.get(0).getRssi());
+    }
+
+    @Test
+    public void largeScansStayConsistent() {
+        ScanDeck deck = new ScanDeck(0);
+        List<AccessPoint> scan = new ArrayList<AccessPoint>();
+        for (int i = 0; i < 150; i++) {
+            scan.add(ap(String.format("00:00:00:00:%02x:%02x", i / 256, i % 256), -30 - i % 60));
+        }
+        deck.update(scan);
+
+        // every other access point goes away
+        List<AccessPoint> half = new ArrayList<AccessPoint>();
+        for (int i = 0; i < scan.size(); i += 2) {
+            half.add(scan.get(i));
+        }
+        ScanDeck.Changes changes = deck.update(half);
+
+        assertEquals(75, changes.removed);
+        assertEquals(75, deck.size());
+        for (int i = 0; i < deck.size(); i++) {
+            assertEquals(i, deck.indexOf(deck.get(i).getId()));
+        }
+    }
+
+    @Test
+    public void channelAndSecurityAreDecoded() {
+        assertEquals(1, new AccessPoint(null, "00:00:00:00:00:01", -50, 2412, "[ESS]").getChannel());
+        assertEquals(14, new AccessPoint(null, "00:00:00:00:00:01", -50, 2484, "[ESS]").getChannel());
+        assertEquals(36, new AccessPoint(null, "00:00:00:00:00:01", -50, 5180, "[ESS]").getChannel());
+
+        assertEquals("open", new AccessPoint(null, "00:00:00:00:00:01", -50, 2412, "[ESS]").getSecurity());
+        assertEquals("WPA2", ap("00:00:00:00:00:01", -50).getSecurity());
+        assertEquals("WPA2 EAP",
+                new AccessPoint(null, "00:00:00:00:00:01", -50, 2412, "[WPA2-EAP-CCMP][ESS]").getSecurity());
+        assertEquals(0x0011223344aaL, new AccessPoint(null, "00:11:22:33:44:aa", -50, 2412, null).getId());
+    }
+}
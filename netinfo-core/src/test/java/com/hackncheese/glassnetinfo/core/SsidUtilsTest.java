@@ -0,0 +1,23 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class SsidUtilsTest {
+
+    @Test
+    public void takesTheQuotesOff() {
+        assertEquals("Hack'n'Cheese", SsidUtils.unquote("\"Hack'n'Cheese\""));
+        assertEquals("raw", SsidUtils.unquote("raw"));
+        assertEquals("\"", SsidUtils.unquote("\""));
+    }
+
+    @Test
+    public void unknownSsidsAreNull() {
+        assertNull(SsidUtils.unquote(null));
+        assertNull(SsidUtils.unquote("0x"));
+        assertNull(SsidUtils.unquote("<unknown ssid>"));
+    }
+}
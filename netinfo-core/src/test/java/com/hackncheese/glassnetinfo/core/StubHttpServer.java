@@ -0,0 +1,153 @@
+package com.hackncheese.glassnetinfo.core;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A local stand-in for the lookup services, serving canned answers on the loopback interface.
+ * Uses the HTTP server of the JDK, so it needs no dependency.
+ */
+public class StubHttpServer {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final HttpServer mServer;
+    private final ConcurrentHashMap<String, Answer> mAnswers = new ConcurrentHashMap<String, Answer>();
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+
+    public StubHttpServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        mServer.setExecutor(Executors.newCachedThreadPool());
+        mServer.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                mRequestCount.incrementAndGet();
+                Answer answer = mAnswers.get(exchange.getRequestURI().getPath());
+                if (answer == null) {
+                    answer = new Answer(404, "text/plain", "not found".getBytes(UTF_8), 0, 0, 0, -1);
+                }
+                if (answer.delayMs > 0) {
+                    try {
+                        Thread.sleep(answer.delayMs);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+
+                exchange.getResponseHeaders().set("Content-Type", answer.contentType);
+                boolean isHead = exchange.getRequestMethod().equals("HEAD");
+                exchange.sendResponseHeaders(answer.status, isHead ? -1 : answer.body.length);
+                OutputStream out = exchange.getResponseBody();
+                try {
+                    if (!isHead) {
+                        write(out, answer);
+                    }
+                } catch (IOException e) {
+                    // the client went away, like a cancelled hedged request
+                } finally {
+                    // short of its length, a broken answer makes the server drop the connection
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    private static void write(OutputStream out, Answer answer) throws IOException {
+        if (answer.chunkBytes <= 0) {
+            out.write(answer.body);
+            return;
+        }
+        // like a slow network: a chunk at a time
+        int length = answer.breakAfterBytes >= 0 ? answer.breakAfterBytes : answer.body.length;
+        for (int offset = 0; offset < length; offset += answer.chunkBytes) {
+            out.write(answer.body, offset, Math.min(answer.chunkBytes, length - offset));
+            out.flush();
+            try {
+                Thread.sleep(answer.chunkDelayMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Serves a text answer on a path
+     */
+    public void answer(String path, int status, String contentType, String body) {
+        answer(path, status, contentType, body.getBytes(UTF_8), 0);
+    }
+
+    /**
+     * Serves an answer on a path, after a delay
+     */
+    public void answer(String path, int status, String contentType, byte[] body, long delayMs) {
+        mAnswers.put(path, new Answer(status, contentType, body, delayMs, 0, 0, -1));
+    }
+
+    /**
+     * Serves a file on a path, a chunk at a time with a delay between chunks
+     */
+    public void answerSlowly(String path, byte[] body, int chunkBytes, long chunkDelayMs) {
+        mAnswers.put(path, new Answer(200, "application/octet-stream", body, 0, chunkBytes, chunkDelayMs, -1));
+    }
+
+    /**
+     * Serves a file on a path like {@link #answerSlowly}, but drops the connection after some of it
+     */
+    public void answerBroken(String path, byte[] body, int chunkBytes, long chunkDelayMs, int breakAfterBytes) {
+        mAnswers.put(path, new Answer(200, "application/octet-stream", body, 0, chunkBytes, chunkDelayMs,
+                breakAfterBytes));
+    }
+
+    /**
+     * @return the full URL of a path on this server
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    /**
+     * @return how many requests the server got
+     */
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public void shutdown() {
+        mServer.stop(0);
+    }
+
+    private static final class Answer {
+        final int status;
+        final String contentType;
+        final byte[] body;
+        final long delayMs;
+        final int chunkBytes;
+        final long chunkDelayMs;
+        // how much of the body is sent before the connection is dropped, -1 for all of it
+        final int breakAfterBytes;
+
+        Answer(int status, String contentType, byte[] body, long delayMs, int chunkBytes, long chunkDelayMs,
+               int breakAfterBytes) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+            this.delayMs = delayMs;
+            this.chunkBytes = chunkBytes;
+            this.chunkDelayMs = chunkDelayMs;
+            this.breakAfterBytes = breakAfterBytes;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThroughputMeterTest {
+
+    private static final long MS = 1000000;
+
+    @Test
+    public void samplesAtTheInterval() {
+        ThroughputMeter meter = new ThroughputMeter(100, 5, 10);
+        meter.start(0);
+
+        assertFalse(meter.update(50 * MS, 1000));
+        assertEquals(0, meter.getMbps(), 0);
+        // 125000 bytes in 100 ms: 10 Mbit/s
+        assertTrue(meter.update(100 * MS, 125000));
+        assertEquals(10, meter.getMbps(), 0.001);
+        assertEquals(1, meter.getSampleCount());
+    }
+
+    @Test
+    public void slowStartFadesOutOfTheWindow() {
+        ThroughputMeter meter = new ThroughputMeter(100, 3, 10);
+        meter.start(0);
+        long bytes = 12500;
+        meter.update(100 * MS, bytes);
+        for (int i = 2; i <= 4; i++) {
+            bytes += 125000;
+            meter.update(i * 100 * MS, bytes);
+        }
+
+        assertEquals(10, meter.getMbps(), 0.001);
+        // the slow start still weighs on the average
+        assertEquals(7.75, meter.getAverageMbps(400 * MS), 0.001);
+    }
+
+    @Test
+    public void steadyTransferIsStable() {
+        ThroughputMeter meter = new ThroughputMeter(100, 3, 10);
+        meter.start(0);
+        long bytes = 0;
+        for (int i = 1; i <= 5; i++) {
+            bytes += 125000;
+            meter.update(i * 100 * MS, bytes);
+            // the window is not full of full window estimates yet
+            assertFalse(meter.isStable());
+        }
+        bytes += 125000;
+        meter.update(600 * MS, bytes);
+        assertTrue(meter.isStable());
+    }
+
+    @Test
+    public void swingingTransferIsNotStable() {
+        ThroughputMeter meter = new ThroughputMeter(100, 3, 10);
+        meter.start(0);
+        long bytes = 0;
+        for (int i = 1; i <= 20; i++) {
+            // 1 then 19 Mbit/s, over and over: the window swings between 7 and 13
+            bytes += i % 2 == 0 ? 12500 : 237500;
+            meter.update(i * 100 * MS, bytes);
+            assertFalse(meter.isStable());
+        }
+    }
+
+    @Test
+    public void startForgetsThePreviousMeasurement() {
+        ThroughputMeter meter = new ThroughputMeter(100, 3, 10);
+        meter.start(0);
+        meter.update(100 * MS, 125000);
+
+        meter.start(1000 * MS);
+        assertEquals(0, meter.getMbps(), 0);
+        assertEquals(0, meter.getSampleCount());
+        assertEquals(0, meter.getTotalBytes());
+    }
+}
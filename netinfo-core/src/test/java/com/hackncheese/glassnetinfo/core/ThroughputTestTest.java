@@ -0,0 +1,150 @@
+package com.hackncheese.glassnetinfo.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ThroughputTestTest {
+
+    private static final int FILE_BYTES = 8 * 1024 * 1024;
+
+    private StubHttpServer mServer;
+    private RefreshTimings mTimings;
+    private NetInfoHttpClient mClient;
+
+    @Before
+    public void setUp() throws IOException {
+        mServer = new StubHttpServer();
+        mTimings = new RefreshTimings();
+        mClient = new NetInfoHttpClient(mTimings);
+    }
+
+    @After
+    public void tearDown() {
+        mServer.shutdown();
+    }
+
+    @Test
+    public void measuresTheWholeFileWhenNeverStable() throws IOException {
+        mServer.answer("/file", 200, "application/octet-stream", new byte[FILE_BYTES], 0);
+        // a spread of 0 is never reached
+        ThroughputTest test = new ThroughputTest(mClient, mServer.url("/file"), 16 * 1024,
+                new ThroughputMeter(1, 4, 0));
+        final AtomicInteger samples = new AtomicInteger();
+        test.setListener(new ThroughputTest.Listener() {
+            @Override
+            public void onSample(double mbps, long totalBytes) {
+                samples.incrementAndGet();
+            }
+        });
+
+        ThroughputTest.Result result = test.run(Deadline.in(10000));
+
+        assertEquals(ThroughputTest.End.COMPLETE, result.end);
+        assertEquals(FILE_BYTES, result.totalBytes);
+        assertTrue(result.averageMbps > 0);
+        assertTrue(samples.get() > 0);
+        // the download is kept out of the refresh timings
+        assertEquals(0, mTimings.getHistogram(RefreshTimings.Stage.TTFB).getCount());
+        assertEquals(0, mTimings.getHistogram(RefreshTimings.Stage.BODY).getCount());
+    }
+
+    @Test
+    public void stopsOnceStable() throws IOException {
+        // 64 kB every 20 ms: about 26 Mbit/s, for 4 s
+        mServer.answerSlowly("/file", new byte[200 * 64 * 1024], 64 * 1024, 20);
+        ThroughputTest test = new ThroughputTest(mClient, mServer.url("/file"), 16 * 1024,
+                new ThroughputMeter(100, 4, 50));
+
+        ThroughputTest.Result result = test.run(Deadline.in(10000));
+
+        assertEquals(ThroughputTest.End.STABLE, result.end);
+        assertTrue("stopped after " + result.durationMs + " ms", result.durationMs < 3000);
+        assertTrue("measured " + result.mbps, result.mbps > 10 && result.mbps < 40);
+    }
+
+    @Test
+    public void stopsAtTheDeadline() throws IOException {
+        mServer.answerSlowly("/file", new byte[200 * 64 * 1024], 64 * 1024, 20);
+        ThroughputTest test = new ThroughputTest(mClient, mServer.url("/file"), 16 * 1024,
+                new ThroughputMeter(50, 4, 0));
+
+        ThroughputTest.Result result = test.run(Deadline.in(500));
+
+        assertEquals(ThroughputTest.End.TIME_UP, result.end);
+        assertTrue(result.totalBytes > 0 && result.totalBytes < 200 * 64 * 1024);
+    }
+
+    @Test
+    public void stopsWhenCancelled() throws Exception {
+        mServer.answerSlowly("/file", new byte[200 * 64 * 1024], 64 * 1024, 20);
+        final ThroughputTest test = new ThroughputTest(mClient, mServer.url("/file"), 16 * 1024,
+                new ThroughputMeter(50, 4, 0));
+        Thread canceller = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(300);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                test.cancel();
+            }
+        });
+        canceller.start();
+
+        ThroughputTest.Result result = test.run(Deadline.in(10000));
+        canceller.join();
+
+        assertEquals(ThroughputTest.End.CANCELLED, result.end);
+        assertTrue("stopped after " + result.durationMs + " ms", result.durationMs < 2000);
+    }
+
+    @Test
+    public void keepsWhatWasMeasuredWhenTheDownloadBreaks() throws IOException {
+        // 64 kB every 20 ms, then the connection drops after 1 s
+        mServer.answerBroken("/file", new byte[200 * 64 * 1024], 64 * 1024, 20, 50 * 64 * 1024);
+        ThroughputTest test = new ThroughputTest(mClient, mServer.url("/file"), 16 * 1024,
+                new ThroughputMeter(50, 4, 0));
+
+        ThroughputTest.Result result = test.run(Deadline.in(10000));
+
+        assertEquals(ThroughputTest.End.FAILED, result.end);
+        assertEquals(50 * 64 * 1024, result.totalBytes);
+        assertTrue(result.mbps > 0);
+    }
+
+    @Test
+    public void slowReadsAreOnlyBoundByTheDeadline() throws IOException {
+        // a chunk every 1.2 s, longer than the 1 s timeout of a lookup
+        mServer.answerSlowly("/file", new byte[2 * 1024], 1024, 1200);
+        ThroughputTest test = new ThroughputTest(mClient, mServer.url("/file"), 16 * 1024,
+                new ThroughputMeter(50, 4, 0));
+
+        ThroughputTest.Result result = test.run(Deadline.in(10000));
+
+        assertEquals(ThroughputTest.End.COMPLETE, result.end);
+        assertEquals(2 * 1024, result.totalBytes);
+    }
+
+    @Test
+    public void failsWhenTheFileIsMissing() {
+        ThroughputTest test = new ThroughputTest(mClient, mServer.url("/missing"), 16 * 1024,
+                new ThroughputMeter(50, 4, 10));
+        try {
+            test.run(Deadline.in(2000));
+            fail();
+        } catch (HttpStatusException e) {
+            assertEquals(404, e.getCode());
+        } catch (IOException e) {
+            fail(e.toString());
+        }
+    }
+}